@@ -0,0 +1,96 @@
+package com.mymoney.investment.benchmark;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.AssetTotalsDTO;
+import com.mymoney.investment.dto.DriftHistogramDTO;
+import com.mymoney.investment.dto.PortfolioGrowthDTO;
+import com.mymoney.investment.service.AnalyticsService;
+import com.mymoney.investment.service.AnalyticsServiceImpl;
+import com.mymoney.investment.service.InvestmentService;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Month;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Queries of {@link AnalyticsServiceImpl} over a store of portfolios that calculated a whole year
+ * with random rates, so growth and drift differ between portfolios.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AnalyticsBenchmark {
+
+    private static final double[] ALLOCATION = {6000, 3000, 1000};
+    private static final double[] SIP = {2000, 1000, 500};
+
+    @Param({"1000", "1000000"})
+    public int portfolioCount;
+
+    private AnalyticsService analyticsService;
+    private int month;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Loading a million portfolios would otherwise print every debug line of the service.
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
+                .setLevel(ch.qos.logback.classic.Level.INFO);
+        PortfolioStore portfolioStore = PortfolioStore.builder(MyMoneyConfig::dataStub)
+                .initialCapacity(portfolioCount)
+                .build();
+        InvestmentService investmentService = new InvestmentServiceImpl(portfolioStore);
+        IntStream.range(0, portfolioCount).parallel().forEach(index -> {
+            String portfolioId = "portfolio-" + index;
+            SplittableRandom random = new SplittableRandom(index);
+            try {
+                investmentService.allocate(portfolioId, ALLOCATION);
+                investmentService.sip(portfolioId, SIP);
+                for (Month month : Month.values()) {
+                    investmentService.change(portfolioId, new double[] {
+                            random.nextDouble(-10, 15), random.nextDouble(-5, 10), random.nextDouble(-3, 5)}, month);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            investmentService.balance(portfolioId, Month.DECEMBER);
+        });
+        analyticsService = new AnalyticsServiceImpl(portfolioStore);
+    }
+
+    @Benchmark
+    public AssetTotalsDTO assetTotals() {
+        month = month + 1 == Month.values().length ? 0 : month + 1;
+        return analyticsService.assetTotals(month);
+    }
+
+    @Benchmark
+    public List<PortfolioGrowthDTO> topTenByGrowth() {
+        return analyticsService.topByGrowth(10);
+    }
+
+    @Benchmark
+    public DriftHistogramDTO driftHistogram() {
+        return analyticsService.driftHistogram();
+    }
+}
@@ -0,0 +1,95 @@
+package com.mymoney.investment.benchmark;
+
+import com.mymoney.investment.dto.CommandDTO;
+import com.mymoney.investment.utils.BinaryCommandFormat;
+import com.mymoney.investment.utils.BinaryCommandReader;
+import com.mymoney.investment.utils.CommandParser;
+import com.mymoney.investment.utils.CommandReader;
+import com.mymoney.investment.utils.Timeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a whole replay file, text through {@link CommandReader} and {@link CommandParser}
+ * against the memory mapped {@link BinaryCommandReader}. Neither runs the commands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandFileBenchmark {
+
+    @Param({"1000000"})
+    public int commandCount;
+
+    private final CommandDTO command = new CommandDTO();
+    private Path directory;
+    private Path textFile;
+    private Path binaryFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("command-file-benchmark");
+        textFile = directory.resolve("commands.txt");
+        binaryFile = directory.resolve("commands.bin");
+        try (BufferedWriter writer = Files.newBufferedWriter(textFile)) {
+            writer.write("ALLOCATE 6000 3000 1000\nSIP 2000 1000 500\n");
+            for (int month = 0; month < commandCount - 2; month++) {
+                writer.write("CHANGE 4.00% -10.00% 12.50% " + Timeline.monthOf(month) + " " + Timeline.yearOf(month));
+                writer.newLine();
+            }
+        }
+        BinaryCommandFormat.convert(textFile, binaryFile, 3);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(textFile);
+        Files.deleteIfExists(binaryFile);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public double readText() throws IOException {
+        double checksum = 0;
+        try (CommandReader reader = new CommandReader(FileChannel.open(textFile, StandardOpenOption.READ))) {
+            while (reader.nextLine()) {
+                CommandParser.parse(reader.buffer(), reader.lineStart(), reader.lineEnd(), 3, command);
+                checksum += command.getValues()[0];
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public double readBinary() throws IOException {
+        double checksum = 0;
+        try (BinaryCommandReader reader =
+                     new BinaryCommandReader(FileChannel.open(binaryFile, StandardOpenOption.READ))) {
+            while (reader.next(command)) {
+                checksum += command.getValues()[0];
+            }
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,76 @@
+package com.mymoney.investment.benchmark;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.service.InvestmentService;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import com.mymoney.investment.utils.CommandWriter;
+import com.mymoney.investment.utils.Timeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Month;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Printing {@value #LINES} balances of a calculated year, as Strings through an autoflushing
+ * {@link PrintStream} like System.out, against appending them to a {@link CommandWriter}. Both
+ * write to a stream that discards the bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandOutputBenchmark {
+
+    private static final int LINES = 10_000;
+    private static final String PORTFOLIO = "benchmark";
+
+    private InvestmentService investmentService;
+    private PrintStream printStream;
+    private CommandWriter writer;
+
+    @Setup
+    public void setUp() throws DataFormatException {
+        investmentService = new InvestmentServiceImpl(new PortfolioStore(MyMoneyConfig::dataStub));
+        investmentService.allocate(PORTFOLIO, new double[] {6000, 3000, 1000});
+        investmentService.sip(PORTFOLIO, new double[] {2000, 1000, 500});
+        for (Month month : Month.values()) {
+            investmentService.change(PORTFOLIO, new double[] {4, 10, 2}, month);
+        }
+        investmentService.balance(PORTFOLIO, Month.DECEMBER);
+        printStream = new PrintStream(OutputStream.nullOutputStream(), true, StandardCharsets.UTF_8);
+        writer = new CommandWriter(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void println() {
+        for (int line = 0; line < LINES; line++) {
+            printStream.println(investmentService.balance(PORTFOLIO, line % Timeline.MONTHS_PER_YEAR));
+        }
+    }
+
+    @Benchmark
+    public void commandWriter() throws IOException {
+        for (int line = 0; line < LINES; line++) {
+            investmentService.balance(PORTFOLIO, line % Timeline.MONTHS_PER_YEAR, writer);
+            writer.endLine();
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,62 @@
+package com.mymoney.investment.benchmark;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.CommandDTO;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import com.mymoney.investment.utils.CommandParser;
+import com.mymoney.investment.utils.InvestmentHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of command lines, both raw through {@link CommandParser} and end to end through
+ * {@link InvestmentHelper#processLine(String, String)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandParserBenchmark {
+
+    private static final String CHANGE = "CHANGE 4.00% -10.00% 12.50% JANUARY";
+    private static final String BALANCE = "BALANCE MARCH";
+
+    private final byte[] changeLine = CHANGE.getBytes(StandardCharsets.US_ASCII);
+    private final CommandDTO command = new CommandDTO();
+    private InvestmentHelper investmentHelper;
+
+    @Setup
+    public void setUp() {
+        investmentHelper =
+                new InvestmentHelper(
+                        new InvestmentServiceImpl(new PortfolioStore(MyMoneyConfig::dataStub)));
+        investmentHelper.processLine("benchmark", "ALLOCATE 6000 3000 1000");
+        for (String month : new String[] {"JANUARY", "FEBRUARY", "MARCH"}) {
+            investmentHelper.processLine("benchmark", "CHANGE 4.00% 10.00% 2.00% " + month);
+        }
+    }
+
+    @Benchmark
+    public CommandDTO parseChange() {
+        return CommandParser.parse(changeLine, 0, changeLine.length, 3, command);
+    }
+
+    @Benchmark
+    public String processBalanceLine() {
+        return investmentHelper.processLine("benchmark", BALANCE);
+    }
+}
@@ -0,0 +1,96 @@
+package com.mymoney.investment.benchmark;
+
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.enums.BalanceStorage;
+import com.mymoney.investment.utils.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The month step kernels of {@link CompactPortfolio}, which replaced the PortfolioDTO clone, and
+ * its output formatting, across asset counts, with the rows on the heap and off it, and a 40 year
+ * projection stepped month by month against one fast-forwarded between rebalances.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompactPortfolioBenchmark {
+
+    private static final int MONTHS = 12;
+    private static final int PROJECTED_MONTHS = 40 * MONTHS;
+
+    @Param({"3", "50", "500"})
+    public int assetCount;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public BalanceStorage storage;
+
+    private long[] allocation;
+    private long[] sip;
+    private double[][] rates;
+    private CompactPortfolio portfolio;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        allocation = random.longs(assetCount, 1_000, 10_000).toArray();
+        sip = random.longs(assetCount, 100, 1_000).toArray();
+        rates = new double[MONTHS][];
+        for (int month = 0; month < MONTHS; month++) {
+            rates[month] = random.doubles(assetCount, -10, 10).toArray();
+        }
+        portfolio = new CompactPortfolio(storage.allocate(assetCount, MONTHS), Money.DEFAULT);
+        rollYear();
+    }
+
+    private void rollYear() {
+        portfolio.initialize(allocation, rates[0], 0);
+        for (int month = 1; month < MONTHS; month++) {
+            portfolio.rollForward(sip, allocation, RebalancePolicy.DEFAULT, rates[month], 0);
+        }
+    }
+
+    @Benchmark
+    public CompactPortfolio rollYearForward() {
+        rollYear();
+        return portfolio;
+    }
+
+    @Benchmark
+    public long[] projectFortyYears() {
+        return project(false);
+    }
+
+    @Benchmark
+    public long[] fastForwardFortyYears() {
+        return project(true);
+    }
+
+    private long[] project(boolean fastForward) {
+        long[] amounts = allocation.clone();
+        CompactPortfolio.project(amounts, 0, PROJECTED_MONTHS - 1, sip, allocation, RebalancePolicy.calendar(MONTHS),
+                rates[0], fastForward);
+        return amounts;
+    }
+
+    @Benchmark
+    public String format() {
+        return portfolio.toString(MONTHS - 1);
+    }
+}
@@ -0,0 +1,109 @@
+package com.mymoney.investment.benchmark;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.service.InvestmentService;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Month;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Balance and rebalance through {@link InvestmentServiceImpl}. The cold benchmarks replay a whole
+ * year into a fresh portfolio before querying it, the warm ones query portfolios whose balances
+ * are already calculated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvestmentServiceBenchmark {
+
+    private static final double[] ALLOCATION = {6000, 3000, 1000};
+    private static final double[] SIP = {2000, 1000, 500};
+    private static final double[][] RATES = {
+            {4, 10, 2}, {-10, 40, 0}, {12.5, 12.5, 12.5}, {8, -3, 7}, {13, 21, 10.5}, {10, 8, -5},
+            {5, 2, 1}, {-1, 3, 2}, {2, 2, 2}, {7, -2, 4}, {1, 1, 1}, {3, 6, -1}
+    };
+    private static final Month[] MONTHS = Month.values();
+
+    @Param({"1", "1000", "100000"})
+    public int portfolioCount;
+
+    private PortfolioStore portfolioStore;
+    private InvestmentService investmentService;
+    private String[] portfolioIds;
+    private int next;
+    private long coldSequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DataFormatException {
+        portfolioStore = PortfolioStore.builder(MyMoneyConfig::dataStub)
+                .initialCapacity(portfolioCount)
+                .build();
+        investmentService = new InvestmentServiceImpl(portfolioStore);
+        portfolioIds = new String[portfolioCount];
+        for (int index = 0; index < portfolioCount; index++) {
+            portfolioIds[index] = "portfolio-" + index;
+            replayYear(portfolioIds[index]);
+            investmentService.balance(portfolioIds[index], Month.DECEMBER);
+        }
+    }
+
+    private void replayYear(String portfolioId) throws DataFormatException {
+        investmentService.allocate(portfolioId, ALLOCATION);
+        investmentService.sip(portfolioId, SIP);
+        for (int month = 0; month < RATES.length; month++) {
+            investmentService.change(portfolioId, RATES[month], MONTHS[month]);
+        }
+    }
+
+    private String nextPortfolio() {
+        String portfolioId = portfolioIds[next];
+        next = next + 1 == portfolioIds.length ? 0 : next + 1;
+        return portfolioId;
+    }
+
+    @Benchmark
+    public String balanceWarm() {
+        return investmentService.balance(nextPortfolio(), Month.SEPTEMBER);
+    }
+
+    @Benchmark
+    public String reBalanceWarm() {
+        return investmentService.reBalance(nextPortfolio());
+    }
+
+    @Benchmark
+    public String balanceCold() throws DataFormatException {
+        String portfolioId = "cold-" + coldSequence++;
+        replayYear(portfolioId);
+        String balance = investmentService.balance(portfolioId, Month.DECEMBER);
+        investmentService.close(portfolioId);
+        return balance;
+    }
+
+    @Benchmark
+    public String reBalanceCold() throws DataFormatException {
+        String portfolioId = "cold-" + coldSequence++;
+        replayYear(portfolioId);
+        String balance = investmentService.reBalance(portfolioId);
+        investmentService.close(portfolioId);
+        return balance;
+    }
+}
@@ -0,0 +1,74 @@
+package com.mymoney.investment.benchmark;
+
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.PortfolioColumns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One rebalance pass over many portfolios, row by row with the {@link CompactPortfolio} kernel
+ * against the columnar {@link PortfolioColumns} kernel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PortfolioColumnsBenchmark {
+
+    private static final int ASSET_COUNT = 3;
+
+    @Param({"1000", "1000000"})
+    public int portfolioCount;
+
+    private long[] rows;
+    private long[] rowWeights;
+    private PortfolioColumns columns;
+    private long[][] columnWeights;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        rows = random.longs((long) portfolioCount * ASSET_COUNT, 1_000, 100_000).toArray();
+        rowWeights = new long[portfolioCount * ASSET_COUNT];
+        columns = new PortfolioColumns(ASSET_COUNT, portfolioCount);
+        columnWeights = new long[ASSET_COUNT][portfolioCount];
+        for (int portfolio = 0; portfolio < portfolioCount; portfolio++) {
+            long[] weights = random.longs(ASSET_COUNT, 1, 100).toArray();
+            for (int asset = 0; asset < ASSET_COUNT; asset++) {
+                rowWeights[portfolio * ASSET_COUNT + asset] = weights[asset];
+                columnWeights[asset][portfolio] = weights[asset];
+                columns.getAmounts(asset)[portfolio] = rows[portfolio * ASSET_COUNT + asset];
+            }
+        }
+    }
+
+    @Benchmark
+    public long[] reBalanceRows() {
+        long[] weights = new long[ASSET_COUNT];
+        for (int portfolio = 0; portfolio < portfolioCount; portfolio++) {
+            System.arraycopy(rowWeights, portfolio * ASSET_COUNT, weights, 0, ASSET_COUNT);
+            CompactPortfolio.reBalance(rows, portfolio * ASSET_COUNT, weights, ASSET_COUNT);
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public PortfolioColumns reBalanceColumns() {
+        columns.reBalance(columnWeights, portfolioCount);
+        return columns;
+    }
+}
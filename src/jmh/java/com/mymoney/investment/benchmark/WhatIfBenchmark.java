@@ -0,0 +1,72 @@
+package com.mymoney.investment.benchmark;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.dto.WhatIfRequestDTO;
+import com.mymoney.investment.dto.WhatIfResultDTO;
+import com.mymoney.investment.service.SimulationServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluating many allocation and SIP variants against one ten year rate history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WhatIfBenchmark {
+
+    private static final int ASSET_COUNT = 3;
+    private static final int MONTHS = 120;
+
+    @Param({"10000"})
+    public int variantCount;
+
+    @Param({"CALENDAR 6", "DRIFT 5"})
+    public String policy;
+
+    private SimulationServiceImpl simulationService;
+    private WhatIfRequestDTO request;
+
+    @Setup
+    public void setUp() {
+        simulationService = new SimulationServiceImpl(new PortfolioStore(MyMoneyConfig::dataStub));
+        SplittableRandom random = new SplittableRandom(42);
+        double[][] rates = new double[MONTHS][];
+        for (int month = 0; month < MONTHS; month++) {
+            rates[month] = random.doubles(ASSET_COUNT, -8, 10).toArray();
+        }
+        double[][] allocations = new double[variantCount][];
+        double[][] sips = new double[variantCount][];
+        for (int variant = 0; variant < variantCount; variant++) {
+            allocations[variant] = random.doubles(ASSET_COUNT, 1_000, 10_000).map(Math::floor).toArray();
+            sips[variant] = random.doubles(ASSET_COUNT, 0, 2_000).map(Math::floor).toArray();
+        }
+        request = new WhatIfRequestDTO();
+        request.setRates(rates);
+        request.setAllocations(allocations);
+        request.setSips(sips);
+        request.setPolicy(RebalancePolicy.parse(policy));
+    }
+
+    @Benchmark
+    public WhatIfResultDTO whatIf() {
+        return simulationService.whatIf(request);
+    }
+}
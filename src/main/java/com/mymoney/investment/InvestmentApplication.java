@@ -1,5 +1,8 @@
 package com.mymoney.investment;
 
+import com.mymoney.investment.controller.CommandServer;
+import com.mymoney.investment.utils.BatchInvestmentProcessor;
+import com.mymoney.investment.utils.Constants;
 import com.mymoney.investment.utils.InvestmentHelper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.CommandLineRunner;
@@ -8,6 +11,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.core.annotation.Order;
 
 import java.util.InputMismatchException;
+import java.util.List;
 
 @SpringBootApplication
 @Order(-1)
@@ -19,27 +23,43 @@ public class InvestmentApplication implements CommandLineRunner {
 	}
 
 	final InvestmentHelper investmentHelper;
+	final BatchInvestmentProcessor batchInvestmentProcessor;
+	final CommandServer commandServer;
 
-	public InvestmentApplication(InvestmentHelper investmentHelper) {
+	public InvestmentApplication(
+			InvestmentHelper investmentHelper,
+			BatchInvestmentProcessor batchInvestmentProcessor,
+			CommandServer commandServer) {
 		this.investmentHelper = investmentHelper;
+		this.batchInvestmentProcessor = batchInvestmentProcessor;
+		this.commandServer = commandServer;
 	}
 
 	@Override
 	public void run(String... args) throws Exception {
-		if (args.length < 1 || args.length != 1) {
+		List<String> arguments = InvestmentLauncher.positionalArguments(args);
+		if (arguments.isEmpty()) {
 			log.error("input arguments not supplied");
 			throw new InputMismatchException(
 					"Please specify the input file");
 		}
-		String input = args[0];
+		String input = arguments.get(0);
 		if ("shell".equalsIgnoreCase(input)) {
 			log.info("Entering to Command line Mode");
 			return;
+		} else if ("serve".equalsIgnoreCase(input)) {
+			// serve [port]
+			if (arguments.size() > 2) {
+				throw new InputMismatchException("Please specify at most the port to listen on");
+			}
+			commandServer.start(
+					arguments.size() == 2 ? Integer.parseInt(arguments.get(1)) : Constants.DEFAULT_SERVER_PORT);
+			commandServer.awaitTermination();
+			System.exit(0);
 		} else {
-			investmentHelper.processInvestment(input);
+			InvestmentLauncher.runOneShot(arguments, investmentHelper, batchInvestmentProcessor);
 			System.exit(0);
 		}
 
 	}
 }
-
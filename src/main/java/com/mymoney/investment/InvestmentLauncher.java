@@ -0,0 +1,140 @@
+package com.mymoney.investment;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioJournal;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.enums.BalanceStorage;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import com.mymoney.investment.utils.BatchInvestmentProcessor;
+import com.mymoney.investment.utils.EngineMetrics;
+import com.mymoney.investment.utils.InvestmentHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Entry point of the jar. The one-shot modes, processing a command file, a batch or a conversion,
+ * wire the engine by hand and never start Spring, Spring Shell or JLine. {@code shell} and
+ * {@code serve} start the Spring application.
+ *
+ * <p>Without Spring, the configuration is read from {@code application.properties}, then system
+ * properties, then {@code --name=value} arguments, the later ones taking precedence.
+ */
+public final class InvestmentLauncher {
+
+    private static final String APPLICATION_PROPERTIES = "application.properties";
+
+    private InvestmentLauncher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = positionalArguments(args);
+        if (arguments.isEmpty() || "shell".equalsIgnoreCase(arguments.get(0))
+                || "serve".equalsIgnoreCase(arguments.get(0))) {
+            InvestmentApplication.main(args);
+            return;
+        }
+        Properties configuration = configuration(args);
+        configureLogging(configuration);
+        MyMoneyConfig myMoneyConfig = new MyMoneyConfig();
+        PortfolioStore portfolioStore = myMoneyConfig.portfolioStore(
+                configuration.getProperty("mymoney.assets", "EQUITY,DEBT,GOLD").trim().split("\\s*,\\s*"),
+                Integer.parseInt(configuration.getProperty("mymoney.money.scale", "0").trim()),
+                BalanceStorage.valueOf(configuration.getProperty("mymoney.storage", "HEAP").trim().toUpperCase(Locale.ROOT)));
+        EngineMetrics metrics = new EngineMetrics(
+                Boolean.parseBoolean(configuration.getProperty("mymoney.metrics.track-allocation", "false").trim()));
+        try (PortfolioJournal journal = myMoneyConfig.portfolioJournal(portfolioStore,
+                configuration.getProperty("mymoney.persistence.dir", "").trim(),
+                Long.parseLong(configuration.getProperty("mymoney.persistence.snapshot-every-events", "100000").trim()))) {
+            InvestmentServiceImpl investmentService = new InvestmentServiceImpl(portfolioStore, journal, metrics);
+            investmentService.recover();
+            InvestmentHelper investmentHelper = new InvestmentHelper(investmentService, metrics);
+            runOneShot(arguments, investmentHelper, new BatchInvestmentProcessor(investmentHelper, investmentService));
+        }
+    }
+
+    /**
+     * Runs a command file, {@code batch <directory|manifest> [output directory]} or
+     * {@code convert <command file> <binary file>}.
+     */
+    static void runOneShot(List<String> arguments, InvestmentHelper investmentHelper,
+                           BatchInvestmentProcessor batchInvestmentProcessor) throws IOException {
+        String input = arguments.get(0);
+        if ("batch".equalsIgnoreCase(input)) {
+            if (arguments.size() < 2 || arguments.size() > 3) {
+                throw new InputMismatchException(
+                        "Please specify the input directory or manifest and optionally the output directory");
+            }
+            Path source = Paths.get(arguments.get(1));
+            Path outputDir = arguments.size() == 3
+                    ? Paths.get(arguments.get(2))
+                    : source.toAbsolutePath().getParent();
+            System.out.println(batchInvestmentProcessor.processBatch(source, outputDir));
+        } else if ("convert".equalsIgnoreCase(input)) {
+            if (arguments.size() != 3) {
+                throw new InputMismatchException("Please specify the text command file and the binary file to write");
+            }
+            System.out.println(investmentHelper.convert(arguments.get(1), arguments.get(2)) + " commands converted");
+        } else if (arguments.size() != 1) {
+            throw new InputMismatchException("Please specify the input file");
+        } else {
+            investmentHelper.processInvestment(input);
+        }
+    }
+
+    /**
+     * @return the arguments that are not {@code --name=value} options
+     */
+    static List<String> positionalArguments(String[] args) {
+        List<String> arguments = new ArrayList<>(args.length);
+        for (String argument : args) {
+            if (!argument.startsWith("--")) {
+                arguments.add(argument);
+            }
+        }
+        return arguments;
+    }
+
+    private static Properties configuration(String[] args) throws IOException {
+        Properties configuration = new Properties();
+        try (InputStream defaults = InvestmentLauncher.class.getClassLoader().getResourceAsStream(APPLICATION_PROPERTIES)) {
+            if (Objects.nonNull(defaults)) {
+                configuration.load(defaults);
+            }
+        }
+        configuration.putAll(System.getProperties());
+        Arrays.stream(args)
+                .filter(argument -> argument.startsWith("--"))
+                .forEach(argument -> {
+                    int separator = argument.indexOf('=');
+                    configuration.setProperty(
+                            separator < 0 ? argument.substring(2) : argument.substring(2, separator),
+                            separator < 0 ? "true" : argument.substring(separator + 1));
+                });
+        return configuration;
+    }
+
+    /**
+     * Logback logs everything at DEBUG until someone configures it, which Spring Boot does on
+     * startup; without Spring the root level is set here from {@code logging.level.root}.
+     */
+    private static void configureLogging(Properties configuration) {
+        Logger root = LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        if (root instanceof ch.qos.logback.classic.Logger) {
+            ((ch.qos.logback.classic.Logger) root).setLevel(
+                    ch.qos.logback.classic.Level.toLevel(configuration.getProperty("logging.level.root"),
+                            ch.qos.logback.classic.Level.INFO));
+        }
+    }
+}
@@ -1,19 +1,71 @@
 package com.mymoney.investment.config;
 
 import com.mymoney.investment.dao.DataStub;
-import com.mymoney.investment.enums.Assets;
+import com.mymoney.investment.dao.MarketRateTable;
+import com.mymoney.investment.dao.PortfolioJournal;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.enums.BalanceStorage;
+import com.mymoney.investment.utils.EngineMetrics;
+import com.mymoney.investment.utils.InvestmentHelper;
+import com.mymoney.investment.utils.Money;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Paths;
+
 @Configuration
 public class MyMoneyConfig {
 
+    /**
+     * New portfolios invest in the assets of {@code mymoney.assets} until an ASSETS command
+     * defines their own universe. The shared market rates are given for the same assets. Amounts
+     * are kept with {@code mymoney.money.scale} decimals, whole rupees by default, and the monthly
+     * balances in the {@code mymoney.storage}, on the heap by default.
+     */
+    @Bean
+    public PortfolioStore portfolioStore(@Value("${mymoney.assets:EQUITY,DEBT,GOLD}") String[] assets,
+                                         @Value("${mymoney.money.scale:0}") int moneyScale,
+                                         @Value("${mymoney.storage:HEAP}") BalanceStorage balanceStorage) {
+        AssetUniverse assetUniverse = AssetUniverse.of(assets);
+        return PortfolioStore.builder(() -> dataStub(assetUniverse))
+                .marketRates(new MarketRateTable(assetUniverse))
+                .money(Money.ofScale(moneyScale))
+                .balanceStorage(balanceStorage)
+                .build();
+    }
+
+    /**
+     * The journal is disabled unless {@code mymoney.persistence.dir} names a directory.
+     */
     @Bean
-    public DataStub dataStub() {
+    public PortfolioJournal portfolioJournal(
+            PortfolioStore portfolioStore,
+            @Value("${mymoney.persistence.dir:}") String directory,
+            @Value("${mymoney.persistence.snapshot-every-events:100000}") long snapshotEveryEvents) {
+        return InvestmentHelper.isNullOrEmpty(directory)
+                ? PortfolioJournal.disabled()
+                : PortfolioJournal.of(portfolioStore, Paths.get(directory), snapshotEveryEvents);
+    }
+
+    /**
+     * Exported over JMX; measuring the allocation of every command is opt-in through
+     * {@code mymoney.metrics.track-allocation}.
+     */
+    @Bean
+    public EngineMetrics engineMetrics(
+            @Value("${mymoney.metrics.track-allocation:false}") boolean trackAllocation) {
+        return new EngineMetrics(trackAllocation).registerMBean();
+    }
+
+    public static DataStub dataStub() {
+        return dataStub(AssetUniverse.DEFAULT);
+    }
+
+    public static DataStub dataStub(AssetUniverse assetUniverse) {
         DataStub stub = new DataStub();
-        stub.defaultAssetOrderForIO.add(Assets.EQUITY);
-        stub.defaultAssetOrderForIO.add(Assets.DEBT);
-        stub.defaultAssetOrderForIO.add(Assets.GOLD);
+        stub.assetUniverse = assetUniverse;
         return stub;
     }
 }
@@ -0,0 +1,48 @@
+package com.mymoney.investment.controller;
+
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.PortfolioGrowthDTO;
+import com.mymoney.investment.service.AnalyticsService;
+import com.mymoney.investment.utils.Timeline;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+
+import java.time.Month;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+@ShellComponent
+public class AnalyticsController {
+
+    private final AnalyticsService analyticsService;
+
+    public AnalyticsController(AnalyticsService analyticsService) {
+        this.analyticsService = analyticsService;
+    }
+
+    @ShellMethod("Print the number of portfolios and the sum of each asset over every portfolio as on given month.")
+    public String assetTotals(
+            Month month,
+            @ShellOption(defaultValue = "1") int year,
+            @ShellOption(defaultValue = ShellOption.NULL,
+                    help = "Assets of the portfolios to sum, by default the assets of the market rates") List<String> assets) {
+        int monthIndex = Timeline.monthIndex(month, year);
+        return (assets == null
+                ? analyticsService.assetTotals(monthIndex)
+                : analyticsService.assetTotals(AssetUniverse.of(assets), monthIndex)).toString();
+    }
+
+    @ShellMethod("Print the portfolios with the highest growth over the amount invested in them.")
+    public String topGrowth(@ShellOption(defaultValue = "10") int count) {
+        return analyticsService.topByGrowth(count).stream()
+                .map(PortfolioGrowthDTO::toString)
+                .collect(Collectors.joining(System.lineSeparator()));
+    }
+
+    @ShellMethod("Print the number of portfolios per percentage point of drift from their desired weights.")
+    public String driftHistogram() {
+        return analyticsService.driftHistogram().toString();
+    }
+}
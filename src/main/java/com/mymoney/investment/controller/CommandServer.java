@@ -0,0 +1,396 @@
+package com.mymoney.investment.controller;
+
+import com.mymoney.investment.dto.CommandDTO;
+import com.mymoney.investment.utils.InvestmentHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking TCP front end for the MyMoney command protocol.
+ *
+ * <p>Every request is one line, {@code <portfolio id> <command>}, for instance
+ * {@code alice BALANCE MARCH}. Each request gets one response line: {@code OK}, {@code OK <output>}
+ * or {@code ERROR <message>}. Blank lines are ignored. Clients may pipeline any number of requests;
+ * responses always come back in request order. A line longer than {@value #MAX_LINE_BYTES} bytes
+ * is answered with an ERROR and the connection is closed once the responses before it are sent.
+ *
+ * <p>A single selector thread owns every socket. Commands run on stripes, single threaded
+ * executors picked by the hash of the portfolio id, so the commands of a portfolio keep their order
+ * while different portfolios run in parallel. A connection stops being read while too many of its
+ * responses are outstanding or too many response bytes wait to be sent.
+ *
+ * <p>There is no authentication, so the server binds to {@code mymoney.server.bind-address}, the
+ * loopback interface unless configured otherwise.
+ */
+@Component
+@Slf4j
+public class CommandServer implements Closeable {
+
+    public static final String OK = "OK";
+    public static final String ERROR = "ERROR";
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+
+    private static final int BUFFER_BYTES = MAX_LINE_BYTES;
+    private static final int MAX_PENDING_RESPONSES = 16 * 1024;
+    private static final int MAX_OUTPUT_BYTES = 1024 * 1024;
+
+    private final InvestmentHelper investmentHelper;
+    private final int stripeCount;
+    private final String bindAddress;
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private Stripe[] stripes;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    @Autowired
+    public CommandServer(InvestmentHelper investmentHelper,
+                         @Value("${mymoney.server.bind-address:127.0.0.1}") String bindAddress) {
+        this(investmentHelper, Runtime.getRuntime().availableProcessors(), bindAddress);
+    }
+
+    public CommandServer(InvestmentHelper investmentHelper, int stripeCount) {
+        this(investmentHelper, stripeCount, InetAddress.getLoopbackAddress().getHostAddress());
+    }
+
+    public CommandServer(InvestmentHelper investmentHelper, int stripeCount, String bindAddress) {
+        this.investmentHelper = investmentHelper;
+        this.stripeCount = Math.max(stripeCount, 1);
+        this.bindAddress = Objects.requireNonNull(bindAddress);
+    }
+
+    /**
+     * Starts accepting connections on the given port of the bind address, or on a free one if it
+     * is 0.
+     *
+     * @return the port the server listens on
+     */
+    public synchronized int start(int port) throws IOException {
+        if (running) {
+            throw new IllegalStateException("The server is already running");
+        }
+        stripes = new Stripe[stripeCount];
+        for (int index = 0; index < stripeCount; index++) {
+            stripes[index] = new Stripe(index);
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(bindAddress, port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(this::runSelector, "command-server");
+        selectorThread.start();
+        int boundPort = serverChannel.socket().getLocalPort();
+        log.info("Accepting MyMoney commands on {}:{} with {} stripes", bindAddress, boundPort, stripeCount);
+        return boundPort;
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        selectorThread.join();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Stripe stripe : stripes) {
+            stripe.executor.shutdown();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void runSelector() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                log.error("The selector failed", e);
+                return;
+            }
+            wakeupPending.set(false);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                handle(key);
+            }
+            for (Connection connection = writable.poll(); Objects.nonNull(connection); connection = writable.poll()) {
+                connection.queued.set(false);
+                if (connection.key.isValid()) {
+                    try {
+                        connection.write();
+                    } catch (IOException e) {
+                        connection.close(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.write();
+            }
+        } catch (IOException e) {
+            connection.close(e);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (Objects.isNull(channel)) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+            log.debug("Accepted a connection from {}", channel.getRemoteAddress());
+        } catch (IOException e) {
+            log.warn("Failed to accept a connection", e);
+        }
+    }
+
+    /**
+     * Hands a connection with completed responses to the selector thread.
+     */
+    private void signal(Connection connection) {
+        if (connection.queued.compareAndSet(false, true)) {
+            writable.add(connection);
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    private static String respond(String output) {
+        return Objects.isNull(output) ? OK : OK + " " + output;
+    }
+
+    /**
+     * A single threaded executor with the reusable command of its thread.
+     */
+    private static final class Stripe {
+        final ExecutorService executor;
+        final CommandDTO command = new CommandDTO();
+
+        Stripe(int index) {
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "command-stripe-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class Request {
+        volatile String response;
+    }
+
+    private final class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final AtomicBoolean queued = new AtomicBoolean();
+        /** Requests in arrival order; guarded by the connection. */
+        final ArrayDeque<Request> pending = new ArrayDeque<>();
+        final AtomicInteger pendingCount = new AtomicInteger();
+        final ByteBuffer input = ByteBuffer.allocate(BUFFER_BYTES);
+        ByteBuffer output = ByteBuffer.allocate(BUFFER_BYTES);
+        boolean inputClosed;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            int read = channel.read(input);
+            if (read < 0) {
+                inputClosed = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                write();
+                return;
+            }
+            input.flip();
+            byte[] buffer = input.array();
+            int lineStart = input.position();
+            for (int position = lineStart; position < input.limit(); position++) {
+                if (buffer[position] == '\n') {
+                    dispatch(buffer, lineStart, position);
+                    lineStart = position + 1;
+                }
+            }
+            input.position(lineStart);
+            input.compact();
+            if (!input.hasRemaining()) {
+                rejectLongLine();
+                return;
+            }
+            if (pendingCount.get() >= MAX_PENDING_RESPONSES || output.position() >= MAX_OUTPUT_BYTES) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Answers a line that fills the whole input buffer with an ERROR and stops reading; the
+         * connection closes once every response is written.
+         */
+        private void rejectLongLine() throws IOException {
+            Request request = new Request();
+            synchronized (this) {
+                pending.add(request);
+            }
+            pendingCount.incrementAndGet();
+            request.response = ERROR + " The request is longer than " + MAX_LINE_BYTES + " bytes";
+            input.clear();
+            inputClosed = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            write();
+        }
+
+        private void dispatch(byte[] buffer, int from, int to) {
+            if (to > from && buffer[to - 1] == '\r') {
+                to--;
+            }
+            int idStart = from;
+            while (idStart < to && buffer[idStart] == ' ') {
+                idStart++;
+            }
+            if (idStart == to) {
+                return;
+            }
+            int idEnd = idStart;
+            while (idEnd < to && buffer[idEnd] != ' ') {
+                idEnd++;
+            }
+            Request request = new Request();
+            synchronized (this) {
+                pending.add(request);
+            }
+            pendingCount.incrementAndGet();
+            if (idEnd == to) {
+                complete(request, ERROR + " Please supply a command after the portfolio id");
+                return;
+            }
+            String portfolioId = new String(buffer, idStart, idEnd - idStart, StandardCharsets.UTF_8);
+            byte[] line = new byte[to - idEnd];
+            System.arraycopy(buffer, idEnd, line, 0, line.length);
+            Stripe stripe = stripes[(portfolioId.hashCode() & Integer.MAX_VALUE) % stripes.length];
+            stripe.executor.execute(() -> {
+                String response;
+                try {
+                    response = respond(investmentHelper.execute(portfolioId, line, 0, line.length, stripe.command));
+                } catch (Exception e) {
+                    response = ERROR + " " + String.valueOf(e.getMessage()).replace('\n', ' ');
+                }
+                complete(request, response);
+            });
+        }
+
+        private void complete(Request request, String response) {
+            request.response = response;
+            signal(this);
+        }
+
+        /**
+         * Writes the responses that are ready, stopping at the first request still running.
+         */
+        void write() throws IOException {
+            synchronized (this) {
+                for (Request head = pending.peek();
+                     Objects.nonNull(head) && Objects.nonNull(head.response);
+                     head = pending.peek()) {
+                    byte[] response = head.response.getBytes(StandardCharsets.UTF_8);
+                    ensureOutput(response.length + 1);
+                    output.put(response).put((byte) '\n');
+                    pending.poll();
+                    pendingCount.decrementAndGet();
+                }
+            }
+            output.flip();
+            channel.write(output);
+            output.compact();
+            int interest = key.interestOps();
+            interest = output.position() > 0 ? interest | SelectionKey.OP_WRITE : interest & ~SelectionKey.OP_WRITE;
+            if (!inputClosed && pendingCount.get() < MAX_PENDING_RESPONSES / 2
+                    && output.position() < MAX_OUTPUT_BYTES / 2) {
+                interest |= SelectionKey.OP_READ;
+            }
+            key.interestOps(interest);
+            if (inputClosed && output.position() == 0 && pendingCount.get() == 0) {
+                close(null);
+            }
+        }
+
+        private void ensureOutput(int bytes) {
+            if (output.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + bytes));
+                output.flip();
+                larger.put(output);
+                output = larger;
+            }
+        }
+
+        void close(IOException cause) {
+            if (Objects.nonNull(cause)) {
+                log.debug("Closing a connection after {}", cause.getMessage());
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close a connection", e);
+            }
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package com.mymoney.investment.controller;
 
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.RebalancePolicy;
 import com.mymoney.investment.service.InvestmentService;
+import com.mymoney.investment.utils.Constants;
+import com.mymoney.investment.utils.EngineMetrics;
+import com.mymoney.investment.utils.Timeline;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
 
 import java.time.Month;
 import java.util.List;
+import java.util.Objects;
 import java.util.zip.DataFormatException;
 
 
@@ -15,37 +22,131 @@ public class InvestmentController {
 
     private final InvestmentService investmentService;
 
+    private final EngineMetrics metrics;
 
-    public InvestmentController(InvestmentService investmentService) {
+
+    public InvestmentController(InvestmentService investmentService, EngineMetrics metrics) {
         this.investmentService = investmentService;
+        this.metrics = metrics;
+    }
+
+    @ShellMethod("Define the assets of a portfolio before its first investment, or show them.")
+    public String assets(
+            @ShellOption(defaultValue = ShellOption.NULL) List<String> names,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio) {
+        if (Objects.nonNull(names)) {
+            investmentService.defineAssets(portfolio, AssetUniverse.of(names));
+        }
+        return investmentService.getAssets(portfolio).toString();
+    }
+
+    @ShellMethod("Received the initial investment amounts for each asset of the portfolio.")
+    public void allocate(
+            List<Double> allocations,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio)
+            throws DataFormatException {
+        investmentService.allocate(portfolio, allocations);
     }
 
-    @ShellMethod("Received the initial investment amounts for each equity, debt and gold.")
-    public void allocate(List<Double> allocations) throws DataFormatException {
-        investmentService.allocate(allocations);
+    @ShellMethod(
+            "Received the investment amount on a monthly basis for each asset of the portfolio.")
+    public void sip(
+            List<Double> sips,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio)
+            throws DataFormatException {
+        investmentService.sip(portfolio, sips);
     }
 
     @ShellMethod(
-            "Received the investment amount on a monthly basis for each equity, debt and gold.")
-    public void sip(List<Double> sips) throws DataFormatException {
-        investmentService.sip(sips);
+            "Received the monthly rate of change (growth or loss) for each asset of the portfolio.")
+    public void change(
+            List<Double> rates,
+            Month month,
+            @ShellOption(defaultValue = "1") int year,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio)
+            throws DataFormatException {
+        investmentService.change(
+                portfolio,
+                rates.stream().mapToDouble(Double::doubleValue).toArray(),
+                Timeline.monthIndex(month, year));
     }
 
     @ShellMethod(
-            "Received the monthly rate of change (growth or loss) for each equity, debt and gold.")
-    public void change(List<Double> rates, Month month) throws DataFormatException {
-        investmentService.change(rates, month);
+            "Correct the monthly rate of change for each asset of an already registered month.")
+    public void changeOverride(
+            List<Double> rates,
+            Month month,
+            @ShellOption(defaultValue = "1") int year,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio)
+            throws DataFormatException {
+        investmentService.overrideChange(
+                portfolio,
+                rates.stream().mapToDouble(Double::doubleValue).toArray(),
+                Timeline.monthIndex(month, year));
+    }
+
+    @ShellMethod("Received the monthly rate of change of the market for every portfolio.")
+    public void marketChange(
+            List<Double> rates,
+            Month month,
+            @ShellOption(defaultValue = "1") int year,
+            @ShellOption(defaultValue = "false") boolean override)
+            throws DataFormatException {
+        double[] values = rates.stream().mapToDouble(Double::doubleValue).toArray();
+        if (override) {
+            investmentService.overrideMarketChange(values, Timeline.monthIndex(month, year));
+        } else {
+            investmentService.marketChange(values, Timeline.monthIndex(month, year));
+        }
     }
 
-    @ShellMethod("Print the balance as on given month for each equity, debt and gold.")
-    public String balance(Month month) {
-        return investmentService.balance(month);
+    @ShellMethod("Print the balance as on given month for each asset of the portfolio.")
+    public String balance(
+            Month month,
+            @ShellOption(defaultValue = "1") int year,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio) {
+        return investmentService.balance(portfolio, Timeline.monthIndex(month, year));
     }
 
     @ShellMethod(
-            "Print the rebalanced amount of each fund equity, debt and gold for the last 6 months. If at-least 6 months data is not available then print CANNOT_REBALANCE.")
-    public String rebalance() {
-        return investmentService.reBalance();
+            "Print the amount of each asset in the last month the portfolio was rebalanced under its CALENDAR, DRIFT or CASHFLOW policy. If no month was rebalanced yet then print CANNOT_REBALANCE.")
+    public String rebalance(
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio) {
+        return investmentService.reBalance(portfolio);
+    }
+
+    @ShellMethod("Print the XIRR, time-weighted return, volatility, max drawdown and per asset gain of the portfolio.")
+    public String returns(
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio) {
+        return investmentService.returnMetrics(portfolio).toString();
+    }
+
+    @ShellMethod("Project the balance to a month past the rates of change, repeating the given or the last rates. With --fast-forward the months between rebalances are jumped at once and an APPROXIMATE rounding is flagged.")
+    public String project(
+            Month month,
+            @ShellOption(defaultValue = "1") int year,
+            @ShellOption(defaultValue = ShellOption.NULL) List<Double> rates,
+            @ShellOption(defaultValue = "false") boolean fastForward,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio)
+            throws DataFormatException {
+        return investmentService.project(portfolio, Timeline.monthIndex(month, year),
+                Objects.isNull(rates) ? null : rates.stream().mapToDouble(Double::doubleValue).toArray(),
+                fastForward).toString();
+    }
+
+    @ShellMethod("Set the rebalance policy of the portfolio: CALENDAR <months>, DRIFT <percent> or CASHFLOW, or show it.")
+    public String policy(
+            @ShellOption(defaultValue = ShellOption.NULL) List<String> policy,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio) {
+        if (Objects.nonNull(policy)) {
+            investmentService.setReBalancePolicy(portfolio, RebalancePolicy.parse(String.join(" ", policy)));
+        }
+        return investmentService.getReBalancePolicy(portfolio).toString();
+    }
+
+    @ShellMethod("Print the command latencies, balance cache and rebalance metrics of the engine.")
+    public String metrics() {
+        return metrics.report();
     }
 
 }
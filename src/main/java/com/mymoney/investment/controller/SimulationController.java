@@ -0,0 +1,86 @@
+package com.mymoney.investment.controller;
+
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.dto.SimulationRequestDTO;
+import com.mymoney.investment.dto.WhatIfRequestDTO;
+import com.mymoney.investment.enums.RateDistribution;
+import com.mymoney.investment.service.InvestmentService;
+import com.mymoney.investment.service.SimulationService;
+import com.mymoney.investment.utils.Constants;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+@ShellComponent
+public class SimulationController {
+
+    private final SimulationService simulationService;
+    private final InvestmentService investmentService;
+
+    public SimulationController(SimulationService simulationService, InvestmentService investmentService) {
+        this.simulationService = simulationService;
+        this.investmentService = investmentService;
+    }
+
+    @ShellMethod(
+            "Print the percentile balances per month of random rate paths for the allocation and sip of the portfolio.")
+    public String simulate(
+            @ShellOption(help = "Monthly mean rate of change in percent for each asset") List<Double> mean,
+            @ShellOption(help = "Monthly standard deviation of the rate in percent for each asset") List<Double> deviation,
+            @ShellOption(defaultValue = "10000") int paths,
+            @ShellOption(defaultValue = "120") int months,
+            @ShellOption(defaultValue = "42") long seed,
+            @ShellOption(defaultValue = "NORMAL") RateDistribution distribution,
+            @ShellOption(defaultValue = ShellOption.NULL,
+                    help = "Correlation matrix with rows separated by ';', e.g. 1,0.5;0.5,1") String correlation,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio) {
+        SimulationRequestDTO request = new SimulationRequestDTO();
+        request.setMeanRates(mean.stream().mapToDouble(Double::doubleValue).toArray());
+        request.setRateDeviations(deviation.stream().mapToDouble(Double::doubleValue).toArray());
+        request.setPaths(paths);
+        request.setMonths(months);
+        request.setSeed(seed);
+        request.setDistribution(distribution);
+        if (correlation != null) {
+            request.setCorrelation(matrixOf(correlation));
+        }
+        return simulationService.simulate(portfolio, request).toString();
+    }
+
+    @ShellMethod(
+            "Print the last balance of each allocation and sip variant over the rates registered for the portfolio.")
+    public String whatIf(
+            @ShellOption(help = "Allocation of each variant with variants separated by ';', e.g. 6000,3000,1000;5000,4000,1000")
+                    String allocations,
+            @ShellOption(defaultValue = ShellOption.NULL,
+                    help = "Sip of each variant separated by ';', or a single sip for every variant") String sips,
+            @ShellOption(defaultValue = ShellOption.NULL,
+                    help = "Rebalance policy, by default the one of the portfolio") String policy,
+            @ShellOption(defaultValue = Constants.DEFAULT_PORTFOLIO) String portfolio) {
+        WhatIfRequestDTO request = new WhatIfRequestDTO();
+        request.setRates(investmentService.getRateHistory(portfolio));
+        request.setAllocations(matrixOf(allocations));
+        if (sips != null) {
+            double[][] sipRows = matrixOf(sips);
+            if (sipRows.length == 1) {
+                sipRows = Collections.nCopies(request.getAllocations().length, sipRows[0]).toArray(double[][]::new);
+            }
+            request.setSips(sipRows);
+        }
+        request.setPolicy(policy == null
+                ? investmentService.getReBalancePolicy(portfolio)
+                : RebalancePolicy.parse(policy));
+        return simulationService.whatIf(request).toString();
+    }
+
+    private static double[][] matrixOf(String rows) {
+        return Arrays.stream(rows.split(";"))
+                .map(row -> Arrays.stream(row.trim().split("\\s*,\\s*")).mapToDouble(Double::parseDouble).toArray())
+                .toArray(double[][]::new);
+    }
+}
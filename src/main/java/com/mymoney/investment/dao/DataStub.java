@@ -1,25 +1,45 @@
 package com.mymoney.investment.dao;
 
-import com.mymoney.investment.dto.PortfolioDTO;
-import com.mymoney.investment.enums.Assets;
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.BalanceSnapshot;
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.RateSeries;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.dto.ReturnMetrics;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.time.Month;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-
+/**
+ * State of a single portfolio. Every per-asset array is indexed by the dense asset ids of
+ * {@link #assetUniverse} and every series is keyed by the dense month index of the plan.
+ *
+ * <p>{@link #monthlyMarketChangeRate} only holds the months the portfolio registered itself; the
+ * other months come from the shared {@link MarketRateTable}, up to {@link #marketVersion}. Amounts
+ * are units of the {@link PortfolioStore#getMoney() money} of the store.
+ *
+ * <p>The mutable state is only touched by actions run through {@link #mailbox}. Readers that must
+ * not queue behind writers use {@link #publishedBalance}, republished after every action.
+ */
 @Getter
 @Setter
 public class DataStub {
 
-    public TreeMap<Month, PortfolioDTO> monthlyBalance = new TreeMap<>();
-    public TreeMap<Month, Map<Assets, Double>> monthlyMarketChangeRate = new TreeMap<>();
-    public PortfolioDTO initialAllocation;
-    public PortfolioDTO initialSip;
-    public Map<Assets, Double> desiredWeights = new HashMap<>();
-    public Set<Assets> defaultAssetOrderForIO = new LinkedHashSet<>();
+    public CompactPortfolio monthlyBalance;
+    public RateSeries monthlyMarketChangeRate;
+    public long[] initialAllocation;
+    public long[] initialSip;
+    /** Relative weights the portfolio rebalances to: the amounts of its initial allocation. */
+    public long[] desiredWeights;
+    public volatile AssetUniverse assetUniverse = AssetUniverse.DEFAULT;
+    public int marketVersion;
+    public RebalancePolicy reBalancePolicy = RebalancePolicy.DEFAULT;
+    /** Accumulated from {@link #monthlyBalance} on demand, and started over once it discards a row. */
+    public ReturnMetrics returnMetrics;
+    public final PortfolioMailbox mailbox = new PortfolioMailbox();
+    public volatile BalanceSnapshot publishedBalance;
+    /**
+     * Log position up to which the snapshot the portfolio was restored from reflects its events, or
+     * {@link SnapshotStore#UNKNOWN_POSITION} if that snapshot did not record it.
+     */
+    public long restoredPosition;
 }
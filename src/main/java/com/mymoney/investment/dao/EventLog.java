@@ -0,0 +1,277 @@
+package com.mymoney.investment.dao;
+
+import com.mymoney.investment.enums.EventType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of portfolio events, written through a {@link FileChannel}.
+ *
+ * <p>Every record is {@code [int length][int crc32][byte type][short id length][id][int month]
+ * [short count][double...][short name count]([short name length][name])...}; the names carry the
+ * asset universe of an ASSETS event or the policy of a POLICY event and are empty otherwise.
+ * Appends only encode into an
+ * in-memory buffer; durability is reached through group commit: the first thread waiting in
+ * {@link #awaitDurable(long)} writes and forces everything appended so far, so one fsync covers
+ * every writer that queued up behind it.
+ *
+ * <p>Lengths and counts are recorded as shorts, so an event with a longer ID, more values or a
+ * longer name is rejected before anything is encoded. A failed write or force leaves the file in
+ * an unknown state, so the log then refuses every later append and commit.
+ */
+@Slf4j
+public class EventLog implements Closeable {
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private long appendedPosition;
+    private volatile long durablePosition;
+    private volatile IOException failure;
+
+    private EventLog(FileChannel channel, long position) {
+        this.channel = channel;
+        this.appendedPosition = position;
+        this.durablePosition = position;
+    }
+
+    /**
+     * Replays the events from the given position onward and opens the log for appending after its
+     * last complete event. A torn event left behind by a crash is cut off. Only the events after
+     * {@code fromPosition} are read, so the cost does not depend on the length of the history.
+     *
+     * @param fromPosition position up to which the events are already reflected in a snapshot
+     */
+    public static EventLog open(Path file, long fromPosition, EventConsumer consumer) throws IOException {
+        FileChannel channel =
+                FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < fromPosition) {
+            channel.close();
+            throw new IllegalStateException(
+                    "The event log " + file + " is shorter than the snapshot position " + fromPosition);
+        }
+        long end = scan(channel, fromPosition, consumer);
+        if (end < channel.size()) {
+            log.warn("Truncating {} bytes of an incomplete event at the end of {}", channel.size() - end, file);
+            channel.truncate(end);
+        }
+        channel.position(end);
+        return new EventLog(channel, end);
+    }
+
+    /**
+     * Encodes the event behind the previous ones. It is durable once {@link #awaitDurable(long)}
+     * returns for the returned position.
+     *
+     * @param values the amounts or rates of the event, or null if it carries none
+     * @return the log position right after the event
+     */
+    public long append(EventType type, String portfolioId, int month, double[] values) {
+        return append(type, portfolioId, month, values, null);
+    }
+
+    /**
+     * @param names the names carried by the event, or null if it carries none
+     */
+    public synchronized long append(
+            EventType type, String portfolioId, int month, double[] values, List<String> names) {
+        checkNotFailed();
+        byte[] id = portfolioId.getBytes(StandardCharsets.UTF_8);
+        int count = values == null ? 0 : values.length;
+        byte[][] encodedNames = encode(names);
+        checkLength("portfolio id bytes", id.length);
+        checkLength("values", count);
+        checkLength("names", encodedNames.length);
+        for (byte[] name : encodedNames) {
+            checkLength("name bytes", name.length);
+        }
+        int bodyLength = 1 + Short.BYTES + id.length + Integer.BYTES + Short.BYTES + count * Double.BYTES
+                + Short.BYTES;
+        for (byte[] name : encodedNames) {
+            bodyLength += Short.BYTES + name.length;
+        }
+        ensureCapacity(HEADER_BYTES + bodyLength);
+        int start = pending.position();
+        pending.putInt(bodyLength).putInt(0);
+        pending.put((byte) type.ordinal()).putShort((short) id.length).put(id).putInt(month).putShort((short) count);
+        for (int index = 0; index < count; index++) {
+            pending.putDouble(values[index]);
+        }
+        pending.putShort((short) encodedNames.length);
+        for (byte[] name : encodedNames) {
+            pending.putShort((short) name.length).put(name);
+        }
+        crc.reset();
+        crc.update(pending.array(), start + HEADER_BYTES, bodyLength);
+        pending.putInt(start + Integer.BYTES, (int) crc.getValue());
+        appendedPosition += HEADER_BYTES + bodyLength;
+        return appendedPosition;
+    }
+
+    /**
+     * Blocks until every event up to the given position is forced to disk.
+     */
+    public void awaitDurable(long position) {
+        if (durablePosition >= position) {
+            return;
+        }
+        commitLock.lock();
+        try {
+            if (durablePosition >= position) {
+                return;
+            }
+            checkNotFailed();
+            long upTo;
+            synchronized (this) {
+                ByteBuffer batch = pending;
+                pending = writing;
+                writing = batch;
+                upTo = appendedPosition;
+            }
+            writing.flip();
+            while (writing.hasRemaining()) {
+                channel.write(writing);
+            }
+            writing.clear();
+            channel.force(false);
+            durablePosition = upTo;
+        } catch (IOException e) {
+            writing.clear();
+            failure = e;
+            throw new UncheckedIOException("Failed to write the event log", e);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    public long getDurablePosition() {
+        return durablePosition;
+    }
+
+    /**
+     * @return the end of the last appended event, durable or not
+     */
+    public synchronized long getAppendedPosition() {
+        return appendedPosition;
+    }
+
+    private static long scan(FileChannel channel, long fromPosition, EventConsumer consumer) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        CRC32 checksum = new CRC32();
+        long position = fromPosition;
+        long size = channel.size();
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int bodyLength = header.getInt(0);
+            if (bodyLength <= 0 || position + HEADER_BYTES + bodyLength > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(channel, body, position + HEADER_BYTES);
+            checksum.reset();
+            checksum.update(body.array(), 0, bodyLength);
+            if ((int) checksum.getValue() != header.getInt(Integer.BYTES)) {
+                break;
+            }
+            if (consumer != null) {
+                body.clear();
+                EventType type = EventType.values()[body.get()];
+                byte[] id = new byte[body.getShort()];
+                body.get(id);
+                int month = body.getInt();
+                int count = body.getShort();
+                double[] values = count == 0 ? null : new double[count];
+                for (int index = 0; index < count; index++) {
+                    values[index] = body.getDouble();
+                }
+                int nameCount = body.getShort();
+                List<String> names = new ArrayList<>(nameCount);
+                for (int index = 0; index < nameCount; index++) {
+                    byte[] name = new byte[body.getShort()];
+                    body.get(name);
+                    names.add(new String(name, StandardCharsets.UTF_8));
+                }
+                consumer.accept(position + HEADER_BYTES + bodyLength, type, new String(id, StandardCharsets.UTF_8),
+                        month, values, names);
+            }
+            position += HEADER_BYTES + bodyLength;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of the event log");
+            }
+        }
+    }
+
+    private static void checkLength(String what, int length) {
+        if (length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "An event holds at most " + Short.MAX_VALUE + " " + what + ", not " + length);
+        }
+    }
+
+    private void checkNotFailed() {
+        if (failure != null) {
+            throw new UncheckedIOException("The event log failed to write earlier", failure);
+        }
+    }
+
+    private static byte[][] encode(List<String> names) {
+        byte[][] encoded = new byte[names == null ? 0 : names.size()][];
+        for (int index = 0; index < encoded.length; index++) {
+            encoded[index] = names.get(index).getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer larger =
+                    ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitDurable(getAppendedPosition());
+        } finally {
+            channel.close();
+        }
+    }
+
+    @FunctionalInterface
+    public interface EventConsumer {
+        /**
+         * @param position the log position right after the event, as {@link #append} returned it
+         */
+        void accept(long position, EventType type, String portfolioId, int month, double[] values,
+                    List<String> names);
+    }
+}
@@ -0,0 +1,168 @@
+package com.mymoney.investment.dao;
+
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.utils.Timeline;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+
+/**
+ * Market rates of change shared by every portfolio of a {@link PortfolioStore} that invests in
+ * the same assets. A portfolio only stores the months it overrides; every other month is read from
+ * this table, so a market move is registered once for all portfolios.
+ *
+ * <p>Readers work on an immutable {@link Version} without locking. A change copies the array of
+ * month rows, never the rates of other months, and publishes a new version that also records which
+ * month changed, so each portfolio can discard the balances the change made stale.
+ */
+@Slf4j
+public class MarketRateTable {
+
+    private final AssetUniverse assetUniverse;
+    private volatile Version current = new Version(0, new double[0][], new int[16], -1);
+    private volatile long restoredPosition;
+
+    public MarketRateTable(AssetUniverse assetUniverse) {
+        this.assetUniverse = Objects.requireNonNull(assetUniverse);
+    }
+
+    public AssetUniverse getAssetUniverse() {
+        return assetUniverse;
+    }
+
+    /**
+     * @return whether portfolios investing in the given assets read their rates from this table
+     */
+    public boolean appliesTo(AssetUniverse portfolioAssets) {
+        return assetUniverse == portfolioAssets || assetUniverse.equals(portfolioAssets);
+    }
+
+    /**
+     * @return the log position up to which the snapshot the table was restored from reflects the
+     * market events, or {@link SnapshotStore#UNKNOWN_POSITION} if that snapshot did not record it
+     */
+    public long getRestoredPosition() {
+        return restoredPosition;
+    }
+
+    public Version current() {
+        return current;
+    }
+
+    /**
+     * Registers the rates of a month for every portfolio.
+     *
+     * @param override replace the rates of a month that is already registered
+     */
+    public synchronized void put(int month, double[] rates, boolean override) throws DataFormatException {
+        check(month, rates, override);
+        Version version = current;
+        double[][] rows = Arrays.copyOf(version.rows, Math.max(version.rows.length, month + 1));
+        rows[month] = rates.clone();
+        int[] changedMonths = version.changedMonths;
+        if (version.number == changedMonths.length) {
+            changedMonths = Arrays.copyOf(changedMonths, changedMonths.length * 2);
+        }
+        // Older versions never read past their own number, so the array is shared.
+        changedMonths[version.number] = month;
+        current = new Version(
+                version.number + 1, rows, changedMonths, Math.max(version.lastKnownMonth, month));
+        if (log.isDebugEnabled()) {
+            log.debug("Registered the market rates of {} as version {}", Timeline.describe(month), version.number + 1);
+        }
+    }
+
+    /**
+     * Fails the way {@link #put(int, double[], boolean)} would, without registering anything.
+     */
+    public synchronized void check(int month, double[] rates, boolean override) throws DataFormatException {
+        if (Objects.isNull(rates) || rates.length != assetUniverse.size()) {
+            throw new DataFormatException("The input is not in the desired format");
+        }
+        if (!Timeline.isInPlan(month)) {
+            throw new IllegalArgumentException("The month index " + month + " is out of the plan");
+        }
+        if (!override && current.isKnown(month)) {
+            throw new IllegalStateException(
+                    "The market Rate of Change for month " + Timeline.describe(month) + " is already registered");
+        }
+    }
+
+    /**
+     * Replaces the whole table, as read back from a snapshot.
+     */
+    synchronized void restore(int number, double[][] rows, int[] changedMonths, long position) {
+        int lastKnownMonth = -1;
+        for (int month = 0; month < rows.length; month++) {
+            if (Objects.nonNull(rows[month])) {
+                lastKnownMonth = month;
+            }
+        }
+        current = new Version(number, rows, Arrays.copyOf(changedMonths, Math.max(number, 16)), lastKnownMonth);
+        restoredPosition = position;
+    }
+
+    /**
+     * An immutable state of the table.
+     */
+    public static final class Version {
+        private final int number;
+        private final double[][] rows;
+        private final int[] changedMonths;
+        private final int lastKnownMonth;
+
+        private Version(int number, double[][] rows, int[] changedMonths, int lastKnownMonth) {
+            this.number = number;
+            this.rows = rows;
+            this.changedMonths = changedMonths;
+            this.lastKnownMonth = lastKnownMonth;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public boolean isKnown(int month) {
+            return month >= 0 && month < rows.length && Objects.nonNull(rows[month]);
+        }
+
+        /**
+         * @return the rates of the month, indexed by asset id; callers must not modify them
+         */
+        public double[] getRates(int month) {
+            return rows[month];
+        }
+
+        public int getMonthCount() {
+            return rows.length;
+        }
+
+        public int getLastKnownMonth() {
+            return lastKnownMonth;
+        }
+
+        /**
+         * @return the changed month of every version up to this one, in version order
+         */
+        public int[] getChangedMonths() {
+            return Arrays.copyOf(changedMonths, number);
+        }
+
+        /**
+         * @return the earliest month changed after the given version, or {@link Integer#MAX_VALUE}
+         * if nothing changed since
+         */
+        public int earliestChangeSince(int version) {
+            if (version < 0 || version > number) {
+                return 0;
+            }
+            int earliest = Integer.MAX_VALUE;
+            for (int index = version; index < number; index++) {
+                earliest = Math.min(earliest, changedMonths[index]);
+            }
+            return earliest;
+        }
+    }
+}
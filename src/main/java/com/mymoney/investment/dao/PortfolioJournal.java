@@ -0,0 +1,148 @@
+package com.mymoney.investment.dao;
+
+import com.mymoney.investment.enums.EventType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persists the portfolios of a {@link PortfolioStore} as an {@link EventLog} plus periodic
+ * {@link SnapshotStore snapshots}. A disabled journal keeps everything in memory only.
+ */
+@Slf4j
+public class PortfolioJournal implements Closeable {
+
+    public static final String EVENT_LOG_FILE = "events.log";
+
+    private final PortfolioStore portfolioStore;
+    private final Path directory;
+    private final SnapshotStore snapshotStore;
+    private final long snapshotEveryEvents;
+    private final AtomicLong eventsSinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private final ExecutorService snapshotExecutor;
+    private EventLog eventLog;
+
+    private PortfolioJournal(PortfolioStore portfolioStore, Path directory, long snapshotEveryEvents) {
+        this.portfolioStore = portfolioStore;
+        this.directory = directory;
+        this.snapshotStore = Objects.isNull(directory) ? null : new SnapshotStore(directory);
+        this.snapshotEveryEvents = snapshotEveryEvents;
+        this.snapshotExecutor = Objects.isNull(directory) ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "portfolio-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static PortfolioJournal disabled() {
+        return new PortfolioJournal(null, null, 0);
+    }
+
+    /**
+     * @param snapshotEveryEvents number of events after which a new snapshot is taken in the background
+     */
+    public static PortfolioJournal of(PortfolioStore portfolioStore, Path directory, long snapshotEveryEvents) {
+        return new PortfolioJournal(portfolioStore, directory, snapshotEveryEvents);
+    }
+
+    public boolean isEnabled() {
+        return Objects.nonNull(directory);
+    }
+
+    /**
+     * Restores the latest snapshot into the store and replays the events logged after it.
+     */
+    public synchronized void recover(EventLog.EventConsumer replay) throws IOException {
+        if (!isEnabled() || Objects.nonNull(eventLog)) {
+            return;
+        }
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+        long snapshotPosition = snapshotStore.restore(portfolioStore);
+        AtomicLong replayed = new AtomicLong();
+        eventLog = EventLog.open(directory.resolve(EVENT_LOG_FILE), snapshotPosition, (position, type, id, month, values, names) -> {
+            replay.accept(position, type, id, month, values, names);
+            replayed.incrementAndGet();
+        });
+        eventsSinceSnapshot.set(replayed.get());
+        log.info("Recovered {} portfolios from the snapshot at {} and {} later events in {} ms",
+                portfolioStore.size(), snapshotPosition, replayed.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Appends the event; call this while holding the portfolio's lock so the log keeps the order in
+     * which events were applied.
+     *
+     * @return the position to wait for with {@link #awaitDurable(long)}
+     */
+    public long record(EventType type, String portfolioId, int month, double[] values) {
+        return record(type, portfolioId, month, values, null);
+    }
+
+    public long record(EventType type, String portfolioId, int month, double[] values, List<String> names) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        if (Objects.isNull(eventLog)) {
+            throw new IllegalStateException("The journal is not recovered yet");
+        }
+        long position = eventLog.append(type, portfolioId, month, values, names);
+        if (eventsSinceSnapshot.incrementAndGet() >= snapshotEveryEvents
+                && snapshotRunning.compareAndSet(false, true)) {
+            snapshotExecutor.execute(this::snapshotQuietly);
+        }
+        return position;
+    }
+
+    public void awaitDurable(long position) {
+        if (isEnabled()) {
+            eventLog.awaitDurable(position);
+        }
+    }
+
+    /**
+     * Writes a snapshot of every portfolio covering all events appended so far.
+     */
+    public void snapshot() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        eventsSinceSnapshot.set(0);
+        long position = eventLog.getAppendedPosition();
+        eventLog.awaitDurable(position);
+        snapshotStore.write(position, portfolioStore, eventLog::getAppendedPosition);
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Failed to write a snapshot", e);
+        } finally {
+            snapshotRunning.set(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isEnabled()) {
+            snapshotExecutor.shutdown();
+            if (Objects.nonNull(eventLog)) {
+                eventLog.close();
+            }
+        }
+    }
+}
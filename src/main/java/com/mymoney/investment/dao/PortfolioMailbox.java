@@ -0,0 +1,106 @@
+package com.mymoney.investment.dao;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single-writer mailbox of a portfolio. Every action that reads or writes the mutable state of the
+ * portfolio is queued here and run by exactly one thread at a time.
+ *
+ * <p>There is no dedicated thread: the caller that finds the mailbox idle becomes its writer and
+ * drains every queued action in a batch, including the ones other callers queued meanwhile, while
+ * those callers wait for their own action to complete. The queue is a lock-free multi-producer
+ * queue, so callers never block each other while queueing.
+ *
+ * <p>Ordering guarantees:
+ * <ul>
+ *     <li>Actions run one at a time, in the order they were queued.</li>
+ *     <li>Once {@link #call(Action)} returns, every later action sees the effects of the action.</li>
+ *     <li>Actions queued by one thread run in that thread's program order.</li>
+ * </ul>
+ */
+public class PortfolioMailbox {
+
+    private final ConcurrentLinkedQueue<Task<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * Runs the action as the single writer of the portfolio and returns its result, or rethrows
+     * what it threw.
+     */
+    public <T, E extends Exception> T call(Action<T, E> action) throws E {
+        Task<T> task = new Task<>(action);
+        queue.add(task);
+        // Whoever held the mailbox checks the queue again after releasing it, so a task queued
+        // while its caller lost the race for the mailbox is always drained by the writer.
+        do {
+            if (!draining.compareAndSet(false, true)) {
+                break;
+            }
+            try {
+                drain();
+            } finally {
+                draining.set(false);
+            }
+        } while (!queue.isEmpty());
+        return task.await();
+    }
+
+    private void drain() {
+        for (Task<?> task = queue.poll(); task != null; task = queue.poll()) {
+            task.run();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Action<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private static final class Task<T> {
+        final Action<T, ?> action;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(Action<T, ?> action) {
+            this.action = action;
+        }
+
+        void run() {
+            try {
+                future.complete(action.run());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        <E extends Exception> T await() throws E {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return future.get();
+                    } catch (InterruptedException e) {
+                        // The action is queued and will run; its caller must see the outcome.
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw (E) cause;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.mymoney.investment.dao;
+
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.PortfolioGrowthDTO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates over every portfolio of the store, maintained as the portfolios calculate their
+ * months rather than computed by scanning them:
+ * <ul>
+ *     <li>the sum of every asset and the number of portfolios per month, per asset universe;</li>
+ *     <li>the growth of each portfolio at its last calculated month, kept sorted;</li>
+ *     <li>a histogram of how far each portfolio's last calculated month drifted from its desired
+ *     weights.</li>
+ * </ul>
+ *
+ * <p>Only calculated months are counted, since balances are rolled forward lazily. Each portfolio
+ * feeds the rollups through its own {@link CompactPortfolio.Listener}, from the thread that owns
+ * the portfolio; the sums are {@link LongAdder}s so portfolios calculated in parallel do not
+ * contend, and readers see every contribution that completed before they started.
+ */
+public class PortfolioRollups {
+
+    /** Drift is bucketed per percentage point; the last bucket holds 100 points and more. */
+    public static final int DRIFT_BUCKETS = 101;
+
+    private static final Comparator<PortfolioGrowthDTO> BY_GROWTH =
+            Comparator.comparingDouble(PortfolioGrowthDTO::getGrowthPercent).reversed()
+                    .thenComparing(PortfolioGrowthDTO::getPortfolioId);
+
+    private final ConcurrentHashMap<AssetUniverse, MonthlyTotals> totals = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<PortfolioGrowthDTO> byGrowth = new ConcurrentSkipListSet<>(BY_GROWTH);
+    private final AtomicLongArray driftHistogram = new AtomicLongArray(DRIFT_BUCKETS);
+
+    /**
+     * Starts feeding the rollups from the balances of the portfolio, including the months it has
+     * already calculated. Must be called by the owner of the portfolio.
+     */
+    public void attach(String portfolioId, DataStub dataStub) {
+        if (Objects.nonNull(dataStub.monthlyBalance)) {
+            dataStub.monthlyBalance.setListener(new Contribution(portfolioId, dataStub,
+                    totals.computeIfAbsent(dataStub.assetUniverse, universe -> new MonthlyTotals(universe.size()))));
+        }
+    }
+
+    /**
+     * Withdraws everything the portfolio contributed.
+     */
+    public void detach(DataStub dataStub) {
+        if (Objects.nonNull(dataStub.monthlyBalance)) {
+            dataStub.monthlyBalance.setListener(null);
+        }
+    }
+
+    /**
+     * @return the sum in units of every asset over the portfolios investing in the universe that
+     * calculated the month, in the order of the universe
+     */
+    public long[] totalsOf(AssetUniverse assetUniverse, int month) {
+        MonthlyTotals monthlyTotals = totals.get(assetUniverse);
+        long[] sums = new long[assetUniverse.size()];
+        LongAdder[] row = Objects.isNull(monthlyTotals) ? null : monthlyTotals.rowIfPresent(month);
+        if (Objects.nonNull(row)) {
+            for (int asset = 0; asset < sums.length; asset++) {
+                sums[asset] = row[asset].sum();
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * @return the number of portfolios investing in the universe that calculated the month
+     */
+    public long portfoliosOf(AssetUniverse assetUniverse, int month) {
+        MonthlyTotals monthlyTotals = totals.get(assetUniverse);
+        LongAdder[] row = Objects.isNull(monthlyTotals) ? null : monthlyTotals.rowIfPresent(month);
+        return Objects.isNull(row) ? 0 : row[assetUniverse.size()].sum();
+    }
+
+    /**
+     * @return the portfolios with the highest growth at their last calculated month, highest first
+     */
+    public List<PortfolioGrowthDTO> topByGrowth(int count) {
+        List<PortfolioGrowthDTO> top = new ArrayList<>(Math.max(Math.min(count, 1024), 0));
+        Iterator<PortfolioGrowthDTO> iterator = byGrowth.iterator();
+        while (top.size() < count && iterator.hasNext()) {
+            top.add(iterator.next());
+        }
+        return top;
+    }
+
+    /**
+     * @return the number of portfolios per drift bucket: bucket {@code b} holds the portfolios
+     * whose most drifted asset is {@code [b, b + 1)} percentage points away from its desired weight
+     */
+    public long[] driftHistogram() {
+        long[] counts = new long[DRIFT_BUCKETS];
+        for (int bucket = 0; bucket < DRIFT_BUCKETS; bucket++) {
+            counts[bucket] = driftHistogram.get(bucket);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the largest distance in percentage points between the weight of an asset in the row
+     * and its desired weight, or NaN if the row or the weights total zero
+     */
+    static double driftOf(long[] balances, int offset, long[] desiredWeights, int assetCount) {
+        double total = CompactPortfolio.totalInvestment(balances, offset, assetCount);
+        double totalWeight = CompactPortfolio.totalInvestment(desiredWeights, 0, assetCount);
+        if (total == 0 || totalWeight == 0) {
+            return Double.NaN;
+        }
+        double drift = 0;
+        for (int asset = 0; asset < assetCount; asset++) {
+            drift = Math.max(drift, Math.abs(balances[offset + asset] / total - desiredWeights[asset] / totalWeight));
+        }
+        return drift * 100;
+    }
+
+    /**
+     * Sum of every asset plus a portfolio count per month, grown a year at a time. Rows are never
+     * replaced once created, so a grown array shares them with the previous one.
+     */
+    private static final class MonthlyTotals {
+        private final int assetCount;
+        private volatile LongAdder[][] months = new LongAdder[0][];
+
+        MonthlyTotals(int assetCount) {
+            this.assetCount = assetCount;
+        }
+
+        LongAdder[] rowIfPresent(int month) {
+            LongAdder[][] current = months;
+            return month >= 0 && month < current.length ? current[month] : null;
+        }
+
+        LongAdder[] row(int month) {
+            LongAdder[] row = rowIfPresent(month);
+            return Objects.nonNull(row) ? row : grow(month);
+        }
+
+        private synchronized LongAdder[] grow(int month) {
+            LongAdder[][] current = months;
+            if (month < current.length) {
+                return current[month];
+            }
+            LongAdder[][] grown = Arrays.copyOf(current, Math.max(month + 12, current.length * 2));
+            for (int index = current.length; index < grown.length; index++) {
+                grown[index] = new LongAdder[assetCount + 1];
+                for (int asset = 0; asset <= assetCount; asset++) {
+                    grown[index][asset] = new LongAdder();
+                }
+            }
+            months = grown;
+            return grown[month];
+        }
+
+        void add(int month, long[] balances, int offset, int sign) {
+            LongAdder[] row = row(month);
+            for (int asset = 0; asset < assetCount; asset++) {
+                row[asset].add(sign * balances[offset + asset]);
+            }
+            row[assetCount].add(sign);
+        }
+    }
+
+    /**
+     * What one portfolio currently adds to the rollups.
+     */
+    private final class Contribution implements CompactPortfolio.Listener {
+        private final String portfolioId;
+        private final DataStub dataStub;
+        private final MonthlyTotals monthlyTotals;
+        private PortfolioGrowthDTO growth;
+        private int driftBucket = -1;
+        private long[] lastRow;
+
+        Contribution(String portfolioId, DataStub dataStub, MonthlyTotals monthlyTotals) {
+            this.portfolioId = portfolioId;
+            this.dataStub = dataStub;
+            this.monthlyTotals = monthlyTotals;
+        }
+
+        @Override
+        public void rowCalculated(int month, long[] balances, int offset) {
+            monthlyTotals.add(month, balances, offset, 1);
+        }
+
+        @Override
+        public void rowDiscarded(int month, long[] balances, int offset) {
+            monthlyTotals.add(month, balances, offset, -1);
+        }
+
+        /**
+         * Moves the portfolio to the growth and drift of its last calculated month, or withdraws
+         * it when no month is calculated or the portfolio was detached.
+         */
+        @Override
+        public void published(CompactPortfolio portfolio) {
+            int lastMonth = portfolio.getCalculatedMonths() - 1;
+            boolean attached = portfolio.isListenedBy(this) && lastMonth >= 0;
+            if (Objects.nonNull(growth)) {
+                byGrowth.remove(growth);
+                growth = null;
+            }
+            if (driftBucket >= 0) {
+                driftHistogram.decrementAndGet(driftBucket);
+                driftBucket = -1;
+            }
+            if (!attached) {
+                return;
+            }
+            long total = portfolio.getTotalInvestment(lastMonth);
+            long invested = CompactPortfolio.totalInvestment(dataStub.initialAllocation, 0, portfolio.getAssetCount());
+            if (Objects.nonNull(dataStub.initialSip)) {
+                invested += lastMonth * CompactPortfolio.totalInvestment(dataStub.initialSip, 0, portfolio.getAssetCount());
+            }
+            if (invested > 0) {
+                growth = new PortfolioGrowthDTO(portfolioId, lastMonth,
+                        portfolio.getMoney().toRupees(total), portfolio.getMoney().toRupees(invested),
+                        (total - invested) * 100.0 / invested);
+                byGrowth.add(growth);
+            }
+            if (Objects.isNull(dataStub.desiredWeights)) {
+                return;
+            }
+            if (Objects.isNull(lastRow)) {
+                lastRow = new long[portfolio.getAssetCount()];
+            }
+            portfolio.readRow(lastMonth, lastRow, 0);
+            double drift = driftOf(lastRow, 0, dataStub.desiredWeights, portfolio.getAssetCount());
+            if (!Double.isNaN(drift)) {
+                driftBucket = (int) Math.min(drift, DRIFT_BUCKETS - 1);
+                driftHistogram.incrementAndGet(driftBucket);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.mymoney.investment.dao;
+
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.enums.BalanceStorage;
+import com.mymoney.investment.utils.Money;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the state of every portfolio held by this process, keyed by portfolio ID.
+ *
+ * <p>Lookups are lock-free. The state of each {@link DataStub} is only changed through its
+ * {@link PortfolioMailbox}, which runs one action at a time, so operations on different portfolios
+ * never contend with each other. The {@link MarketRateTable} holds the rates shared by
+ * the portfolios and every amount is counted in units of the same {@link Money}. The
+ * {@link PortfolioRollups} aggregate the portfolios that were allocated; removing a portfolio
+ * withdraws it from them. The monthly balances of every portfolio are kept in the
+ * {@link BalanceStorage} of the store. Queries never create a portfolio; only the commands that
+ * change one do.
+ */
+@Slf4j
+public class PortfolioStore {
+
+    private static final int DEFAULT_CAPACITY = 1 << 17;
+    /** Keeps every ID well within the length the event log records. */
+    public static final int MAX_PORTFOLIO_ID_LENGTH = 256;
+
+    private final ConcurrentHashMap<String, DataStub> portfolios;
+    private final Supplier<DataStub> portfolioFactory;
+    /** A portfolio as the factory creates it, never stored, for queries about unknown IDs. */
+    private final DataStub defaults;
+    private final MarketRateTable marketRates;
+    private final Money money;
+    private final BalanceStorage balanceStorage;
+    private final PortfolioRollups rollups = new PortfolioRollups();
+
+    /**
+     * Creates a store with the defaults of {@link #builder(Supplier)}.
+     */
+    public PortfolioStore(Supplier<DataStub> portfolioFactory) {
+        this(builder(portfolioFactory));
+    }
+
+    public PortfolioStore(Supplier<DataStub> portfolioFactory, MarketRateTable marketRates, int initialCapacity,
+                          Money money, BalanceStorage balanceStorage) {
+        this.portfolioFactory = Objects.requireNonNull(portfolioFactory);
+        this.defaults = portfolioFactory.get();
+        this.marketRates = Objects.requireNonNull(marketRates);
+        this.money = Objects.requireNonNull(money);
+        this.balanceStorage = Objects.requireNonNull(balanceStorage);
+        this.portfolios =
+                new ConcurrentHashMap<>(
+                        initialCapacity, 0.75f, Runtime.getRuntime().availableProcessors());
+    }
+
+    private PortfolioStore(Builder builder) {
+        this(builder.portfolioFactory,
+                Objects.isNull(builder.marketRates) ? new MarketRateTable(AssetUniverse.DEFAULT) : builder.marketRates,
+                builder.initialCapacity, builder.money, builder.balanceStorage);
+    }
+
+    /**
+     * @return a builder of a store whose options default to market rates for
+     * {@link AssetUniverse#DEFAULT}, whole rupees and balances on the heap
+     */
+    public static Builder builder(Supplier<DataStub> portfolioFactory) {
+        return new Builder(portfolioFactory);
+    }
+
+    /**
+     * @return the portfolio for the given ID, creating an empty one on first use
+     */
+    public DataStub getOrCreate(String portfolioId) {
+        DataStub stub = portfolios.get(validate(portfolioId));
+        if (Objects.nonNull(stub)) {
+            return stub;
+        }
+        return portfolios.computeIfAbsent(portfolioId, id -> {
+            log.debug("Creating portfolio {}", id);
+            return portfolioFactory.get();
+        });
+    }
+
+    public Optional<DataStub> find(String portfolioId) {
+        return Optional.ofNullable(portfolios.get(validate(portfolioId)));
+    }
+
+    /**
+     * @return the assets of a portfolio that is not created yet
+     */
+    public AssetUniverse getDefaultAssets() {
+        return defaults.assetUniverse;
+    }
+
+    /**
+     * @return the rebalance policy of a portfolio that is not created yet
+     */
+    public RebalancePolicy getDefaultReBalancePolicy() {
+        return defaults.reBalancePolicy;
+    }
+
+    /**
+     * Removes the portfolio and frees its balances; call it from the portfolio's mailbox.
+     */
+    public DataStub remove(String portfolioId) {
+        DataStub stub = portfolios.remove(validate(portfolioId));
+        if (Objects.nonNull(stub)) {
+            rollups.detach(stub);
+            CompactPortfolio balance = stub.monthlyBalance;
+            if (Objects.nonNull(balance)) {
+                stub.publishedBalance = null;
+                stub.monthlyBalance = null;
+                balance.release();
+            }
+        }
+        return stub;
+    }
+
+    public MarketRateTable getMarketRates() {
+        return marketRates;
+    }
+
+    public Money getMoney() {
+        return money;
+    }
+
+    public BalanceStorage getBalanceStorage() {
+        return balanceStorage;
+    }
+
+    public PortfolioRollups getRollups() {
+        return rollups;
+    }
+
+    public Set<String> portfolioIds() {
+        return portfolios.keySet();
+    }
+
+    public int size() {
+        return portfolios.size();
+    }
+
+    private static String validate(String portfolioId) {
+        if (Objects.isNull(portfolioId) || portfolioId.isEmpty()) {
+            throw new IllegalArgumentException("The portfolio id must be supplied");
+        }
+        if (portfolioId.length() > MAX_PORTFOLIO_ID_LENGTH) {
+            throw new IllegalArgumentException(
+                    "The portfolio id must be at most " + MAX_PORTFOLIO_ID_LENGTH + " characters long");
+        }
+        return portfolioId;
+    }
+
+    public static final class Builder {
+
+        private final Supplier<DataStub> portfolioFactory;
+        private MarketRateTable marketRates;
+        private int initialCapacity = DEFAULT_CAPACITY;
+        private Money money = Money.DEFAULT;
+        private BalanceStorage balanceStorage = BalanceStorage.HEAP;
+
+        private Builder(Supplier<DataStub> portfolioFactory) {
+            this.portfolioFactory = portfolioFactory;
+        }
+
+        public Builder marketRates(MarketRateTable marketRates) {
+            this.marketRates = marketRates;
+            return this;
+        }
+
+        /**
+         * @param initialCapacity number of portfolios the store holds before it grows
+         */
+        public Builder initialCapacity(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        public Builder money(Money money) {
+            this.money = money;
+            return this;
+        }
+
+        public Builder balanceStorage(BalanceStorage balanceStorage) {
+            this.balanceStorage = balanceStorage;
+            return this;
+        }
+
+        public PortfolioStore build() {
+            return new PortfolioStore(this);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.mymoney.investment.dao;
+
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.BalanceRows;
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.RateSeries;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.enums.BalanceStorage;
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time copies of every portfolio, including its calculated monthly balances. Each
+ * snapshot records the event log position it covers, so recovery only replays the log tail.
+ *
+ * <p>Snapshots are fuzzy: portfolios are copied one at a time in their own mailbox while events
+ * keep flowing. Every event before the recorded position is reflected; events after it may or may
+ * not be. So each portfolio, and the market rates, also record the log position they were copied
+ * at, and recovery skips exactly the events before it.
+ */
+@Slf4j
+public class SnapshotStore {
+
+    private static final int MAGIC = 0x4D4D534E;
+    private static final int VERSION = 5;
+    /** Snapshots that did not record the log position each portfolio was copied at. */
+    private static final int UNPOSITIONED_VERSION = 4;
+    /** Snapshots of whole rupee amounts kept in doubles, before fixed-point money. */
+    private static final int DOUBLE_AMOUNTS_VERSION = 3;
+    /** Snapshots before rebalance policies, restored with the calendar policy. */
+    private static final int CALENDAR_ONLY_VERSION = 2;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int RETAINED_SNAPSHOTS = 2;
+
+    /** Restored position of the state read from a snapshot that did not record one. */
+    public static final long UNKNOWN_POSITION = -1;
+
+    private final Path directory;
+
+    public SnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param appendedPosition the end of the last appended event, read while the portfolio or the
+     *                         market rates being copied cannot change
+     */
+    public void write(long logPosition, PortfolioStore portfolioStore, LongSupplier appendedPosition)
+            throws IOException {
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, logPosition, SUFFIX));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        int portfolios = 0;
+        try (DataOutputStream out =
+                     new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(logPosition);
+            out.writeInt(portfolioStore.getMoney().getScale());
+            for (String portfolioId : portfolioStore.portfolioIds()) {
+                DataStub dataStub = portfolioStore.find(portfolioId).orElse(null);
+                if (Objects.isNull(dataStub)) {
+                    continue;
+                }
+                out.writeBoolean(true);
+                out.writeUTF(portfolioId);
+                dataStub.mailbox.call(() -> {
+                    out.writeLong(appendedPosition.getAsLong());
+                    writePortfolio(out, dataStub);
+                    return null;
+                });
+                portfolios++;
+            }
+            out.writeBoolean(false);
+            // Taken after the portfolios, so it is at least as recent as any of them.
+            MarketRateTable marketRates = portfolioStore.getMarketRates();
+            MarketRateTable.Version current;
+            long marketPosition;
+            synchronized (marketRates) {
+                current = marketRates.current();
+                marketPosition = appendedPosition.getAsLong();
+            }
+            out.writeLong(marketPosition);
+            writeMarketRates(out, current);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Wrote snapshot of {} portfolios at event log position {}", portfolios, logPosition);
+        deleteOlderSnapshots();
+    }
+
+    /**
+     * Loads the latest snapshot into the store.
+     *
+     * @return the event log position covered by the snapshot, or 0 if there is none
+     */
+    public long restore(PortfolioStore portfolioStore) throws IOException {
+        List<Path> snapshots = listSnapshots();
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path latest = snapshots.get(snapshots.size() - 1);
+        try (DataInputStream in =
+                     new DataInputStream(new BufferedInputStream(Files.newInputStream(latest), 1 << 16))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != UNPOSITIONED_VERSION && version != DOUBLE_AMOUNTS_VERSION
+                    && version != CALENDAR_ONLY_VERSION) {
+                throw new IOException("The snapshot " + latest + " is not supported");
+            }
+            long logPosition = in.readLong();
+            Money money = portfolioStore.getMoney();
+            int scale = version > DOUBLE_AMOUNTS_VERSION ? in.readInt() : 0;
+            if (scale != money.getScale()) {
+                throw new IOException("The snapshot " + latest + " keeps amounts with " + scale
+                        + " decimals but the money scale is " + money.getScale());
+            }
+            int portfolios = 0;
+            while (in.readBoolean()) {
+                String portfolioId = in.readUTF();
+                DataStub dataStub = portfolioStore.getOrCreate(portfolioId);
+                dataStub.mailbox.call(() -> {
+                    dataStub.restoredPosition = version > UNPOSITIONED_VERSION ? in.readLong() : UNKNOWN_POSITION;
+                    portfolioStore.getRollups().detach(dataStub);
+                    readPortfolio(in, dataStub, version, money, portfolioStore.getBalanceStorage());
+                    portfolioStore.getRollups().attach(portfolioId, dataStub);
+                    return null;
+                });
+                portfolios++;
+            }
+            long marketPosition = version > UNPOSITIONED_VERSION ? in.readLong() : UNKNOWN_POSITION;
+            readMarketRates(in, portfolioStore.getMarketRates(), marketPosition);
+            log.info("Restored {} portfolios from {}", portfolios, latest);
+            return logPosition;
+        }
+    }
+
+    private static void writePortfolio(DataOutputStream out, DataStub dataStub) throws IOException {
+        out.writeInt(dataStub.assetUniverse.size());
+        for (String asset : dataStub.assetUniverse.getNames()) {
+            out.writeUTF(asset);
+        }
+        writeAmounts(out, dataStub.initialAllocation);
+        writeAmounts(out, dataStub.initialSip);
+
+        RateSeries rates = dataStub.monthlyMarketChangeRate;
+        int rateMonths = Objects.isNull(rates) ? -1 : rates.getLastKnownMonth() + 1;
+        out.writeInt(rateMonths);
+        for (int month = 0; month < rateMonths; month++) {
+            out.writeBoolean(rates.isKnown(month));
+            if (rates.isKnown(month)) {
+                writeValues(out, rates.getRates(), rates.offsetOf(month), rates.getAssetCount());
+            }
+        }
+
+        CompactPortfolio balance = dataStub.monthlyBalance;
+        out.writeUTF(dataStub.reBalancePolicy.toString());
+        out.writeInt(dataStub.marketVersion);
+        out.writeInt(Objects.isNull(balance) ? -1 : balance.getCalculatedMonths());
+        if (Objects.nonNull(balance)) {
+            for (int month = 0; month < balance.getCalculatedMonths(); month++) {
+                for (int asset = 0; asset < balance.getAssetCount(); asset++) {
+                    out.writeLong(balance.getAmount(month, asset));
+                }
+            }
+            long[] reBalancedMonths = balance.getReBalancedMonths().toLongArray();
+            out.writeInt(reBalancedMonths.length);
+            for (long months : reBalancedMonths) {
+                out.writeLong(months);
+            }
+        }
+    }
+
+    private static void readPortfolio(DataInputStream in, DataStub dataStub, int version, Money money,
+                                      BalanceStorage balanceStorage) throws IOException {
+        int assetCount = in.readInt();
+        String[] assets = new String[assetCount];
+        for (int asset = 0; asset < assetCount; asset++) {
+            assets[asset] = in.readUTF();
+        }
+        dataStub.assetUniverse = AssetUniverse.of(assets);
+        dataStub.initialAllocation = readAmounts(in, version);
+        dataStub.initialSip = readAmounts(in, version);
+        dataStub.desiredWeights = dataStub.initialAllocation;
+        if (version <= DOUBLE_AMOUNTS_VERSION) {
+            // The weights in percent, now implied by the allocation.
+            readArray(in);
+        }
+
+        int rateMonths = in.readInt();
+        dataStub.monthlyMarketChangeRate = rateMonths < 0 ? null : new RateSeries(assetCount);
+        double[] rates = new double[assetCount];
+        for (int month = 0; month < rateMonths; month++) {
+            if (in.readBoolean()) {
+                readValues(in, rates, assetCount);
+                dataStub.monthlyMarketChangeRate.put(month, rates);
+            }
+        }
+
+        dataStub.reBalancePolicy =
+                version == CALENDAR_ONLY_VERSION ? RebalancePolicy.DEFAULT : RebalancePolicy.parse(in.readUTF());
+        dataStub.marketVersion = in.readInt();
+        int calculatedMonths = in.readInt();
+        if (calculatedMonths >= 0) {
+            BalanceRows balances = balanceStorage.allocate(assetCount, Math.max(calculatedMonths, 1));
+            long[] row = new long[assetCount];
+            for (int month = 0; month < calculatedMonths; month++) {
+                for (int asset = 0; asset < assetCount; asset++) {
+                    row[asset] = version <= DOUBLE_AMOUNTS_VERSION ? (long) in.readDouble() : in.readLong();
+                }
+                balances.write(month, row, 0);
+            }
+            BitSet reBalancedMonths = new BitSet();
+            if (version == CALENDAR_ONLY_VERSION) {
+                for (int month = 1; month < calculatedMonths; month++) {
+                    reBalancedMonths.set(month, Timeline.isReBalanceMonth(month));
+                }
+            } else {
+                long[] words = new long[in.readInt()];
+                for (int index = 0; index < words.length; index++) {
+                    words[index] = in.readLong();
+                }
+                reBalancedMonths = BitSet.valueOf(words);
+            }
+            CompactPortfolio previous = dataStub.monthlyBalance;
+            dataStub.monthlyBalance =
+                    new CompactPortfolio(balances, calculatedMonths, reBalancedMonths, money);
+            if (Objects.nonNull(previous)) {
+                previous.release();
+            }
+        }
+    }
+
+    private static void writeMarketRates(DataOutputStream out, MarketRateTable.Version marketRates)
+            throws IOException {
+        int[] changedMonths = marketRates.getChangedMonths();
+        out.writeInt(changedMonths.length);
+        for (int month : changedMonths) {
+            out.writeInt(month);
+        }
+        out.writeInt(marketRates.getMonthCount());
+        for (int month = 0; month < marketRates.getMonthCount(); month++) {
+            writeArray(out, marketRates.isKnown(month) ? marketRates.getRates(month) : null);
+        }
+    }
+
+    private static void readMarketRates(DataInputStream in, MarketRateTable marketRates, long position)
+            throws IOException {
+        int[] changedMonths = new int[in.readInt()];
+        for (int index = 0; index < changedMonths.length; index++) {
+            changedMonths[index] = in.readInt();
+        }
+        double[][] rows = new double[in.readInt()][];
+        for (int month = 0; month < rows.length; month++) {
+            rows[month] = readArray(in);
+            if (Objects.nonNull(rows[month]) && rows[month].length != marketRates.getAssetUniverse().size()) {
+                throw new IOException("The snapshot holds market rates for other assets than "
+                        + marketRates.getAssetUniverse());
+            }
+        }
+        marketRates.restore(changedMonths.length, rows, changedMonths, position);
+    }
+
+    private static void writeAmounts(DataOutputStream out, long[] amounts) throws IOException {
+        out.writeInt(Objects.isNull(amounts) ? -1 : amounts.length);
+        if (Objects.nonNull(amounts)) {
+            for (long amount : amounts) {
+                out.writeLong(amount);
+            }
+        }
+    }
+
+    /**
+     * Reads amounts in units; older snapshots kept whole rupees in doubles.
+     */
+    private static long[] readAmounts(DataInputStream in, int version) throws IOException {
+        if (version <= DOUBLE_AMOUNTS_VERSION) {
+            double[] rupees = readArray(in);
+            return Objects.isNull(rupees) ? null : Money.DEFAULT.toUnits(rupees);
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        long[] amounts = new long[length];
+        for (int index = 0; index < length; index++) {
+            amounts[index] = in.readLong();
+        }
+        return amounts;
+    }
+
+    private static void writeArray(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(Objects.isNull(values) ? -1 : values.length);
+        if (Objects.nonNull(values)) {
+            writeValues(out, values, 0, values.length);
+        }
+    }
+
+    private static double[] readArray(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        double[] values = new double[length];
+        readValues(in, values, length);
+        return values;
+    }
+
+    private static void writeValues(DataOutputStream out, double[] values, int offset, int count)
+            throws IOException {
+        for (int index = 0; index < count; index++) {
+            out.writeDouble(values[offset + index]);
+        }
+    }
+
+    private static void readValues(DataInputStream in, double[] values, int count) throws IOException {
+        for (int index = 0; index < count; index++) {
+            values[index] = in.readDouble();
+        }
+    }
+
+    private List<Path> listSnapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void deleteOlderSnapshots() throws IOException {
+        List<Path> snapshots = listSnapshots();
+        for (int index = 0; index < snapshots.size() - RETAINED_SNAPSHOTS; index++) {
+            Files.deleteIfExists(snapshots.get(index));
+        }
+    }
+}
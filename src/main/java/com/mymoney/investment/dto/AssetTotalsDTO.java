@@ -0,0 +1,36 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Sum of every asset over the portfolios of an asset universe that calculated a month.
+ */
+@Getter
+@RequiredArgsConstructor
+public class AssetTotalsDTO {
+    private final AssetUniverse assetUniverse;
+    private final int month;
+    private final long portfolios;
+    private final Money money;
+    /** Sum per asset in {@link Money} units, in the order of the universe. */
+    private final long[] totals;
+
+    /**
+     * @return the sum of the asset in rupees
+     */
+    public double getTotal(int asset) {
+        return money.toRupees(totals[asset]);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(Timeline.describe(month)).append(' ').append(portfolios);
+        for (int asset = 0; asset < totals.length; asset++) {
+            money.append(builder.append(' ').append(assetUniverse.nameOf(asset)).append(' '), totals[asset]);
+        }
+        return builder.toString();
+    }
+}
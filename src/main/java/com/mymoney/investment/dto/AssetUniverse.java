@@ -0,0 +1,94 @@
+package com.mymoney.investment.dto;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The assets a portfolio invests in, defined at runtime. Each asset gets a dense integer id, its
+ * position in the universe, which indexes every per-asset array of the portfolio as well as the
+ * amounts and rates of its commands and outputs.
+ */
+public final class AssetUniverse {
+
+    public static final AssetUniverse DEFAULT = of("EQUITY", "DEBT", "GOLD");
+
+    /** Bounded by the per-event value count of the event log. */
+    public static final int MAX_ASSETS = Short.MAX_VALUE;
+
+    /** Keeps every name well within the length the event log records. */
+    public static final int MAX_NAME_LENGTH = 64;
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+
+    private AssetUniverse(String[] names) {
+        this.names = names;
+        this.ids = new HashMap<>(names.length * 2);
+        for (int id = 0; id < names.length; id++) {
+            if (Objects.isNull(names[id]) || names[id].isEmpty() || names[id].indexOf(' ') >= 0) {
+                throw new InputMismatchException("Invalid asset name '" + names[id] + "'");
+            }
+            if (names[id].length() > MAX_NAME_LENGTH) {
+                throw new InputMismatchException(
+                        "The name of an asset must be at most " + MAX_NAME_LENGTH + " characters long");
+            }
+            if (Objects.nonNull(ids.putIfAbsent(names[id], id))) {
+                throw new InputMismatchException("The asset " + names[id] + " is listed more than once");
+            }
+        }
+    }
+
+    public static AssetUniverse of(String... names) {
+        if (Objects.isNull(names) || names.length == 0 || names.length > MAX_ASSETS) {
+            throw new InputMismatchException("A portfolio holds between 1 and " + MAX_ASSETS + " assets");
+        }
+        return new AssetUniverse(names.clone());
+    }
+
+    public static AssetUniverse of(List<String> names) {
+        return of(Objects.isNull(names) ? null : names.toArray(new String[0]));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the dense id of the asset, or -1 if it is not part of the universe
+     */
+    public int idOf(String name) {
+        return ids.getOrDefault(name, -1);
+    }
+
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other
+                || other instanceof AssetUniverse && Arrays.equals(names, ((AssetUniverse) other).names);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(names);
+    }
+
+    /**
+     * @return the asset names in id order, separated by spaces
+     */
+    @Override
+    public String toString() {
+        return String.join(" ", names);
+    }
+}
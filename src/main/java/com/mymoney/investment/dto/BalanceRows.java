@@ -0,0 +1,208 @@
+package com.mymoney.investment.dto;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-layout storage of the month rows of a {@link CompactPortfolio}: month {@code m} holds
+ * {@code assetCount} amounts starting at entry {@code m * assetCount}. Rows are read into and
+ * written from a {@code long[]} row, where the kernels run.
+ *
+ * <p>Rows live either in a {@code long[]} on the heap or in a record of shared direct buffers
+ * outside it, in native byte order. Once written, a row may be read from any thread that saw it
+ * published. Off-heap rows are freed by their owner, so a reader that does not own them checks
+ * {@link #isValid()} after reading.
+ */
+public interface BalanceRows {
+
+    /**
+     * @return rows on the heap with room for {@code capacityMonths} months
+     */
+    static BalanceRows onHeap(int assetCount, int capacityMonths) {
+        return new Heap(assetCount, new long[assetCount * capacityMonths]);
+    }
+
+    /**
+     * @return the given balances as rows on the heap, without copying them
+     */
+    static BalanceRows onHeap(int assetCount, long[] balances) {
+        return new Heap(assetCount, balances);
+    }
+
+    /**
+     * @return rows in a record of the shared off-heap slabs with room for at least
+     * {@code capacityMonths} months
+     */
+    static BalanceRows offHeap(int assetCount, int capacityMonths) {
+        return new Direct(assetCount, BalanceSlabs.forLongs(assetCount * capacityMonths));
+    }
+
+    int getAssetCount();
+
+    int getCapacityMonths();
+
+    long get(int month, int asset);
+
+    /**
+     * Copies the row of the month into {@code row[offset, offset + assetCount)}.
+     */
+    void read(int month, long[] row, int offset);
+
+    /**
+     * Copies {@code row[offset, offset + assetCount)} into the row of the month.
+     */
+    void write(int month, long[] row, int offset);
+
+    /**
+     * @return rows of the same kind holding the first {@code months} rows, with room for
+     * {@code capacityMonths} months
+     */
+    BalanceRows copy(int months, int capacityMonths);
+
+    /**
+     * Returns the storage of the rows for reuse. Only the owner calls it, once it no longer reads
+     * or writes the rows itself.
+     */
+    default void free() {
+    }
+
+    /**
+     * @return whether everything read from the rows so far holds what was written, which is no
+     * longer certain once they were freed; call it after the reads
+     */
+    default boolean isValid() {
+        return true;
+    }
+
+    default long total(int month) {
+        long total = 0;
+        for (int asset = 0; asset < getAssetCount(); asset++) {
+            total += get(month, asset);
+        }
+        return total;
+    }
+
+    final class Heap implements BalanceRows {
+
+        private final int assetCount;
+        private final long[] balances;
+
+        private Heap(int assetCount, long[] balances) {
+            this.assetCount = assetCount;
+            this.balances = balances;
+        }
+
+        @Override
+        public int getAssetCount() {
+            return assetCount;
+        }
+
+        @Override
+        public int getCapacityMonths() {
+            return balances.length / assetCount;
+        }
+
+        @Override
+        public long get(int month, int asset) {
+            return balances[month * assetCount + asset];
+        }
+
+        @Override
+        public void read(int month, long[] row, int offset) {
+            System.arraycopy(balances, month * assetCount, row, offset, assetCount);
+        }
+
+        @Override
+        public void write(int month, long[] row, int offset) {
+            System.arraycopy(row, offset, balances, month * assetCount, assetCount);
+        }
+
+        @Override
+        public BalanceRows copy(int months, int capacityMonths) {
+            long[] copy = new long[capacityMonths * assetCount];
+            System.arraycopy(balances, 0, copy, 0, months * assetCount);
+            return new Heap(assetCount, copy);
+        }
+    }
+
+    /**
+     * Rows in a fixed-size record of the {@link BalanceSlabs} of their size: the portfolio holds a
+     * handle into a shared slab, not a buffer of its own. Rows are only read and written at absolute
+     * positions, which leave the slab's position alone and are safe for concurrent readers.
+     */
+    final class Direct implements BalanceRows {
+
+        private final int assetCount;
+        private final BalanceSlabs slabs;
+        private final int handle;
+        private final int generation;
+        private final ByteBuffer slab;
+        private final int base;
+
+        private Direct(int assetCount, BalanceSlabs slabs) {
+            this.assetCount = assetCount;
+            this.slabs = slabs;
+            this.handle = slabs.allocate();
+            this.generation = slabs.generationOf(handle);
+            this.slab = slabs.slabOf(handle);
+            this.base = slabs.offsetOf(handle);
+        }
+
+        @Override
+        public int getAssetCount() {
+            return assetCount;
+        }
+
+        @Override
+        public int getCapacityMonths() {
+            return slabs.getRecordLongs() / assetCount;
+        }
+
+        @Override
+        public long get(int month, int asset) {
+            return slab.getLong(base + (month * assetCount + asset) * Long.BYTES);
+        }
+
+        @Override
+        public void read(int month, long[] row, int offset) {
+            int index = base + month * assetCount * Long.BYTES;
+            for (int asset = 0; asset < assetCount; asset++, index += Long.BYTES) {
+                row[offset + asset] = slab.getLong(index);
+            }
+        }
+
+        @Override
+        public void write(int month, long[] row, int offset) {
+            int index = base + month * assetCount * Long.BYTES;
+            for (int asset = 0; asset < assetCount; asset++, index += Long.BYTES) {
+                slab.putLong(index, row[offset + asset]);
+            }
+        }
+
+        @Override
+        public BalanceRows copy(int months, int capacityMonths) {
+            Direct copy = new Direct(assetCount, BalanceSlabs.forLongs(assetCount * capacityMonths));
+            ByteBuffer rows = slab.duplicate();
+            rows.limit(base + months * assetCount * Long.BYTES).position(base);
+            ByteBuffer target = copy.slab.duplicate();
+            target.position(copy.base);
+            target.put(rows);
+            return copy;
+        }
+
+        @Override
+        public void free() {
+            slabs.free(handle);
+        }
+
+        /**
+         * Orders the reads before the generation is compared, as in
+         * {@link java.util.concurrent.locks.StampedLock#validate(long)}.
+         */
+        @Override
+        public boolean isValid() {
+            VarHandle.acquireFence();
+            return slabs.generationOf(handle) == generation;
+        }
+    }
+}
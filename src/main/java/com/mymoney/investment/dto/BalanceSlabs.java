@@ -0,0 +1,108 @@
+package com.mymoney.investment.dto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Off-heap records of one size, cut out of a few large direct buffers shared by every
+ * {@link BalanceRows.Direct} of that size. A record is handed out as an int handle and returned to
+ * a free list when its rows are freed, so a million portfolios cost a few slabs rather than a
+ * direct buffer and a cleaner each, and freed memory is reused right away instead of waiting for
+ * a collection. Slabs are never released.
+ *
+ * <p>Every record carries a generation that is bumped when it is freed. Readers that do not own
+ * the rows read first and compare the generation afterwards, like an optimistic read of a
+ * {@link java.util.concurrent.locks.StampedLock}, so they never trust rows that were freed and
+ * reused under them.
+ */
+final class BalanceSlabs {
+
+    private static final int SLAB_BYTES = 8 << 20;
+    /** Records hold a power of two of longs; the largest plan of the largest universe fits. */
+    private static final int MAX_RECORD_SIZE_BITS = 27;
+    private static final BalanceSlabs[] BY_SIZE_BITS = new BalanceSlabs[MAX_RECORD_SIZE_BITS + 1];
+
+    private final int recordLongs;
+    private final int recordBytes;
+    private final int recordsPerSlab;
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private volatile AtomicIntegerArray[] generations = new AtomicIntegerArray[0];
+    private int[] free = new int[64];
+    private int freeCount;
+    private int records;
+
+    private BalanceSlabs(int recordLongs) {
+        this.recordLongs = recordLongs;
+        this.recordBytes = recordLongs * Long.BYTES;
+        this.recordsPerSlab = Math.max(1, SLAB_BYTES / recordBytes);
+    }
+
+    /**
+     * @return the shared slabs of the smallest records that hold {@code longs} amounts
+     */
+    static BalanceSlabs forLongs(int longs) {
+        int sizeBits = 32 - Integer.numberOfLeadingZeros(Math.max(longs, 1) - 1);
+        if (sizeBits > MAX_RECORD_SIZE_BITS) {
+            throw new IllegalArgumentException("Rows of " + longs + " amounts do not fit in an off-heap record");
+        }
+        synchronized (BY_SIZE_BITS) {
+            if (BY_SIZE_BITS[sizeBits] == null) {
+                BY_SIZE_BITS[sizeBits] = new BalanceSlabs(1 << sizeBits);
+            }
+            return BY_SIZE_BITS[sizeBits];
+        }
+    }
+
+    int getRecordLongs() {
+        return recordLongs;
+    }
+
+    /**
+     * @return the handle of a record, recycled if one was freed; its contents are undefined
+     */
+    synchronized int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        int handle = records++;
+        if (handle / recordsPerSlab == slabs.length) {
+            int slabCount = slabs.length + 1;
+            ByteBuffer[] grownSlabs = Arrays.copyOf(slabs, slabCount);
+            grownSlabs[slabCount - 1] =
+                    ByteBuffer.allocateDirect(recordsPerSlab * recordBytes).order(ByteOrder.nativeOrder());
+            AtomicIntegerArray[] grownGenerations = Arrays.copyOf(generations, slabCount);
+            grownGenerations[slabCount - 1] = new AtomicIntegerArray(recordsPerSlab);
+            generations = grownGenerations;
+            slabs = grownSlabs;
+        }
+        return handle;
+    }
+
+    /**
+     * Returns the record for reuse and invalidates what readers read from it.
+     */
+    synchronized void free(int handle) {
+        generations[handle / recordsPerSlab].incrementAndGet(handle % recordsPerSlab);
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = handle;
+    }
+
+    ByteBuffer slabOf(int handle) {
+        return slabs[handle / recordsPerSlab];
+    }
+
+    /**
+     * @return the byte offset of the record in {@link #slabOf(int) its slab}
+     */
+    int offsetOf(int handle) {
+        return handle % recordsPerSlab * recordBytes;
+    }
+
+    int generationOf(int handle) {
+        return generations[handle / recordsPerSlab].get(handle % recordsPerSlab);
+    }
+}
@@ -0,0 +1,63 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.CommandWriter;
+import com.mymoney.investment.utils.Money;
+
+/**
+ * Immutable view of the months a {@link CompactPortfolio} had calculated when it was published.
+ * The rows of those months are never written again, so the view can be read without locking
+ * while the portfolio keeps rolling forward. Once the portfolio moves off the rows and frees them,
+ * reads of off-heap rows report that instead of a balance.
+ */
+public final class BalanceSnapshot {
+
+    private final BalanceRows rows;
+    private final int calculatedMonths;
+    private final int marketVersion;
+    private final Money money;
+
+    BalanceSnapshot(BalanceRows rows, int calculatedMonths, int marketVersion, Money money) {
+        this.rows = rows;
+        this.calculatedMonths = calculatedMonths;
+        this.marketVersion = marketVersion;
+        this.money = money;
+    }
+
+    public boolean isCalculated(int month) {
+        return month >= 0 && month < calculatedMonths;
+    }
+
+    public int getCalculatedMonths() {
+        return calculatedMonths;
+    }
+
+    /**
+     * @return the version of the shared market rates the balances were calculated with
+     */
+    public int getMarketVersion() {
+        return marketVersion;
+    }
+
+    /**
+     * @return the balance of the month, or null if the portfolio freed the rows meanwhile
+     */
+    public String toString(int month) {
+        String balance = CompactPortfolio.format(rows, month, money);
+        return rows.isValid() ? balance : null;
+    }
+
+    /**
+     * Appends the balance of the month, unless the portfolio freed the rows meanwhile.
+     *
+     * @return whether the balance was appended
+     */
+    public boolean write(int month, CommandWriter writer) {
+        long[] amounts = new long[rows.getAssetCount()];
+        rows.read(month, amounts, 0);
+        if (!rows.isValid()) {
+            return false;
+        }
+        CompactPortfolio.write(amounts, money, writer);
+        return true;
+    }
+}
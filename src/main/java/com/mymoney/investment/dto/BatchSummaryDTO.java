@@ -0,0 +1,45 @@
+package com.mymoney.investment.dto;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@Getter
+@RequiredArgsConstructor
+public class BatchSummaryDTO {
+    private final int files;
+    private final int failures;
+    private final long elapsedNanos;
+    private final long[] latencyNanos;
+
+    public double getFilesPerSecond() {
+        return elapsedNanos == 0 ? 0 : files * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * @return the per-file latency in milliseconds at the given percentile (0-100)
+     */
+    public double getLatencyPercentile(double percentile) {
+        if (latencyNanos.length == 0) {
+            return 0;
+        }
+        long[] sorted = latencyNanos.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000d;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "files=%d failures=%d elapsed=%.1fms files/sec=%.1f p50=%.2fms p99=%.2fms",
+                files,
+                failures,
+                elapsedNanos / 1_000_000d,
+                getFilesPerSecond(),
+                getLatencyPercentile(50),
+                getLatencyPercentile(99));
+    }
+}
@@ -0,0 +1,47 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.enums.SupportedOperations;
+import com.mymoney.investment.utils.Timeline;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single parsed command. Instances are reused from line to line, so the values array must be
+ * consumed (or copied) before the next command is parsed into it.
+ */
+@Getter
+@Setter
+public class CommandDTO {
+    private SupportedOperations operation;
+    private double[] values = new double[0];
+    private Month month;
+    /** 1-based year of the plan the month belongs to. */
+    private int year = Timeline.FIRST_YEAR;
+    /** Asset names of an ASSETS command. */
+    private List<String> assetNames = new ArrayList<>();
+    /** Rebalance policy of a POLICY command. */
+    private RebalancePolicy policy;
+
+    public int getMonthIndex() {
+        return Timeline.monthIndex(month, year);
+    }
+
+    public void setMonthIndex(int monthIndex) {
+        month = Timeline.monthOf(monthIndex);
+        year = Timeline.yearOf(monthIndex);
+    }
+
+    /**
+     * @return the values array resized to exactly {@code count} entries, reusing it when possible
+     */
+    public double[] valuesOfSize(int count) {
+        if (values.length != count) {
+            values = new double[count];
+        }
+        return values;
+    }
+}
@@ -0,0 +1,482 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.CommandWriter;
+import com.mymoney.investment.utils.Money;
+
+import java.util.BitSet;
+
+/**
+ * Month by month balances of a portfolio, stored as growable {@link BalanceRows} with a row of
+ * amounts per month, indexed by the position of the asset in the portfolio's asset order. Amounts
+ * are fixed-point {@link Money} units.
+ *
+ * <p>Rolling a month forward applies the SIP, market change and rebalance kernels in place to a
+ * working copy of the previous row, which stays in a {@code long[]} between steps, and writes the
+ * result as the new row, so no objects are created per month step whether the rows are on the
+ * heap or not. The kernels are exact integer arithmetic that floors to the unit after every step.
+ *
+ * <p>Rows handed out through {@link #publish(int)} are never written again: invalidating a
+ * published month moves the portfolio onto a private copy of its balances first. Rows the
+ * portfolio moved off are freed; readers of off-heap rows notice through
+ * {@link BalanceRows#isValid()}.
+ *
+ * <p>A {@link Listener} is told about every row that becomes calculated or is discarded, which is
+ * what keeps aggregates over many portfolios current without scanning them.
+ */
+public class CompactPortfolio {
+
+    /**
+     * Follows the calculated rows of a portfolio. Calls come from whichever thread owns the
+     * portfolio at the time; the row is only valid for the duration of the call.
+     */
+    public interface Listener {
+        Listener NONE = new Listener() {
+            @Override
+            public void rowCalculated(int month, long[] balances, int offset) {
+            }
+
+            @Override
+            public void rowDiscarded(int month, long[] balances, int offset) {
+            }
+
+            @Override
+            public void published(CompactPortfolio portfolio) {
+            }
+        };
+
+        void rowCalculated(int month, long[] balances, int offset);
+
+        void rowDiscarded(int month, long[] balances, int offset);
+
+        /**
+         * Called on {@link #publish(int)} when rows changed since the last publication.
+         */
+        void published(CompactPortfolio portfolio);
+    }
+
+    private final int assetCount;
+    private final Money money;
+    private BalanceRows rows;
+    /** Working copy of the row of {@link #rowMonth}, where the kernels run. */
+    private final long[] row;
+    private int rowMonth = -1;
+    private int calculatedMonths;
+    /** Number of leading {@link #rows} that published snapshots may read. */
+    private int publishedMonths;
+    private final BitSet reBalancedMonths;
+    private Listener listener = Listener.NONE;
+    private boolean changedSincePublished;
+    /** Incremented whenever a calculated row is discarded or rewritten. */
+    private int revision;
+
+    public CompactPortfolio(int assetCount, int capacityMonths) {
+        this(assetCount, capacityMonths, Money.DEFAULT);
+    }
+
+    public CompactPortfolio(int assetCount, int capacityMonths, Money money) {
+        this(BalanceRows.onHeap(assetCount, capacityMonths), money);
+    }
+
+    /**
+     * Starts a portfolio on empty rows, on the heap or off it.
+     */
+    public CompactPortfolio(BalanceRows rows, Money money) {
+        this(rows, 0, new BitSet(), money);
+    }
+
+    /**
+     * Restores a portfolio from the rows of its calculated months and the months among them that
+     * were rebalanced.
+     */
+    public CompactPortfolio(BalanceRows rows, int calculatedMonths, BitSet reBalancedMonths, Money money) {
+        this.assetCount = rows.getAssetCount();
+        this.money = money;
+        this.rows = rows;
+        this.row = new long[assetCount];
+        this.calculatedMonths = calculatedMonths;
+        this.reBalancedMonths = (BitSet) reBalancedMonths.clone();
+    }
+
+    /**
+     * Copies the balance of a calculated month into {@code into[offset, offset + assetCount)}.
+     */
+    public void readRow(int month, long[] into, int offset) {
+        rows.read(month, into, offset);
+    }
+
+    /**
+     * @return the working row holding the balance of the month, read from the rows if needed
+     */
+    private long[] row(int month) {
+        if (rowMonth != month) {
+            rows.read(month, row, 0);
+            rowMonth = month;
+        }
+        return row;
+    }
+
+    /**
+     * Replaces the listener. The previous one sees every calculated row discarded and the new one
+     * sees every calculated row added, so each holds exactly the rows it was told about.
+     */
+    public void setListener(Listener listener) {
+        Listener previous = this.listener;
+        for (int month = 0; month < calculatedMonths; month++) {
+            previous.rowDiscarded(month, row(month), 0);
+        }
+        this.listener = listener == null ? Listener.NONE : listener;
+        previous.published(this);
+        for (int month = 0; month < calculatedMonths; month++) {
+            this.listener.rowCalculated(month, row(month), 0);
+        }
+        this.listener.published(this);
+        changedSincePublished = false;
+    }
+
+    public boolean isListenedBy(Listener listener) {
+        return this.listener == listener;
+    }
+
+    public int getAssetCount() {
+        return assetCount;
+    }
+
+    public Money getMoney() {
+        return money;
+    }
+
+    public int getCalculatedMonths() {
+        return calculatedMonths;
+    }
+
+    /**
+     * @return a number that changes whenever a calculated row is discarded or rewritten, so a
+     * reader that follows the rows as they are appended knows when to start over
+     */
+    public int getRevision() {
+        return revision;
+    }
+
+    public int getCapacityMonths() {
+        return rows.getCapacityMonths();
+    }
+
+    public boolean isCalculated(int month) {
+        return month >= 0 && month < calculatedMonths;
+    }
+
+    /**
+     * Calculates the first month from the initial allocation. No SIP is invested in that month.
+     */
+    public void initialize(long[] allocation, double[] rates, int ratesOffset) {
+        invalidateFrom(0);
+        System.arraycopy(allocation, 0, row, 0, assetCount);
+        applyMarketChange(row, 0, rates, ratesOffset, assetCount);
+        rows.write(0, row, 0);
+        rowMonth = 0;
+        calculatedMonths = 1;
+        calculated(0);
+    }
+
+    /**
+     * Calculates the month after the last calculated one by carrying over its balance, investing
+     * the SIP and applying the market change.
+     *
+     * @param sip the monthly SIP, or null if none was started
+     */
+    public void rollForward(long[] sip, double[] rates, int ratesOffset) {
+        rollForward(sip, null, RebalancePolicy.DEFAULT, rates, ratesOffset);
+    }
+
+    /**
+     * Rolls forward like {@link #rollForward(long[], double[], int)}, letting the policy invest
+     * the SIP, then rebalances the new month to the desired weights if the policy asks for it.
+     *
+     * @return whether the month was rebalanced
+     */
+    public boolean rollForward(
+            long[] sip, long[] desiredWeights, RebalancePolicy policy, double[] rates, int ratesOffset) {
+        ensureCapacity(calculatedMonths + 1);
+        long[] amounts = row(calculatedMonths - 1);
+        rowMonth = -1;
+        if (sip != null) {
+            policy.investSip(amounts, 0, sip, desiredWeights, assetCount);
+        }
+        applyMarketChange(amounts, 0, rates, ratesOffset, assetCount);
+        int month = calculatedMonths++;
+        boolean reBalanced = desiredWeights != null
+                && policy.shouldReBalance(month, amounts, 0, desiredWeights, assetCount);
+        if (reBalanced) {
+            reBalance(amounts, 0, desiredWeights, assetCount);
+            reBalancedMonths.set(month);
+        }
+        rows.write(month, amounts, 0);
+        rowMonth = month;
+        calculated(month);
+        return reBalanced;
+    }
+
+    private void calculated(int month) {
+        listener.rowCalculated(month, row, 0);
+        changedSincePublished = true;
+    }
+
+    private void ensureCapacity(int months) {
+        if (months > rows.getCapacityMonths()) {
+            moveTo(rows.copy(calculatedMonths, Math.max(months, rows.getCapacityMonths() * 2)));
+        }
+    }
+
+    /**
+     * Discards the balances from the given month onward; they are calculated again on demand.
+     */
+    public void invalidateFrom(int month) {
+        int firstDiscarded = Math.max(month, 0);
+        if (firstDiscarded < calculatedMonths) {
+            revision++;
+        }
+        for (int discarded = calculatedMonths - 1; discarded >= firstDiscarded; discarded--) {
+            if (listener != Listener.NONE) {
+                listener.rowDiscarded(discarded, row(discarded), 0);
+            }
+            changedSincePublished = true;
+        }
+        calculatedMonths = Math.min(calculatedMonths, firstDiscarded);
+        reBalancedMonths.clear(calculatedMonths, Math.max(reBalancedMonths.length(), calculatedMonths));
+        if (calculatedMonths < publishedMonths) {
+            moveTo(rows.copy(calculatedMonths, rows.getCapacityMonths()));
+        }
+    }
+
+    private void moveTo(BalanceRows copy) {
+        BalanceRows previous = rows;
+        rows = copy;
+        publishedMonths = 0;
+        previous.free();
+    }
+
+    /**
+     * Frees the rows of a portfolio that is no longer used.
+     */
+    public void release() {
+        rows.free();
+    }
+
+    /**
+     * @return an immutable view of the months calculated so far
+     */
+    public BalanceSnapshot publish(int marketVersion) {
+        publishedMonths = Math.max(publishedMonths, calculatedMonths);
+        if (changedSincePublished) {
+            changedSincePublished = false;
+            listener.published(this);
+        }
+        return new BalanceSnapshot(rows, calculatedMonths, marketVersion, money);
+    }
+
+    /**
+     * @return the last calculated month that was rebalanced, or -1 if there is none
+     */
+    public int getLastReBalancedMonth() {
+        return reBalancedMonths.previousSetBit(calculatedMonths - 1);
+    }
+
+    /**
+     * @return a copy of the calculated months that were rebalanced
+     */
+    public BitSet getReBalancedMonths() {
+        return reBalancedMonths.get(0, Math.max(calculatedMonths, 0));
+    }
+
+    public long getTotalInvestment(int month) {
+        return rows.total(month);
+    }
+
+    public long getAmount(int month, int asset) {
+        return rows.get(month, asset);
+    }
+
+    /**
+     * @return the balance of the month in the MyMoney output format
+     */
+    public String toString(int month) {
+        return format(rows, month, money);
+    }
+
+    /**
+     * Appends the balance of the month in the MyMoney output format, without the line separator.
+     */
+    public void write(int month, CommandWriter writer) {
+        write(rows, month, money, writer);
+    }
+
+    static void write(BalanceRows rows, int month, Money money, CommandWriter writer) {
+        for (int asset = 0; asset < rows.getAssetCount(); asset++) {
+            if (asset > 0) {
+                writer.append(' ');
+            }
+            money.append(writer, rows.get(month, asset));
+        }
+    }
+
+    static void write(long[] amounts, Money money, CommandWriter writer) {
+        for (int asset = 0; asset < amounts.length; asset++) {
+            if (asset > 0) {
+                writer.append(' ');
+            }
+            money.append(writer, amounts[asset]);
+        }
+    }
+
+    static String format(BalanceRows rows, int month, Money money) {
+        StringBuilder builder = new StringBuilder(rows.getAssetCount() * 8);
+        for (int asset = 0; asset < rows.getAssetCount(); asset++) {
+            if (asset > 0) {
+                builder.append(' ');
+            }
+            money.append(builder, rows.get(month, asset));
+        }
+        return builder.toString();
+    }
+
+    static String format(long[] amounts, int offset, int assetCount, Money money) {
+        StringBuilder builder = new StringBuilder(assetCount * 8);
+        for (int asset = 0; asset < assetCount; asset++) {
+            if (asset > 0) {
+                builder.append(' ');
+            }
+            money.append(builder, amounts[offset + asset]);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return calculatedMonths == 0 ? "[]" : toString(calculatedMonths - 1);
+    }
+
+    public static void applySipInvestment(long[] amounts, int offset, long[] sip, int assetCount) {
+        for (int asset = 0; asset < assetCount; asset++) {
+            amounts[offset + asset] += sip[asset];
+        }
+    }
+
+    /**
+     * @param rates the rates of change in percent, applied exactly up to {@value Money#RATE_DECIMALS} decimals
+     */
+    public static void applyMarketChange(
+            long[] amounts, int offset, double[] rates, int ratesOffset, int assetCount) {
+        for (int asset = 0; asset < assetCount; asset++) {
+            amounts[offset + asset] = Money.applyRate(amounts[offset + asset], rates[ratesOffset + asset]);
+        }
+    }
+
+    /**
+     * Invests the SIP and applies the same rates {@code months} times in one jump. The month step
+     * {@code x -> (x + sip) g} is affine, so after {@code n} months the amount is the geometric
+     * series {@code g^n x + sip g (g^n - 1) / (g - 1)}, evaluated in doubles and floored once.
+     * Stepping month by month floors every month instead, so a jump over a non-zero rate comes out
+     * close to it but not equal; a zero rate jumps exactly. An amount the jump would take out of
+     * the long range is stepped instead, failing the way stepping does.
+     *
+     * @param sip the monthly SIP, or null if none was started
+     * @return whether the amounts are exactly what stepping month by month gives
+     */
+    public static boolean fastForward(
+            long[] amounts, int offset, long[] sip, double[] rates, int ratesOffset, int assetCount, int months) {
+        boolean exact = true;
+        for (int asset = 0; asset < assetCount; asset++) {
+            long sipAmount = sip == null ? 0 : sip[asset];
+            long rateUnits = Money.rateUnits(rates[ratesOffset + asset]);
+            if (rateUnits == 0) {
+                amounts[offset + asset] += sipAmount * months;
+                continue;
+            }
+            double growth = (double) (Money.RATE_ONE + rateUnits) / Money.RATE_ONE;
+            double compounded = Math.pow(growth, months);
+            double sipGrowth = (compounded - 1) / ((double) rateUnits / Money.RATE_ONE);
+            double jumped = Math.floor(compounded * amounts[offset + asset] + sipAmount * growth * sipGrowth);
+            if (jumped >= -0x1p63 && jumped < 0x1p63) {
+                amounts[offset + asset] = (long) jumped;
+                exact = false;
+                continue;
+            }
+            for (int month = 0; month < months; month++) {
+                amounts[offset + asset] =
+                        Money.applyRate(amounts[offset + asset] + sipAmount, rates[ratesOffset + asset]);
+            }
+        }
+        return exact;
+    }
+
+    /**
+     * Rolls the amounts of {@code month} forward to {@code targetMonth} with the same rates every
+     * month, investing the SIP and rebalancing as the policy says, without storing any row. With
+     * {@code fastForward} the months the {@link RebalancePolicy#fastForwardLimit(int) policy lets
+     * through} are {@link #fastForward jumped} up to the next month it checks; otherwise every
+     * month is stepped like {@link #rollForward}.
+     *
+     * @param sip the monthly SIP, or null if none was started
+     * @return whether the amounts are exactly what stepping month by month gives
+     */
+    public static boolean project(long[] amounts, int month, int targetMonth, long[] sip, long[] desiredWeights,
+                                  RebalancePolicy policy, double[] rates, boolean fastForward) {
+        int assetCount = desiredWeights.length;
+        boolean exact = true;
+        for (int from = month + 1; from <= targetMonth; ) {
+            int to = fastForward ? Math.min(Math.max(policy.fastForwardLimit(from), from), targetMonth) : from;
+            if (to > from) {
+                exact &= fastForward(amounts, 0, sip, rates, 0, assetCount, to - from + 1);
+            } else {
+                if (sip != null) {
+                    policy.investSip(amounts, 0, sip, desiredWeights, assetCount);
+                }
+                applyMarketChange(amounts, 0, rates, 0, assetCount);
+            }
+            if (policy.shouldReBalance(to, amounts, 0, desiredWeights, assetCount)) {
+                reBalance(amounts, 0, desiredWeights, assetCount);
+            }
+            from = to + 1;
+        }
+        return exact;
+    }
+
+
+    /**
+     * Splits the total across the assets in proportion to the desired weights, flooring each share.
+     * Weights that sum to zero leave the amounts as they are.
+     *
+     * @param desiredWeights relative weights of the assets, such as the amounts of the allocation
+     */
+    public static void reBalance(long[] amounts, int offset, long[] desiredWeights, int assetCount) {
+        long totalInvestment = totalInvestment(amounts, offset, assetCount);
+        long totalWeight = totalInvestment(desiredWeights, 0, assetCount);
+        if (totalWeight == 0) {
+            return;
+        }
+        for (int asset = 0; asset < assetCount; asset++) {
+            amounts[offset + asset] =
+                    Money.multiplyFloorDivide(totalInvestment, desiredWeights[asset], totalWeight);
+        }
+    }
+
+    public static long totalInvestment(long[] amounts, int offset, int assetCount) {
+        long total = 0;
+        for (int asset = 0; asset < assetCount; asset++) {
+            total += amounts[offset + asset];
+        }
+        return total;
+    }
+
+    /**
+     * @return the weight in percent of every amount within their total
+     */
+    public static double[] weightsOf(long[] amounts) {
+        double total = totalInvestment(amounts, 0, amounts.length);
+        double[] weights = new double[amounts.length];
+        for (int asset = 0; asset < amounts.length; asset++) {
+            weights[asset] = amounts[asset] * 100 / total;
+        }
+        return weights;
+    }
+}
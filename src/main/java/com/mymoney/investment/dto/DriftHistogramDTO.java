@@ -0,0 +1,38 @@
+package com.mymoney.investment.dto;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Number of portfolios per whole percentage point of drift from their desired weights, measured at
+ * the last calculated month of each portfolio as the largest drift over its assets.
+ */
+@Getter
+@RequiredArgsConstructor
+public class DriftHistogramDTO {
+    /** {@code counts[b]} portfolios drifted {@code [b, b + 1)} points; the last bucket is open-ended. */
+    private final long[] counts;
+
+    public long getPortfolios() {
+        long portfolios = 0;
+        for (long count : counts) {
+            portfolios += count;
+        }
+        return portfolios;
+    }
+
+    /**
+     * Lists the non-empty buckets, one per line, as {@code <from>% <count>}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("DRIFT PORTFOLIOS");
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            if (counts[bucket] > 0) {
+                builder.append(System.lineSeparator()).append(bucket)
+                        .append(bucket == counts.length - 1 ? "%+ " : "% ").append(counts[bucket]);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,185 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Money;
+
+import java.util.Arrays;
+
+/**
+ * Amounts of many portfolios that step through the same month together, stored as one
+ * {@code long[]} column of {@link Money} units per asset with a slot per portfolio.
+ *
+ * <p>The kernels loop over a column at a time with no dependency between slots. They round exactly
+ * like the per-portfolio kernels of {@link CompactPortfolio}: every step is floored to the unit, so
+ * a portfolio ends with the same amounts whichever layout it was calculated in.
+ */
+public class PortfolioColumns {
+
+    private final int assetCount;
+    private final int capacity;
+    private final long[][] amounts;
+    private final long[] totals;
+
+    public PortfolioColumns(int assetCount, int capacity) {
+        this.assetCount = assetCount;
+        this.capacity = capacity;
+        this.amounts = new long[assetCount][capacity];
+        this.totals = new long[capacity];
+    }
+
+    public int getAssetCount() {
+        return assetCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the column of the asset, with a slot per portfolio
+     */
+    public long[] getAmounts(int asset) {
+        return amounts[asset];
+    }
+
+    /**
+     * @return the totals computed by the last {@link #totalInvestment(int)} or rebalance
+     */
+    public long[] getTotals() {
+        return totals;
+    }
+
+    /**
+     * Sets the amounts of the first {@code portfolios} slots to the same allocation.
+     */
+    public void fill(long[] allocation, int portfolios) {
+        for (int asset = 0; asset < assetCount; asset++) {
+            Arrays.fill(amounts[asset], 0, portfolios, allocation[asset]);
+        }
+    }
+
+    /**
+     * Copies the amounts of a month of a portfolio into a slot.
+     */
+    public void load(int portfolio, CompactPortfolio source, int month) {
+        for (int asset = 0; asset < assetCount; asset++) {
+            amounts[asset][portfolio] = source.getAmount(month, asset);
+        }
+    }
+
+    public void applySipInvestment(long[] sip, int portfolios) {
+        for (int asset = 0; asset < assetCount; asset++) {
+            long[] column = amounts[asset];
+            long investment = sip[asset];
+            for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+                column[portfolio] += investment;
+            }
+        }
+    }
+
+    /**
+     * @param rates a column of rates in percent per asset, with a slot per portfolio
+     */
+    public void applyMarketChange(double[][] rates, int portfolios) {
+        for (int asset = 0; asset < assetCount; asset++) {
+            long[] column = amounts[asset];
+            double[] rateColumn = rates[asset];
+            for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+                column[portfolio] = Money.applyRate(column[portfolio], rateColumn[portfolio]);
+            }
+        }
+    }
+
+    /**
+     * Rebalances every portfolio to the same desired weights.
+     */
+    public void reBalance(long[] desiredWeights, int portfolios) {
+        totalInvestment(portfolios);
+        long totalWeight = CompactPortfolio.totalInvestment(desiredWeights, 0, assetCount);
+        if (totalWeight == 0) {
+            return;
+        }
+        for (int asset = 0; asset < assetCount; asset++) {
+            long[] column = amounts[asset];
+            long weight = desiredWeights[asset];
+            for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+                column[portfolio] = Money.multiplyFloorDivide(totals[portfolio], weight, totalWeight);
+            }
+        }
+    }
+
+    /**
+     * Rebalances every portfolio to its own desired weights.
+     *
+     * @param desiredWeights a column of relative weights per asset, with a slot per portfolio
+     */
+    public void reBalance(long[][] desiredWeights, int portfolios) {
+        totalInvestment(portfolios);
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            long totalWeight = 0;
+            for (int asset = 0; asset < assetCount; asset++) {
+                totalWeight += desiredWeights[asset][portfolio];
+            }
+            if (totalWeight == 0) {
+                continue;
+            }
+            for (int asset = 0; asset < assetCount; asset++) {
+                amounts[asset][portfolio] =
+                        Money.multiplyFloorDivide(totals[portfolio], desiredWeights[asset][portfolio], totalWeight);
+            }
+        }
+    }
+
+    /**
+     * Invests the SIP of every portfolio the way the policy does, one row at a time.
+     *
+     * @param row scratch row of {@code assetCount} amounts
+     */
+    public void investSip(RebalancePolicy policy, long[] sip, long[] desiredWeights, int portfolios, long[] row) {
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            readRow(portfolio, row);
+            policy.investSip(row, 0, sip, desiredWeights, assetCount);
+            writeRow(portfolio, row);
+        }
+    }
+
+    /**
+     * Rebalances the portfolios the policy picks for the month, one row at a time.
+     *
+     * @param row scratch row of {@code assetCount} amounts
+     */
+    public void reBalance(RebalancePolicy policy, int month, long[] desiredWeights, int portfolios, long[] row) {
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            readRow(portfolio, row);
+            if (policy.shouldReBalance(month, row, 0, desiredWeights, assetCount)) {
+                CompactPortfolio.reBalance(row, 0, desiredWeights, assetCount);
+                writeRow(portfolio, row);
+            }
+        }
+    }
+
+    private void readRow(int portfolio, long[] row) {
+        for (int asset = 0; asset < assetCount; asset++) {
+            row[asset] = amounts[asset][portfolio];
+        }
+    }
+
+    private void writeRow(int portfolio, long[] row) {
+        for (int asset = 0; asset < assetCount; asset++) {
+            amounts[asset][portfolio] = row[asset];
+        }
+    }
+
+    /**
+     * Sums the amounts of every portfolio into {@link #getTotals()}.
+     */
+    public long[] totalInvestment(int portfolios) {
+        Arrays.fill(totals, 0, portfolios, 0);
+        for (int asset = 0; asset < assetCount; asset++) {
+            long[] column = amounts[asset];
+            for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+                totals[portfolio] += column[portfolio];
+            }
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,26 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Timeline;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Growth of a portfolio at its last calculated month, over everything invested up to that month.
+ */
+@Getter
+@RequiredArgsConstructor
+public class PortfolioGrowthDTO {
+    private final String portfolioId;
+    private final int month;
+    /** Total balance in rupees. */
+    private final double total;
+    /** Initial allocation plus every SIP invested up to the month, in rupees. */
+    private final double invested;
+    private final double growthPercent;
+
+    @Override
+    public String toString() {
+        return portfolioId + " " + Timeline.describe(month) + " " + (long) Math.floor(total)
+                + " " + String.format("%.2f%%", growthPercent);
+    }
+}
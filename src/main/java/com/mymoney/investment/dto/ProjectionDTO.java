@@ -0,0 +1,28 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Money;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Balance of a portfolio projected to a month past its rates of change. Amounts are in
+ * {@link Money} units, in the order of the portfolio's assets.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ProjectionDTO {
+    private final Money money;
+    private final int month;
+    private final long[] amounts;
+    /** False when months were jumped with a single rounding, instead of one every month. */
+    private final boolean exact;
+
+    /**
+     * @return the balance in the MyMoney output format, followed by APPROXIMATE unless it is exact
+     */
+    @Override
+    public String toString() {
+        String balance = CompactPortfolio.format(amounts, 0, amounts.length, money);
+        return exact ? balance : balance + " APPROXIMATE";
+    }
+}
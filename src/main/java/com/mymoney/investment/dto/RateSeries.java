@@ -0,0 +1,64 @@
+package com.mymoney.investment.dto;
+
+import java.util.Arrays;
+
+/**
+ * Monthly rates of change in percent, keyed by a dense month index and stored as one growable
+ * {@code double[]} with a row of rates per month.
+ */
+public class RateSeries {
+
+    private static final int INITIAL_CAPACITY_MONTHS = 12;
+
+    private final int assetCount;
+    private double[] rates;
+    private boolean[] known;
+    private int lastKnownMonth = -1;
+
+    public RateSeries(int assetCount) {
+        this.assetCount = assetCount;
+        this.rates = new double[assetCount * INITIAL_CAPACITY_MONTHS];
+        this.known = new boolean[INITIAL_CAPACITY_MONTHS];
+    }
+
+    public int getAssetCount() {
+        return assetCount;
+    }
+
+    public boolean isKnown(int month) {
+        return month >= 0 && month < known.length && known[month];
+    }
+
+    /**
+     * @return the latest month with registered rates, or -1 if there is none
+     */
+    public int getLastKnownMonth() {
+        return lastKnownMonth;
+    }
+
+    public void put(int month, double[] monthlyRates) {
+        ensureCapacity(month + 1);
+        System.arraycopy(monthlyRates, 0, rates, offsetOf(month), assetCount);
+        known[month] = true;
+        lastKnownMonth = Math.max(lastKnownMonth, month);
+    }
+
+    /**
+     * @return the backing array; the rates of a month start at {@link #offsetOf(int)}
+     */
+    public double[] getRates() {
+        return rates;
+    }
+
+    public int offsetOf(int month) {
+        return month * assetCount;
+    }
+
+    private void ensureCapacity(int months) {
+        if (months > known.length) {
+            int capacity = Math.max(months, known.length * 2);
+            rates = Arrays.copyOf(rates, capacity * assetCount);
+            known = Arrays.copyOf(known, capacity);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
+
+import java.util.InputMismatchException;
+import java.util.Locale;
+
+/**
+ * Decides how a portfolio returns to its desired weights. Every month the policy invests the SIP
+ * into the month's row of amounts and, once the market change is applied, tells whether the row is
+ * rebalanced to the desired weights.
+ *
+ * <p>Policies are immutable and shared. Their kernels work in place on a row of a balances array,
+ * like the kernels of {@link CompactPortfolio}, and never allocate. Desired weights are relative
+ * {@link Money} amounts, the amounts of the initial allocation, so the money a policy moves is
+ * split exactly.
+ */
+public interface RebalancePolicy {
+
+    /** Rebalances on JUNE and DECEMBER, as the plan always did. */
+    RebalancePolicy DEFAULT = calendar(Timeline.REBALANCE_PERIOD_MONTHS);
+
+    /**
+     * Invests the monthly SIP into {@code amounts[offset, offset + assetCount)}.
+     */
+    default void investSip(long[] amounts, int offset, long[] sip, long[] desiredWeights, int assetCount) {
+        CompactPortfolio.applySipInvestment(amounts, offset, sip, assetCount);
+    }
+
+    /**
+     * @param month the dense month index of the row, never the first month of the plan
+     * @return whether the row, after the market change, is rebalanced to the desired weights
+     */
+    boolean shouldReBalance(int month, long[] amounts, int offset, long[] desiredWeights, int assetCount);
+
+    /**
+     * @return the last month, from {@code month} on, up to which the SIP goes in as given and no
+     * earlier month is rebalanced whatever the amounts, so those months may be calculated in one
+     * jump; {@code month} itself when the policy has to see every month
+     */
+    default int fastForwardLimit(int month) {
+        return month;
+    }
+
+    /**
+     * @return whether the SIP or the rebalance decision depend on the amounts of the row; when they
+     * do not, rows stepping through a month together all invest and rebalance alike
+     */
+    default boolean dependsOnAmounts() {
+        return true;
+    }
+
+    /**
+     * Rebalances every {@code periodMonths}, on the last month of each period.
+     */
+    static RebalancePolicy calendar(int periodMonths) {
+        if (periodMonths < 1) {
+            throw new InputMismatchException("The rebalance period must be at least one month");
+        }
+        return new Calendar(periodMonths);
+    }
+
+    /**
+     * Rebalances in any month where the weight of an asset is more than {@code thresholdPercent}
+     * points away from its desired weight.
+     */
+    static RebalancePolicy driftBand(double thresholdPercent) {
+        if (!(thresholdPercent >= 0) || thresholdPercent > 100) {
+            throw new InputMismatchException("The drift threshold must be between 0 and 100 percent");
+        }
+        return new DriftBand(thresholdPercent);
+    }
+
+    /**
+     * Never sells: the SIP is steered toward the assets that are below their desired weight.
+     */
+    static RebalancePolicy cashFlow() {
+        return CashFlow.INSTANCE;
+    }
+
+    /**
+     * Parses the text form of a policy, {@code CALENDAR <months>}, {@code DRIFT <percent>} or
+     * {@code CASHFLOW}, which is also what {@link Object#toString()} returns.
+     */
+    static RebalancePolicy parse(String text) {
+        String[] tokens = text.trim().toUpperCase(Locale.ROOT).split("\\s+");
+        try {
+            switch (tokens[0]) {
+                case Calendar.NAME:
+                    if (tokens.length == 2) {
+                        return calendar(Integer.parseInt(tokens[1]));
+                    }
+                    break;
+                case DriftBand.NAME:
+                    if (tokens.length == 2) {
+                        return driftBand(Double.parseDouble(tokens[1].endsWith("%")
+                                ? tokens[1].substring(0, tokens[1].length() - 1)
+                                : tokens[1]));
+                    }
+                    break;
+                case CashFlow.NAME:
+                    if (tokens.length == 1) {
+                        return cashFlow();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below with the rest of the malformed policies.
+        }
+        throw new InputMismatchException(
+                "Unknown rebalance policy " + text + ", expected CALENDAR <months>, DRIFT <percent> or CASHFLOW");
+    }
+
+    final class Calendar implements RebalancePolicy {
+        static final String NAME = "CALENDAR";
+
+        private final int periodMonths;
+
+        private Calendar(int periodMonths) {
+            this.periodMonths = periodMonths;
+        }
+
+        @Override
+        public boolean shouldReBalance(
+                int month, long[] amounts, int offset, long[] desiredWeights, int assetCount) {
+            return (month + 1) % periodMonths == 0;
+        }
+
+        @Override
+        public int fastForwardLimit(int month) {
+            return month + periodMonths - 1 - month % periodMonths;
+        }
+
+        @Override
+        public boolean dependsOnAmounts() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Calendar && ((Calendar) other).periodMonths == periodMonths;
+        }
+
+        @Override
+        public int hashCode() {
+            return periodMonths;
+        }
+
+        @Override
+        public String toString() {
+            return NAME + " " + periodMonths;
+        }
+    }
+
+    final class DriftBand implements RebalancePolicy {
+        static final String NAME = "DRIFT";
+
+        private final double thresholdPercent;
+
+        private DriftBand(double thresholdPercent) {
+            this.thresholdPercent = thresholdPercent;
+        }
+
+        /**
+         * Compares {@code amount * totalWeight * 100} against {@code (weight ± threshold) * total},
+         * so the check is one pass with no division. The comparison decides, it moves no money, so
+         * it is done in doubles. The totals are summed again every month rather than kept: policies
+         * are shared and hold no portfolio state, and the sum reads the row the check reads anyway.
+         */
+        @Override
+        public boolean shouldReBalance(
+                int month, long[] amounts, int offset, long[] desiredWeights, int assetCount) {
+            double total = CompactPortfolio.totalInvestment(amounts, offset, assetCount);
+            double totalWeight = CompactPortfolio.totalInvestment(desiredWeights, 0, assetCount);
+            double band = thresholdPercent * total * totalWeight;
+            for (int asset = 0; asset < assetCount; asset++) {
+                if (Math.abs((double) amounts[offset + asset] * totalWeight - (double) desiredWeights[asset] * total)
+                        * 100 > band) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof DriftBand
+                    && Double.compare(((DriftBand) other).thresholdPercent, thresholdPercent) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.hashCode(thresholdPercent);
+        }
+
+        @Override
+        public String toString() {
+            return NAME + " " + (thresholdPercent == Math.rint(thresholdPercent)
+                    ? String.valueOf((long) thresholdPercent)
+                    : String.valueOf(thresholdPercent));
+        }
+    }
+
+    final class CashFlow implements RebalancePolicy {
+        static final String NAME = "CASHFLOW";
+        static final CashFlow INSTANCE = new CashFlow();
+
+        private CashFlow() {
+        }
+
+        /**
+         * Splits the total SIP across the assets in proportion to how far each is below its desired
+         * amount once the SIP is in. Shares are floored like every other step, and whatever the
+         * flooring leaves goes to the most underweight asset, so no money is lost. When no asset is
+         * below target the SIP is invested as given.
+         */
+        @Override
+        public void investSip(long[] amounts, int offset, long[] sip, long[] desiredWeights, int assetCount) {
+            long sipTotal = CompactPortfolio.totalInvestment(sip, 0, assetCount);
+            long targetTotal = CompactPortfolio.totalInvestment(amounts, offset, assetCount) + sipTotal;
+            long totalWeight = CompactPortfolio.totalInvestment(desiredWeights, 0, assetCount);
+            if (totalWeight == 0 || sipTotal <= 0) {
+                CompactPortfolio.applySipInvestment(amounts, offset, sip, assetCount);
+                return;
+            }
+            long deficitTotal = 0;
+            for (int asset = 0; asset < assetCount; asset++) {
+                deficitTotal += deficit(amounts[offset + asset], desiredWeights[asset], totalWeight, targetTotal);
+            }
+            if (deficitTotal <= 0) {
+                CompactPortfolio.applySipInvestment(amounts, offset, sip, assetCount);
+                return;
+            }
+            long invested = 0;
+            long largestDeficit = -1;
+            int mostUnderweight = 0;
+            for (int asset = 0; asset < assetCount; asset++) {
+                long deficit = deficit(amounts[offset + asset], desiredWeights[asset], totalWeight, targetTotal);
+                if (deficit > largestDeficit) {
+                    largestDeficit = deficit;
+                    mostUnderweight = asset;
+                }
+                long share = Money.multiplyFloorDivide(sipTotal, deficit, deficitTotal);
+                amounts[offset + asset] += share;
+                invested += share;
+            }
+            amounts[offset + mostUnderweight] += sipTotal - invested;
+        }
+
+        private static long deficit(long amount, long desiredWeight, long totalWeight, long targetTotal) {
+            return Math.max(0, Money.multiplyFloorDivide(targetTotal, desiredWeight, totalWeight) - amount);
+        }
+
+        @Override
+        public boolean shouldReBalance(
+                int month, long[] amounts, int offset, long[] desiredWeights, int assetCount) {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return NAME;
+        }
+    }
+}
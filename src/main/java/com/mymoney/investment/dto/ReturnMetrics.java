@@ -0,0 +1,207 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
+
+/**
+ * Return and risk metrics of a {@link CompactPortfolio}, accumulated one calculated month at a
+ * time in constant space: every month updates the time-weighted growth, its running peak and
+ * deepest drawdown, Welford's mean and variance of the monthly returns and the market gain of each
+ * asset. Nothing is recomputed from the history, and the money-weighted return is solved from the
+ * totals invested, since the allocation and the SIP are the only cash flows of a plan.
+ *
+ * <p>The metrics follow one portfolio and one revision of its rows. Once a calculated row is
+ * discarded they no longer {@link #follows(CompactPortfolio) follow} it and are started over.
+ */
+public final class ReturnMetrics {
+
+    private static final int SOLVER_ITERATIONS = 100;
+    private static final double SOLVER_TOLERANCE = 1e-12;
+
+    private final CompactPortfolio portfolio;
+    private final int revision;
+    private final long[] contributions;
+    private final long[] scratch;
+    private int months;
+    private long total;
+    private long allocationTotal;
+    private long sipTotal;
+    private double growthIndex = 1;
+    private double peakIndex = 1;
+    private double maxDrawdown;
+    private double meanReturn;
+    private double squaredDeviations;
+
+    public ReturnMetrics(CompactPortfolio portfolio) {
+        this.portfolio = portfolio;
+        this.revision = portfolio.getRevision();
+        this.contributions = new long[portfolio.getAssetCount()];
+        this.scratch = new long[portfolio.getAssetCount()];
+    }
+
+    /**
+     * @return whether the metrics were accumulated from the current rows of the portfolio
+     */
+    public boolean follows(CompactPortfolio portfolio) {
+        return this.portfolio == portfolio && revision == portfolio.getRevision();
+    }
+
+    /**
+     * @return the number of months accumulated, which is also the next month to accept
+     */
+    public int getMonths() {
+        return months;
+    }
+
+    /**
+     * Accumulates the next calculated month of the portfolio. The market gain of each asset is
+     * replayed from the previous row with the kernels the month was calculated with, so it is the
+     * exact amount the rates added before any rebalance.
+     *
+     * @param sip the monthly SIP, or null if none was started
+     * @param rates the rates of change the month was calculated with
+     */
+    public void accept(long[] allocation, long[] sip, long[] desiredWeights, RebalancePolicy policy,
+                       double[] rates, int ratesOffset) {
+        int month = months;
+        if (!portfolio.isCalculated(month)) {
+            throw new IllegalStateException(
+                    "The balance of " + Timeline.describe(month) + " is not calculated yet");
+        }
+        int assetCount = scratch.length;
+        long cashFlow;
+        if (month == 0) {
+            System.arraycopy(allocation, 0, scratch, 0, assetCount);
+            cashFlow = CompactPortfolio.totalInvestment(allocation, 0, assetCount);
+            allocationTotal = cashFlow;
+        } else {
+            portfolio.readRow(month - 1, scratch, 0);
+            long before = CompactPortfolio.totalInvestment(scratch, 0, assetCount);
+            if (sip != null) {
+                policy.investSip(scratch, 0, sip, desiredWeights, assetCount);
+            }
+            cashFlow = CompactPortfolio.totalInvestment(scratch, 0, assetCount) - before;
+            sipTotal = cashFlow;
+        }
+        for (int asset = 0; asset < assetCount; asset++) {
+            long amount = scratch[asset];
+            contributions[asset] += Money.applyRate(amount, rates[ratesOffset + asset]) - amount;
+        }
+
+        long invested = total + cashFlow;
+        total = portfolio.getTotalInvestment(month);
+        double monthlyReturn = invested == 0 ? 0 : (double) total / invested - 1;
+        growthIndex *= 1 + monthlyReturn;
+        peakIndex = Math.max(peakIndex, growthIndex);
+        maxDrawdown = Math.max(maxDrawdown, 1 - growthIndex / peakIndex);
+        months++;
+        double deviation = monthlyReturn - meanReturn;
+        meanReturn += deviation / months;
+        squaredDeviations += deviation * (monthlyReturn - meanReturn);
+    }
+
+    /**
+     * @return the total balance of the last accumulated month, in units
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the allocation plus every SIP invested up to the last accumulated month, in units
+     */
+    public long getInvested() {
+        return months == 0 ? 0 : allocationTotal + sipTotal * (months - 1);
+    }
+
+    /**
+     * @return the growth of the portfolio with the cash flows taken out, in percent
+     */
+    public double getTimeWeightedReturnPercent() {
+        return (growthIndex - 1) * 100;
+    }
+
+    /**
+     * @return the largest fall of the time-weighted growth from a previous peak, in percent
+     */
+    public double getMaxDrawdownPercent() {
+        return maxDrawdown * 100;
+    }
+
+    /**
+     * @return the standard deviation of the monthly returns annualized by {@code sqrt(12)}, in
+     * percent, or NaN with fewer than two months
+     */
+    public double getVolatilityPercent() {
+        return months < 2
+                ? Double.NaN
+                : Math.sqrt(squaredDeviations / (months - 1) * Timeline.MONTHS_PER_YEAR) * 100;
+    }
+
+    /**
+     * @return the amount the rates of change added to the asset over the accumulated months, in
+     * units
+     */
+    public long getContribution(int asset) {
+        return contributions[asset];
+    }
+
+    /**
+     * Solves the annual rate at which the allocation, invested at the start of the first month, and
+     * the SIP, invested at the start of every later month, grow to the last total:
+     * {@code A x^n + S (x^(n-1) + ... + x) = V} for the monthly growth {@code x}. Newton steps are
+     * kept inside a bracket of the root and replaced by bisection when they leave it; the
+     * polynomial and its derivative are evaluated by Horner's rule, so nothing is allocated.
+     *
+     * @return the annualized money-weighted return in percent, or NaN when nothing was invested
+     * or nothing is left
+     */
+    public double getXirrPercent() {
+        if (months == 0 || total <= 0 || getInvested() <= 0) {
+            return Double.NaN;
+        }
+        double low = 0;
+        double high = 2;
+        while (futureValue(high) < total) {
+            low = high;
+            high *= 2;
+            if (Double.isInfinite(high)) {
+                return Double.NaN;
+            }
+        }
+        double growth = Math.max(1, low);
+        for (int iteration = 0; iteration < SOLVER_ITERATIONS; iteration++) {
+            double value = 0;
+            double slope = 0;
+            for (int power = months; power >= 1; power--) {
+                slope = slope * growth + value;
+                value = value * growth + (power == months ? allocationTotal : sipTotal);
+            }
+            slope = slope * growth + value;
+            value = value * growth - total;
+            if (value > 0) {
+                high = growth;
+            } else {
+                low = growth;
+            }
+            double next = growth - value / slope;
+            if (!(next > low && next < high)) {
+                next = (low + high) / 2;
+            }
+            if (Math.abs(next - growth) < SOLVER_TOLERANCE) {
+                growth = next;
+                break;
+            }
+            growth = next;
+        }
+        return (Math.pow(growth, Timeline.MONTHS_PER_YEAR) - 1) * 100;
+    }
+
+    private double futureValue(double growth) {
+        double value = 0;
+        for (int power = months; power >= 1; power--) {
+            value = value * growth + (power == months ? allocationTotal : sipTotal);
+        }
+        return value * growth;
+    }
+}
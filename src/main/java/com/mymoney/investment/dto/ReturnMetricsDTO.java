@@ -0,0 +1,62 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Locale;
+
+/**
+ * Return and risk metrics of a portfolio up to its last calculated month. Rates are in percent and
+ * amounts in {@link Money} units.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ReturnMetricsDTO {
+    private final AssetUniverse assetUniverse;
+    private final Money money;
+    /** Last month the metrics cover. */
+    private final int month;
+    private final long total;
+    private final long invested;
+    /** Annualized money-weighted return. */
+    private final double xirrPercent;
+    private final double timeWeightedReturnPercent;
+    /** Annualized standard deviation of the monthly returns. */
+    private final double volatilityPercent;
+    private final double maxDrawdownPercent;
+    /** Amount the rates of change added to each asset, in the order of the universe. */
+    private final long[] contributions;
+
+    public static ReturnMetricsDTO of(ReturnMetrics metrics, AssetUniverse assetUniverse, Money money) {
+        long[] contributions = new long[assetUniverse.size()];
+        for (int asset = 0; asset < contributions.length; asset++) {
+            contributions[asset] = metrics.getContribution(asset);
+        }
+        return new ReturnMetricsDTO(assetUniverse, money, metrics.getMonths() - 1, metrics.getTotal(),
+                metrics.getInvested(), metrics.getXirrPercent(), metrics.getTimeWeightedReturnPercent(),
+                metrics.getVolatilityPercent(), metrics.getMaxDrawdownPercent(), contributions);
+    }
+
+    @Override
+    public String toString() {
+        String lineSeparator = System.lineSeparator();
+        StringBuilder builder = new StringBuilder("MONTH ").append(Timeline.describe(month));
+        money.append(builder.append(lineSeparator).append("TOTAL "), total);
+        money.append(builder.append(lineSeparator).append("INVESTED "), invested);
+        builder.append(lineSeparator).append("XIRR ").append(percent(xirrPercent));
+        builder.append(lineSeparator).append("TWR ").append(percent(timeWeightedReturnPercent));
+        builder.append(lineSeparator).append("VOLATILITY ").append(percent(volatilityPercent));
+        builder.append(lineSeparator).append("MAX_DRAWDOWN ").append(percent(maxDrawdownPercent));
+        builder.append(lineSeparator).append("CONTRIBUTION");
+        for (int asset = 0; asset < contributions.length; asset++) {
+            money.append(builder.append(' ').append(assetUniverse.nameOf(asset)).append(' '), contributions[asset]);
+        }
+        return builder.toString();
+    }
+
+    private static String percent(double value) {
+        return Double.isNaN(value) ? "NA" : String.format(Locale.ROOT, "%.2f%%", value);
+    }
+}
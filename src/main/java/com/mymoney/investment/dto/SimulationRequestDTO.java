@@ -0,0 +1,23 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.enums.RateDistribution;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Parameters of a Monte Carlo projection. Means and standard deviations are monthly, in percent,
+ * and follow the asset order of the portfolio.
+ */
+@Getter
+@Setter
+public class SimulationRequestDTO {
+    private int paths = 10_000;
+    private int months = 120;
+    private long seed = 42;
+    private RateDistribution distribution = RateDistribution.NORMAL;
+    private double[] meanRates;
+    private double[] rateDeviations;
+    /** Correlation matrix of the assets' rates; null when the assets move independently. */
+    private double[][] correlation;
+    private double[] percentiles = {5, 50, 95};
+}
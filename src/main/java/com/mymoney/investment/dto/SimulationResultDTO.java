@@ -0,0 +1,40 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Timeline;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Distribution of the simulated total balance per month.
+ */
+@Getter
+@RequiredArgsConstructor
+public class SimulationResultDTO {
+    private final int paths;
+    private final double[] percentiles;
+    /** Total balance per percentile and month: {@code balances[percentile][month]}. */
+    private final double[][] balances;
+    /** Mean total balance per month. */
+    private final double[] meanBalances;
+    private final long elapsedNanos;
+
+    public double getBalance(int percentileIndex, int month) {
+        return balances[percentileIndex][month];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MONTH MEAN");
+        for (double percentile : percentiles) {
+            builder.append(" P").append(percentile % 1 == 0 ? Long.toString((long) percentile) : Double.toString(percentile));
+        }
+        for (int month = 0; month < meanBalances.length; month++) {
+            builder.append(System.lineSeparator()).append(Timeline.describe(month));
+            builder.append(' ').append((long) Math.floor(meanBalances[month]));
+            for (double[] balance : balances) {
+                builder.append(' ').append((long) Math.floor(balance[month]));
+            }
+        }
+        return builder.toString();
+    }
+}
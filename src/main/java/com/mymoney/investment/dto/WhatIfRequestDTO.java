@@ -0,0 +1,20 @@
+package com.mymoney.investment.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Variants of allocation and SIP evaluated against one rate history. Rates are monthly, in
+ * percent, and every row follows the asset order of the allocations.
+ */
+@Getter
+@Setter
+public class WhatIfRequestDTO {
+    /** Rates of change per month, from the first month of the plan: {@code rates[month][asset]}. */
+    private double[][] rates;
+    /** Initial allocation per variant: {@code allocations[variant][asset]}. */
+    private double[][] allocations;
+    /** Monthly SIP per variant; null when no variant invests a SIP, or a null row for a single one. */
+    private double[][] sips;
+    private RebalancePolicy policy = RebalancePolicy.DEFAULT;
+}
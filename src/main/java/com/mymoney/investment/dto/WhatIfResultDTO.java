@@ -0,0 +1,60 @@
+package com.mymoney.investment.dto;
+
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Balance trajectories of the variants of a {@link WhatIfRequestDTO}, kept in flat primitive
+ * arrays so that tens of thousands of variants cost a few allocations.
+ */
+@Getter
+@RequiredArgsConstructor
+public class WhatIfResultDTO {
+    private final int variants;
+    private final int months;
+    private final int assetCount;
+    private final Money money;
+    /** Total balance in units per variant and month, at {@code variant * months + month}. */
+    private final long[] totals;
+    /** Amounts in units of the last month per variant and asset, at {@code variant * assetCount + asset}. */
+    private final long[] finalAmounts;
+    /** Number of months each variant was rebalanced. */
+    private final int[] reBalanceCounts;
+    private final long elapsedNanos;
+
+    public double getTotal(int variant, int month) {
+        return money.toRupees(totals[variant * months + month]);
+    }
+
+    public double getFinalAmount(int variant, int asset) {
+        return money.toRupees(finalAmounts[variant * assetCount + asset]);
+    }
+
+    /**
+     * @return the variant with the largest total balance in the last month
+     */
+    public int getBestVariant() {
+        int best = 0;
+        for (int variant = 1; variant < variants; variant++) {
+            if (totals[variant * months + months - 1] > totals[best * months + months - 1]) {
+                best = variant;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("BALANCE OF ").append(Timeline.describe(months - 1))
+                .append(System.lineSeparator()).append("VARIANT TOTAL AMOUNTS REBALANCES");
+        for (int variant = 0; variant < variants; variant++) {
+            builder.append(System.lineSeparator()).append(variant).append(' ');
+            money.append(builder, totals[variant * months + months - 1])
+                    .append(' ').append(CompactPortfolio.format(finalAmounts, variant * assetCount, assetCount, money))
+                    .append(' ').append(reBalanceCounts[variant]);
+        }
+        return builder.toString();
+    }
+}
@@ -1,7 +0,0 @@
-package com.mymoney.investment.enums;
-
-public enum Assets {
-    EQUITY,
-    DEBT,
-    GOLD
-}
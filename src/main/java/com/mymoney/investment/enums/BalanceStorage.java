@@ -0,0 +1,28 @@
+package com.mymoney.investment.enums;
+
+import com.mymoney.investment.dto.BalanceRows;
+
+/**
+ * Where the month by month balances of the portfolios are kept.
+ */
+public enum BalanceStorage {
+    /** In a {@code long[]} per portfolio, on the heap. */
+    HEAP {
+        @Override
+        public BalanceRows allocate(int assetCount, int capacityMonths) {
+            return BalanceRows.onHeap(assetCount, capacityMonths);
+        }
+    },
+    /**
+     * In records of a few direct buffers shared by all portfolios, outside the heap, so the
+     * collector never scans or copies them; freed records are reused and the buffers never released.
+     */
+    OFF_HEAP {
+        @Override
+        public BalanceRows allocate(int assetCount, int capacityMonths) {
+            return BalanceRows.offHeap(assetCount, capacityMonths);
+        }
+    };
+
+    public abstract BalanceRows allocate(int assetCount, int capacityMonths);
+}
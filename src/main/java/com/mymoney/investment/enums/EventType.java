@@ -0,0 +1,16 @@
+package com.mymoney.investment.enums;
+
+/**
+ * Portfolio mutations recorded in the event log.
+ */
+public enum EventType {
+    ALLOCATE,
+    SIP,
+    CHANGE,
+    CHANGE_OVERRIDE,
+    CLOSE,
+    ASSETS,
+    MARKET_CHANGE,
+    MARKET_CHANGE_OVERRIDE,
+    POLICY
+}
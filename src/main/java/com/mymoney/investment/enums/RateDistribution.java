@@ -0,0 +1,11 @@
+package com.mymoney.investment.enums;
+
+/**
+ * Distribution of the simulated monthly rate of change of an asset.
+ */
+public enum RateDistribution {
+    /** The rate in percent is normally distributed. */
+    NORMAL,
+    /** The monthly log-return is normally distributed, so a rate never drops below -100%. */
+    LOGNORMAL
+}
@@ -4,6 +4,11 @@ public enum SupportedOperations {
     ALLOCATE,
     SIP,
     CHANGE,
+    CHANGE_OVERRIDE,
     BALANCE,
-    REBALANCE
+    REBALANCE,
+    ASSETS,
+    MARKET_CHANGE,
+    MARKET_CHANGE_OVERRIDE,
+    POLICY
 }
@@ -0,0 +1,37 @@
+package com.mymoney.investment.service;
+
+import com.mymoney.investment.dto.AssetTotalsDTO;
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.DriftHistogramDTO;
+import com.mymoney.investment.dto.PortfolioGrowthDTO;
+
+import java.util.List;
+
+/**
+ * Aggregates across every portfolio, answered from rollups that are kept current as portfolios
+ * calculate their balances. Months that no portfolio has calculated yet, because nobody asked for
+ * their balance, are not counted.
+ */
+public interface AnalyticsService {
+
+    /**
+     * @return the sum of every asset at the month over the portfolios investing in the assets of
+     * the shared market rates
+     */
+    AssetTotalsDTO assetTotals(int month);
+
+    /**
+     * @return the sum of every asset at the month over the portfolios investing in the universe
+     */
+    AssetTotalsDTO assetTotals(AssetUniverse assetUniverse, int month);
+
+    /**
+     * @return the portfolios with the highest growth over what was invested in them, highest first
+     */
+    List<PortfolioGrowthDTO> topByGrowth(int count);
+
+    /**
+     * @return how far the portfolios drifted from their desired weights
+     */
+    DriftHistogramDTO driftHistogram();
+}
@@ -0,0 +1,56 @@
+package com.mymoney.investment.service;
+
+import com.mymoney.investment.dao.PortfolioRollups;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.AssetTotalsDTO;
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.DriftHistogramDTO;
+import com.mymoney.investment.dto.PortfolioGrowthDTO;
+import org.springframework.stereotype.Service;
+
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Reads the {@link PortfolioRollups} of the store. No query visits the portfolios themselves, so
+ * the cost does not grow with their number: a month of totals reads one counter per asset, the top
+ * portfolios are the head of a sorted index and the histogram is a fixed array.
+ */
+@Service
+public class AnalyticsServiceImpl implements AnalyticsService {
+
+    private final PortfolioStore portfolioStore;
+
+    public AnalyticsServiceImpl(PortfolioStore portfolioStore) {
+        this.portfolioStore = portfolioStore;
+    }
+
+    @Override
+    public AssetTotalsDTO assetTotals(int month) {
+        return assetTotals(portfolioStore.getMarketRates().getAssetUniverse(), month);
+    }
+
+    @Override
+    public AssetTotalsDTO assetTotals(AssetUniverse assetUniverse, int month) {
+        if (Objects.isNull(assetUniverse) || month < 0) {
+            throw new InputMismatchException("The assets and a month of the plan must be supplied");
+        }
+        PortfolioRollups rollups = portfolioStore.getRollups();
+        return new AssetTotalsDTO(assetUniverse, month, rollups.portfoliosOf(assetUniverse, month),
+                portfolioStore.getMoney(), rollups.totalsOf(assetUniverse, month));
+    }
+
+    @Override
+    public List<PortfolioGrowthDTO> topByGrowth(int count) {
+        if (count < 0) {
+            throw new InputMismatchException("The number of portfolios cannot be negative");
+        }
+        return portfolioStore.getRollups().topByGrowth(count);
+    }
+
+    @Override
+    public DriftHistogramDTO driftHistogram() {
+        return new DriftHistogramDTO(portfolioStore.getRollups().driftHistogram());
+    }
+}
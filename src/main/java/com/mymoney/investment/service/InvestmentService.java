@@ -1,19 +1,145 @@
 package com.mymoney.investment.service;
 
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.dto.ProjectionDTO;
+import com.mymoney.investment.dto.ReturnMetricsDTO;
+import com.mymoney.investment.utils.CommandWriter;
+import com.mymoney.investment.utils.Timeline;
+
 import java.time.Month;
+import java.util.InputMismatchException;
 import java.util.List;
+import java.util.Objects;
 import java.util.zip.DataFormatException;
 
+/**
+ * Operations on the portfolios. Months are addressed by their dense index on the plan's
+ * {@link Timeline}; the {@link Month} overloads address the first year of the plan.
+ */
 public interface InvestmentService {
-    void allocate(List<Double> allocations) throws DataFormatException;
+    /**
+     * Defines the assets of a portfolio, which is only possible before anything is invested in it
+     * or any rate is registered for it.
+     */
+    void defineAssets(String portfolioId, AssetUniverse assetUniverse);
+
+    AssetUniverse getAssets(String portfolioId);
+
+    void allocate(String portfolioId, double[] allocations) throws DataFormatException;
+
+    default void allocate(String portfolioId, List<Double> allocations) throws DataFormatException {
+        allocate(portfolioId, toArray(allocations));
+    }
+
+    void sip(String portfolioId, double[] sips) throws DataFormatException;
+
+    default void sip(String portfolioId, List<Double> sips) throws DataFormatException {
+        sip(portfolioId, toArray(sips));
+    }
+
+    /**
+     * Registers the rates of change for the month. The rates are copied, so callers may reuse the
+     * array.
+     */
+    void change(String portfolioId, double[] rates, int month)
+            throws IllegalStateException, DataFormatException;
+
+    default void change(String portfolioId, double[] rates, Month month)
+            throws IllegalStateException, DataFormatException {
+        change(portfolioId, rates, monthIndexOf(month));
+    }
+
+    default void change(String portfolioId, List<Double> rates, Month month)
+            throws IllegalStateException, DataFormatException {
+        change(portfolioId, toArray(rates), month);
+    }
+
+    /**
+     * Replaces the rates of change of a month, registered or not. Balances from that month onward
+     * are calculated again on the next query.
+     */
+    void overrideChange(String portfolioId, double[] rates, int month) throws DataFormatException;
+
+    /**
+     * Registers the rates of change of the month for every portfolio investing in the market
+     * assets. Portfolios keep the rates they registered themselves for that month.
+     */
+    void marketChange(double[] rates, int month) throws DataFormatException;
+
+    void overrideMarketChange(double[] rates, int month) throws DataFormatException;
+
+    String balance(String portfolioId, int month);
+
+    /**
+     * Appends the balance of the month to the writer instead of returning it, without the line
+     * separator.
+     */
+    void balance(String portfolioId, int month, CommandWriter writer);
+
+    default String balance(String portfolioId, Month month) {
+        return balance(portfolioId, monthIndexOf(month));
+    }
+
+    /**
+     * @return the balance of the last month that was rebalanced, or CANNOT_REBALANCE
+     */
+    String reBalance(String portfolioId);
+
+    /**
+     * Appends what {@link #reBalance(String)} returns to the writer, without the line separator.
+     */
+    void reBalance(String portfolioId, CommandWriter writer);
+
+    /**
+     * Replaces the rebalance policy of the portfolio; its balances are calculated again under the
+     * new policy on the next query.
+     */
+    void setReBalancePolicy(String portfolioId, RebalancePolicy policy);
+
+    RebalancePolicy getReBalancePolicy(String portfolioId);
+
+    /**
+     * @return the rates of change the portfolio reads for each month, {@code rates[month][asset]},
+     * from the first month of the plan up to the first month without rates
+     */
+    double[][] getRateHistory(String portfolioId);
+
+    /**
+     * @return the return and risk metrics of the portfolio up to the last month with a rate of
+     * change, calculating the balances up to that month first
+     */
+    ReturnMetricsDTO returnMetrics(String portfolioId);
 
-    void sip(List<Double> sips) throws DataFormatException;
+    /**
+     * Projects the balance to a month past the last one with a rate of change, holding the given
+     * rates, or the rates of that last month, for every month after it. Months with rates are
+     * calculated first, as for a balance query.
+     *
+     * @param rates the rates of change of every projected month, or null to repeat the last ones
+     * @param fastForward jump the months between rebalance checks at once instead of stepping
+     * them; the result is then flagged when the rounding differs from stepping
+     */
+    ProjectionDTO project(String portfolioId, int month, double[] rates, boolean fastForward)
+            throws DataFormatException;
 
-    void change(List<Double> rates, Month month) throws IllegalStateException, DataFormatException;
+    int getSupportedAssets(String portfolioId);
 
-    String balance(Month month);
+    /**
+     * Drops every piece of state held for the given portfolio.
+     */
+    void close(String portfolioId);
 
-    String reBalance();
+    private static double[] toArray(List<Double> values) {
+        return Objects.isNull(values)
+                ? null
+                : values.stream().mapToDouble(Double::doubleValue).toArray();
+    }
 
-    int getSupportedAssets();
+    private static int monthIndexOf(Month month) {
+        if (Objects.isNull(month)) {
+            throw new InputMismatchException("One of the supplied parameter is null.");
+        }
+        return Timeline.monthIndex(month, Timeline.FIRST_YEAR);
+    }
 }
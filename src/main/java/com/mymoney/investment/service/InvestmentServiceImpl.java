@@ -1,226 +1,693 @@
 package com.mymoney.investment.service;
 
-import com.google.common.collect.Maps;
-import com.google.common.collect.Streams;
 import com.mymoney.investment.dao.DataStub;
-import com.mymoney.investment.dto.PortfolioDTO;
-import com.mymoney.investment.enums.Assets;
-import com.mymoney.investment.model.Fund;
+import com.mymoney.investment.dao.MarketRateTable;
+import com.mymoney.investment.dao.PortfolioMailbox;
+import com.mymoney.investment.dao.PortfolioJournal;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dao.SnapshotStore;
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.BalanceSnapshot;
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.dto.RateSeries;
+import com.mymoney.investment.dto.ReturnMetrics;
+import com.mymoney.investment.dto.ProjectionDTO;
+import com.mymoney.investment.dto.ReturnMetricsDTO;
+import com.mymoney.investment.enums.EventType;
+import com.mymoney.investment.utils.CommandWriter;
+import com.mymoney.investment.utils.EngineMetrics;
 import com.mymoney.investment.utils.InvestmentHelper;
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.time.Month;
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.zip.DataFormatException;
 
 @Service
 @Slf4j
 public class InvestmentServiceImpl implements InvestmentService {
 
-    private final DataStub dataStub;
+    private final PortfolioStore portfolioStore;
+
+    private final PortfolioJournal journal;
 
     public static final String CANNOT_REBALANCE = "CANNOT_REBALANCE";
 
-    public InvestmentServiceImpl(DataStub dataStub) {
-        this.dataStub = dataStub;
+    /** Portfolio id under which market changes are journaled. */
+    private static final String MARKET_EVENT_ID = "";
+
+    private final EngineMetrics metrics;
+
+    public InvestmentServiceImpl(PortfolioStore portfolioStore) {
+        this(portfolioStore, PortfolioJournal.disabled());
+    }
+
+    public InvestmentServiceImpl(PortfolioStore portfolioStore, PortfolioJournal journal) {
+        this(portfolioStore, journal, new EngineMetrics());
+    }
+
+    @Autowired
+    public InvestmentServiceImpl(PortfolioStore portfolioStore, PortfolioJournal journal, EngineMetrics metrics) {
+        this.portfolioStore = portfolioStore;
+        this.journal = journal;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Rebuilds the portfolios from the latest snapshot and the events logged after it.
+     */
+    @PostConstruct
+    public void recover() throws IOException {
+        journal.recover(this::replay);
     }
 
     @Override
-    public void allocate(List<Double> allocations) throws DataFormatException {
-        log.info("Funds allocation started");
-        if (Objects.nonNull(dataStub.initialAllocation)) {
-            throw new IllegalStateException("The funds are already allocated");
+    public void defineAssets(String portfolioId, AssetUniverse assetUniverse) {
+        DataStub dataStub = portfolioStore.getOrCreate(portfolioId);
+        long position = inMailbox(dataStub, () -> {
+            checkAssets(dataStub, assetUniverse);
+            long appended = journal.record(EventType.ASSETS, portfolioId, 0, null, assetUniverse.getNames());
+            applyAssets(dataStub, assetUniverse);
+            return appended;
+        });
+        journal.awaitDurable(position);
+    }
+
+    private static void checkAssets(DataStub dataStub, AssetUniverse assetUniverse) {
+        if (Objects.isNull(assetUniverse)) {
+            throw new InputMismatchException("One of the supplied parameter is null.");
         }
-        dataStub.initialAllocation = createMyMoneyFundsWithDefaultOrdering(allocations);
-        dataStub.desiredWeights = calculateDesiredWeight();
+        if (Objects.nonNull(dataStub.initialAllocation) || Objects.nonNull(dataStub.initialSip)
+                || Objects.nonNull(dataStub.monthlyMarketChangeRate)) {
+            throw new IllegalStateException("The assets can only be defined before the first investment or rate");
+        }
+    }
 
-        log.info("Portfolio initialized with initial allocation of {} and desired weights of {}",
-                dataStub.initialAllocation,
-                dataStub.desiredWeights);
+    private void applyAssets(DataStub dataStub, AssetUniverse assetUniverse) {
+        dataStub.assetUniverse = assetUniverse;
+        log.debug("Portfolio defined with {} assets", assetUniverse.size());
     }
 
-    private PortfolioDTO createMyMoneyFundsWithDefaultOrdering(List<Double> allocations)
-            throws DataFormatException {
-        InvestmentHelper.validateInputs(dataStub.defaultAssetOrderForIO, allocations);
-        List<Fund> fundEntityList =
-                Streams.zip(dataStub.defaultAssetOrderForIO.stream(), allocations.stream(), Fund::new)
-                        .collect(Collectors.toList());
-        return new PortfolioDTO(fundEntityList);
+    @Override
+    public AssetUniverse getAssets(String portfolioId) {
+        return portfolioStore.find(portfolioId)
+                .map(dataStub -> dataStub.assetUniverse)
+                .orElseGet(portfolioStore::getDefaultAssets);
     }
 
-    private Map<Assets, Double> calculateDesiredWeight() {
-        if (Objects.isNull(dataStub.initialAllocation)) {
-            throw new IllegalStateException("The funds are not yet Allocated");
+    @Override
+    public void allocate(String portfolioId, double[] allocations) throws DataFormatException {
+        log.debug("Funds allocation started for portfolio {}", portfolioId);
+        DataStub dataStub = portfolioStore.getOrCreate(portfolioId);
+        long position = inMailbox(dataStub, () -> {
+            checkAllocation(dataStub, allocations);
+            long appended = journal.record(EventType.ALLOCATE, portfolioId, 0, allocations);
+            applyAllocation(portfolioId, dataStub, allocations);
+            return appended;
+        });
+        journal.awaitDurable(position);
+    }
+
+    private static void checkAllocation(DataStub dataStub, double[] allocations) throws DataFormatException {
+        if (Objects.nonNull(dataStub.initialAllocation)) {
+            throw new IllegalStateException("The funds are already allocated");
         }
-        return dataStub.initialAllocation.getFunds().stream()
-                .collect(
-                        Collectors.toMap(
-                                Fund::getAssets,
-                                e -> e.getAmount() * 100 / dataStub.initialAllocation.getTotalInvestment()));
+        InvestmentHelper.validateInputs(dataStub.assetUniverse, allocations);
     }
 
+    private void applyAllocation(String portfolioId, DataStub dataStub, double[] allocations) {
+        Money money = portfolioStore.getMoney();
+        dataStub.initialAllocation = money.toUnits(allocations);
+        dataStub.desiredWeights = dataStub.initialAllocation;
+        dataStub.monthlyBalance = new CompactPortfolio(
+                portfolioStore.getBalanceStorage().allocate(allocations.length, Timeline.MONTHS_PER_YEAR), money);
+        portfolioStore.getRollups().attach(portfolioId, dataStub);
 
+        if (log.isDebugEnabled()) {
+            log.debug("Portfolio initialized with initial allocation of {} and desired weights of {}",
+                    Arrays.toString(dataStub.initialAllocation),
+                    Arrays.toString(CompactPortfolio.weightsOf(dataStub.desiredWeights)));
+        }
+    }
+
+    private DataStub getPortfolio(String portfolioId) {
+        return portfolioStore.find(portfolioId)
+                .orElseThrow(() -> new IllegalStateException(
+                        "The portfolio " + portfolioId + " is not yet Allocated"));
+    }
 
     @Override
-    public void sip(List<Double> sips) throws DataFormatException {
+    public void sip(String portfolioId, double[] sips) throws DataFormatException {
+        DataStub dataStub = portfolioStore.getOrCreate(portfolioId);
+        long position = inMailbox(dataStub, () -> {
+            checkSip(dataStub, sips);
+            long appended = journal.record(EventType.SIP, portfolioId, 0, sips);
+            applySip(dataStub, sips);
+            return appended;
+        });
+        journal.awaitDurable(position);
+    }
+
+    private static void checkSip(DataStub dataStub, double[] sips) throws DataFormatException {
         if (Objects.nonNull(dataStub.initialSip)) {
             throw new IllegalStateException("The SIP is already started once");
         }
-        dataStub.initialSip = createMyMoneyFundsWithDefaultOrdering(sips);
-        log.debug("Portfolio initialized with a monthly sip of {} ", dataStub.initialSip);
+        InvestmentHelper.validateInputs(dataStub.assetUniverse, sips);
     }
 
-    @Override
-    public void change(List<Double> rates, Month month) throws IllegalStateException, DataFormatException {
-        if (Objects.nonNull(dataStub.monthlyMarketChangeRate.getOrDefault(month, null))) {
-            throw new IllegalStateException(
-                    "The Rate of Change for month " + month.name() + " is already registered");
+    private void applySip(DataStub dataStub, double[] sips) {
+        dataStub.initialSip = portfolioStore.getMoney().toUnits(sips);
+        if (Objects.nonNull(dataStub.monthlyBalance)) {
+            // The SIP is invested from the second month onward.
+            dataStub.monthlyBalance.invalidateFrom(1);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Portfolio initialized with a monthly sip of {} ", Arrays.toString(dataStub.initialSip));
         }
-        if (Objects.isNull(rates) || Objects.isNull(month)) {
+    }
+
+    @Override
+    public void change(String portfolioId, double[] rates, int month)
+            throws IllegalStateException, DataFormatException {
+        registerChange(portfolioId, rates, month, false);
+    }
+
+    @Override
+    public void overrideChange(String portfolioId, double[] rates, int month)
+            throws DataFormatException {
+        registerChange(portfolioId, rates, month, true);
+    }
+
+    /**
+     * Stores the rates of the month and invalidates the balances from that month onward, so a late
+     * or corrected rate never leaves a stale balance behind. Like every change, it is checked and
+     * logged before it is applied, so a change the journal refused is never seen by readers.
+     */
+    private void registerChange(String portfolioId, double[] rates, int month, boolean override)
+            throws DataFormatException {
+        DataStub dataStub = portfolioStore.getOrCreate(portfolioId);
+        long position = inMailbox(dataStub, () -> {
+            checkChange(dataStub, rates, month, override);
+            long appended = journal.record(
+                    override ? EventType.CHANGE_OVERRIDE : EventType.CHANGE, portfolioId, month, rates);
+            applyChange(dataStub, rates, month);
+            return appended;
+        });
+        journal.awaitDurable(position);
+    }
+
+    private void checkChange(DataStub dataStub, double[] rates, int month, boolean override)
+            throws DataFormatException {
+        if (Objects.isNull(rates)) {
             throw new InputMismatchException("One of the supplied parameter is null.");
         }
-        if (rates.size() != dataStub.defaultAssetOrderForIO.size()) {
+        if (!Timeline.isInPlan(month)) {
+            throw new IllegalArgumentException("The month index " + month + " is out of the plan");
+        }
+        if (rates.length != dataStub.assetUniverse.size()) {
             throw new DataFormatException("The input is not in the desired format");
         }
-        Map<Assets, Double> change =
-                Streams.zip(dataStub.defaultAssetOrderForIO.stream(), rates.stream(), Maps::immutableEntry)
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        dataStub.monthlyMarketChangeRate.put(month, change);
+        if (!override && isKnown(dataStub, marketRatesOf(dataStub), month)) {
+            throw new IllegalStateException(
+                    "The Rate of Change for month " + Timeline.describe(month) + " is already registered");
+        }
+    }
+
+    private static void applyChange(DataStub dataStub, double[] rates, int month) {
+        if (Objects.isNull(dataStub.monthlyMarketChangeRate)) {
+            // Copied on first write: until then the portfolio only reads the market rates.
+            dataStub.monthlyMarketChangeRate = new RateSeries(rates.length);
+        }
+        dataStub.monthlyMarketChangeRate.put(month, rates);
+        if (Objects.nonNull(dataStub.monthlyBalance)) {
+            dataStub.monthlyBalance.invalidateFrom(month);
+        }
     }
 
     @Override
-    public String balance(Month month) {
-        updateBalance();
-        PortfolioDTO fund =
-                Optional.ofNullable(dataStub.monthlyBalance.get(month))
-                        .orElseThrow(() -> new IllegalStateException(
-                                                "The balance is requested for the month  "
-                                                        + month.name()
-                                                        + " no data"));
-        return fund.toString();
+    public void marketChange(double[] rates, int month) throws DataFormatException {
+        registerMarketChange(rates, month, false);
+    }
+
+    @Override
+    public void overrideMarketChange(double[] rates, int month) throws DataFormatException {
+        registerMarketChange(rates, month, true);
+    }
+
+    /**
+     * Registers the rates once for every portfolio. Each portfolio notices the new version of the
+     * market rates on its next query and discards the balances it made stale.
+     */
+    private void registerMarketChange(double[] rates, int month, boolean override) throws DataFormatException {
+        MarketRateTable marketRates = portfolioStore.getMarketRates();
+        long position;
+        synchronized (marketRates) {
+            marketRates.check(month, rates, override);
+            position = journal.record(
+                    override ? EventType.MARKET_CHANGE_OVERRIDE : EventType.MARKET_CHANGE, MARKET_EVENT_ID,
+                    month, rates);
+            marketRates.put(month, rates, override);
+        }
+        journal.awaitDurable(position);
+    }
+
+    /**
+     * @return the market rates the portfolio reads, or null if it invests in other assets
+     */
+    private MarketRateTable.Version marketRatesOf(DataStub dataStub) {
+        MarketRateTable marketRates = portfolioStore.getMarketRates();
+        if (!marketRates.appliesTo(dataStub.assetUniverse)) {
+            return null;
+        }
+        MarketRateTable.Version version = marketRates.current();
+        if (dataStub.marketVersion != version.getNumber()) {
+            CompactPortfolio balance = dataStub.monthlyBalance;
+            if (Objects.nonNull(balance) && balance.getCalculatedMonths() > 0) {
+                balance.invalidateFrom(version.earliestChangeSince(dataStub.marketVersion));
+            }
+            dataStub.marketVersion = version.getNumber();
+        }
+        return version;
+    }
+
+    private static boolean isKnown(DataStub dataStub, MarketRateTable.Version marketRates, int month) {
+        return Objects.nonNull(dataStub.monthlyMarketChangeRate) && dataStub.monthlyMarketChangeRate.isKnown(month)
+                || Objects.nonNull(marketRates) && marketRates.isKnown(month);
+    }
+
+    /**
+     * Serves months that are already calculated from the published balances without entering the
+     * mailbox; only a month that still has to be rolled forward queues behind the writers.
+     */
+    @Override
+    public String balance(String portfolioId, int month) {
+        DataStub dataStub = getPortfolio(portfolioId);
+        BalanceSnapshot published = currentSnapshot(dataStub, month);
+        String balance = Objects.isNull(published) ? null : published.toString(month);
+        if (Objects.nonNull(balance)) {
+            return balance;
+        }
+        return inMailbox(dataStub, () -> {
+            calculateBalance(dataStub, month);
+            return dataStub.monthlyBalance.toString(month);
+        });
     }
 
-    private void updateBalance() {
-        Map.Entry<Month, PortfolioDTO> lastCalculatedBalance =
-                dataStub.monthlyBalance.lastEntry();
-        Map.Entry<Month, Map<Assets, Double>> lastKnownChange =
-                dataStub.monthlyMarketChangeRate.lastEntry();
-        if (Objects.isNull(lastKnownChange)) {
+    @Override
+    public void balance(String portfolioId, int month, CommandWriter writer) {
+        DataStub dataStub = getPortfolio(portfolioId);
+        BalanceSnapshot published = currentSnapshot(dataStub, month);
+        if (Objects.nonNull(published) && published.write(month, writer)) {
+            return;
+        }
+        inMailbox(dataStub, () -> {
+            calculateBalance(dataStub, month);
+            dataStub.monthlyBalance.write(month, writer);
+            return null;
+        });
+    }
+
+    /**
+     * @return the published balances if they hold the month and are current, or null if the month
+     * has to be calculated in the mailbox
+     */
+    private BalanceSnapshot currentSnapshot(DataStub dataStub, int month) {
+        BalanceSnapshot published = dataStub.publishedBalance;
+        if (Objects.nonNull(published) && published.isCalculated(month) && isCurrent(dataStub, published)) {
+            metrics.recordBalanceQuery(0);
+            return published;
+        }
+        return null;
+    }
+
+    private void calculateBalance(DataStub dataStub, int month) {
+        metrics.recordBalanceQuery(updateBalance(dataStub, marketRatesOf(dataStub), month, false));
+        if (!dataStub.monthlyBalance.isCalculated(month)) {
+            throw new IllegalStateException(
+                    "The balance is requested for the month  " + Timeline.describe(month) + " no data");
+        }
+    }
+
+    /**
+     * @return whether no market change was registered since the balances were published
+     */
+    private boolean isCurrent(DataStub dataStub, BalanceSnapshot published) {
+        MarketRateTable marketRates = portfolioStore.getMarketRates();
+        return !marketRates.appliesTo(dataStub.assetUniverse)
+                || published.getMarketVersion() == marketRates.current().getNumber();
+    }
+
+    /**
+     * Runs the action as the single writer of the portfolio, then publishes the balances it left
+     * behind for the lock-free readers.
+     */
+    private static <T, E extends Exception> T inMailbox(DataStub dataStub, PortfolioMailbox.Action<T, E> action)
+            throws E {
+        return dataStub.mailbox.call(() -> {
+            try {
+                return action.run();
+            } finally {
+                CompactPortfolio balance = dataStub.monthlyBalance;
+                dataStub.publishedBalance =
+                        Objects.isNull(balance) ? null : balance.publish(dataStub.marketVersion);
+            }
+        });
+    }
+
+    /**
+     * Lazily rolls the balance forward, month by month, from the last month that is still valid up
+     * to the target month. Months that are already calculated are served from the cache.
+     *
+     * @param stopAtGap stop quietly at the first month without a rate of change instead of failing
+     * @return the number of months calculated
+     */
+    private int updateBalance(DataStub dataStub, MarketRateTable.Version marketRates, int targetMonth,
+                               boolean stopAtGap) {
+        RateSeries rates = dataStub.monthlyMarketChangeRate;
+        if (Objects.isNull(rates) && (Objects.isNull(marketRates) || marketRates.getLastKnownMonth() < 0)) {
             throw new IllegalStateException("Rate of Change is not defined");
         }
-        if (Objects.isNull(lastCalculatedBalance)) {
-            log.info("Calculating balance for the given month");
-            PortfolioDTO myMoneyFund =
-                    calculateBalance(
-                            dataStub.initialAllocation,
-                            null,
-                            dataStub.monthlyMarketChangeRate.get(Month.JANUARY));
-            dataStub.monthlyBalance.put(Month.JANUARY, myMoneyFund);
-            lastCalculatedBalance = dataStub.monthlyBalance.lastEntry();
-        }
-        if (lastCalculatedBalance.getKey() != lastKnownChange.getKey()) {
-            Month startMonth = lastCalculatedBalance.getKey();
-            Month endMonth = lastKnownChange.getKey();
-            for (int index = startMonth.getValue(); index < endMonth.getValue(); index++) {
-                Month lastUpdatedMonth = Month.of(index);
-                Month currentCalculationMonth = Month.of(index + 1);
-                log.debug("Calculating balance for month of {}", currentCalculationMonth);
-                PortfolioDTO carryOverBalance =
-                        dataStub.monthlyBalance.get(lastUpdatedMonth).clone();
-                Map<Assets, Double> changeRate =
-                        dataStub.monthlyMarketChangeRate.get(currentCalculationMonth);
-                PortfolioDTO availableBalance =
-                        calculateBalance(carryOverBalance, dataStub.initialSip, changeRate);
-                if (shouldReBalance(currentCalculationMonth)) {
-                    availableBalance = doReBalance(availableBalance);
-                }
-                dataStub.monthlyBalance.putIfAbsent(currentCalculationMonth, availableBalance);
+        CompactPortfolio balance = dataStub.monthlyBalance;
+        if (Objects.isNull(balance)) {
+            throw new IllegalStateException("The funds are not yet Allocated");
+        }
+        int firstMonth = balance.getCalculatedMonths();
+        for (int month = firstMonth; month <= targetMonth; month++) {
+            double[] monthlyRates;
+            int ratesOffset;
+            if (Objects.nonNull(rates) && rates.isKnown(month)) {
+                monthlyRates = rates.getRates();
+                ratesOffset = rates.offsetOf(month);
+            } else if (Objects.nonNull(marketRates) && marketRates.isKnown(month)) {
+                monthlyRates = marketRates.getRates(month);
+                ratesOffset = 0;
+            } else if (stopAtGap) {
+                return month - firstMonth;
+            } else {
+                throw new IllegalStateException(
+                        "The Rate of Change for month " + Timeline.describe(month) + " is not registered");
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Calculating balance for month of {}", Timeline.describe(month));
+            }
+            if (month == 0) {
+                balance.initialize(dataStub.initialAllocation, monthlyRates, ratesOffset);
+                continue;
+            }
+            if (balance.rollForward(dataStub.initialSip, dataStub.desiredWeights, dataStub.reBalancePolicy,
+                    monthlyRates, ratesOffset)) {
+                onReBalanced(dataStub, month);
             }
         }
+        return Math.max(targetMonth + 1 - firstMonth, 0);
     }
 
-    private PortfolioDTO calculateBalance(
-            PortfolioDTO carryOverBalance,
-            PortfolioDTO monthlySip,
-            Map<Assets, Double> changeRate) {
-        log.debug(
-                "Updating current balance of {}, with a sip of {} and market change rate of {}",
-                carryOverBalance,
-                monthlySip,
-                changeRate);
-        PortfolioDTO balAfterSip = applySipInvestment(carryOverBalance, monthlySip);
-        return applyMarketChange(balAfterSip, changeRate);
+    @Override
+    public String reBalance(String portfolioId) {
+        DataStub dataStub = getPortfolio(portfolioId);
+        return inMailbox(dataStub, () -> {
+            int lastRebalancedMonth = calculateLastReBalancedMonth(dataStub);
+            return lastRebalancedMonth < 0
+                    ? CANNOT_REBALANCE
+                    : dataStub.monthlyBalance.toString(lastRebalancedMonth);
+        });
+    }
+
+    @Override
+    public void reBalance(String portfolioId, CommandWriter writer) {
+        DataStub dataStub = getPortfolio(portfolioId);
+        inMailbox(dataStub, () -> {
+            int lastRebalancedMonth = calculateLastReBalancedMonth(dataStub);
+            if (lastRebalancedMonth < 0) {
+                writer.append(CANNOT_REBALANCE);
+            } else {
+                dataStub.monthlyBalance.write(lastRebalancedMonth, writer);
+            }
+            return null;
+        });
     }
 
-    private PortfolioDTO applyMarketChange(
-            PortfolioDTO carryOverBalance, Map<Assets, Double> changeRate) {
-        List<Fund> funds = carryOverBalance.getFunds();
-        funds.forEach(
-                entity -> {
-                    double rate = changeRate.get(entity.getAssets());
-                    double updatedAmount = entity.getAmount() * (1 + rate / 100);
-                    entity.setAmount(Math.floor(updatedAmount));
-                });
-        return carryOverBalance;
+    /**
+     * Rolls the balance forward as far as the rates go.
+     *
+     * @return the last month that was rebalanced, or -1 if none is calculated
+     */
+    private int calculateLastReBalancedMonth(DataStub dataStub) {
+        MarketRateTable.Version marketRates = marketRatesOf(dataStub);
+        metrics.recordBalanceQuery(
+                updateBalance(dataStub, marketRates, getLastKnownChange(dataStub, marketRates), true));
+        int lastRebalancedMonth = dataStub.monthlyBalance.getLastReBalancedMonth();
+        return dataStub.monthlyBalance.isCalculated(lastRebalancedMonth) ? lastRebalancedMonth : -1;
     }
 
-    private PortfolioDTO applySipInvestment(
-            PortfolioDTO carryOverBalance, PortfolioDTO initialSip) {
-        List<Fund> funds = carryOverBalance.getFunds();
-        if (Objects.nonNull(initialSip)) {
-            IntStream.range(0, funds.size())
-                    .forEach(
-                            index -> {
-                                Fund fundEntity = funds.get(index);
-                                double sipAmount = initialSip.getFunds().get(index).getAmount();
-                                fundEntity.setAmount(Math.floor(fundEntity.getAmount() + sipAmount));
-                            });
+    private int getLastKnownChange(DataStub dataStub, MarketRateTable.Version marketRates) {
+        int ownLastKnown = Objects.isNull(dataStub.monthlyMarketChangeRate)
+                ? -1
+                : dataStub.monthlyMarketChangeRate.getLastKnownMonth();
+        return Objects.isNull(marketRates) ? ownLastKnown : Math.max(ownLastKnown, marketRates.getLastKnownMonth());
+    }
+
+    private void onReBalanced(DataStub dataStub, int month) {
+        metrics.recordRebalance();
+        if (log.isDebugEnabled()) {
+            log.debug("Re-balanced the current total balance of {} to desired weights of {} to {}",
+                    dataStub.monthlyBalance.getTotalInvestment(month),
+                    Arrays.toString(CompactPortfolio.weightsOf(dataStub.desiredWeights)),
+                    dataStub.monthlyBalance.toString(month));
         }
-        return carryOverBalance;
     }
 
     @Override
-    public String reBalance() {
-        updateBalance();
-        Month lastUpdatedMonth = dataStub.monthlyBalance.lastEntry().getKey();
-        Month lastRebalancedMonth = getLastReBalancedMonth(lastUpdatedMonth);
-        PortfolioDTO balance = dataStub.monthlyBalance.getOrDefault(lastRebalancedMonth, null);
-        return Objects.nonNull(balance) ? balance.toString() : CANNOT_REBALANCE;
+    public void setReBalancePolicy(String portfolioId, RebalancePolicy policy) {
+        DataStub dataStub = portfolioStore.getOrCreate(portfolioId);
+        long position = inMailbox(dataStub, () -> {
+            if (Objects.isNull(policy)) {
+                throw new InputMismatchException("One of the supplied parameter is null.");
+            }
+            long appended = journal.record(EventType.POLICY, portfolioId, 0, null, List.of(policy.toString()));
+            applyReBalancePolicy(dataStub, policy);
+            return appended;
+        });
+        journal.awaitDurable(position);
     }
 
-    private Month getLastReBalancedMonth(Month month) {
-        return month == Month.DECEMBER ? month : Month.JUNE;
+    /**
+     * The policy applies to the whole plan, so every balance after the first month is calculated
+     * again under it.
+     */
+    private void applyReBalancePolicy(DataStub dataStub, RebalancePolicy policy) {
+        dataStub.reBalancePolicy = policy;
+        if (Objects.nonNull(dataStub.monthlyBalance)) {
+            dataStub.monthlyBalance.invalidateFrom(1);
+        }
+        log.debug("Portfolio rebalances with the {} policy", policy);
     }
 
-    private boolean shouldReBalance(Month month) {
-        // Assumption#3: The re-balancing happens on 6 and 12 months.
-        return month.equals(Month.JUNE) || month.equals(Month.DECEMBER);
+    @Override
+    public RebalancePolicy getReBalancePolicy(String portfolioId) {
+        return portfolioStore.find(portfolioId)
+                .map(dataStub -> dataStub.reBalancePolicy)
+                .orElseGet(portfolioStore::getDefaultReBalancePolicy);
     }
 
-    private PortfolioDTO doReBalance(PortfolioDTO currentFunds) {
-        List<Fund> funds = currentFunds.getFunds();
-        double totalInvestment = currentFunds.getTotalInvestment();
-        funds.forEach(
-                entity -> {
-                    double desiredWeight = dataStub.desiredWeights.get(entity.getAssets());
-                    entity.setAmount(Math.floor(totalInvestment * desiredWeight / 100));
-                });
-        log.info("Re-balanced the current total balance of {} to desired weights of {} to {}",
-                currentFunds.getTotalInvestment(),
-                dataStub.desiredWeights,
-                currentFunds);
-        return currentFunds;
+    @Override
+    public double[][] getRateHistory(String portfolioId) {
+        DataStub dataStub = getPortfolio(portfolioId);
+        return inMailbox(dataStub, () -> {
+            MarketRateTable.Version marketRates = marketRatesOf(dataStub);
+            List<double[]> history = new ArrayList<>();
+            for (int month = 0; isKnown(dataStub, marketRates, month); month++) {
+                history.add(ratesOf(dataStub, marketRates, month));
+            }
+            return history.toArray(new double[0][]);
+        });
     }
 
     @Override
-    public int getSupportedAssets() {
-        return dataStub.defaultAssetOrderForIO.size();
+    public ReturnMetricsDTO returnMetrics(String portfolioId) {
+        DataStub dataStub = getPortfolio(portfolioId);
+        return inMailbox(dataStub, () -> {
+            MarketRateTable.Version marketRates = marketRatesOf(dataStub);
+            metrics.recordBalanceQuery(
+                    updateBalance(dataStub, marketRates, getLastKnownChange(dataStub, marketRates), true));
+            CompactPortfolio balance = dataStub.monthlyBalance;
+            if (balance.getCalculatedMonths() == 0) {
+                throw new IllegalStateException("The Rate of Change for month "
+                        + Timeline.describe(0) + " is not registered");
+            }
+            return ReturnMetricsDTO.of(
+                    accumulateReturns(dataStub, marketRates), dataStub.assetUniverse, portfolioStore.getMoney());
+        });
+    }
+
+    @Override
+    public ProjectionDTO project(String portfolioId, int month, double[] rates, boolean fastForward)
+            throws DataFormatException {
+        if (!Timeline.isInPlan(month)) {
+            throw new IllegalArgumentException("The month index " + month + " is out of the plan");
+        }
+        DataStub dataStub = getPortfolio(portfolioId);
+        if (Objects.nonNull(rates)) {
+            InvestmentHelper.validateInputs(dataStub.assetUniverse, rates);
+        }
+        return inMailbox(dataStub, () -> {
+            MarketRateTable.Version marketRates = marketRatesOf(dataStub);
+            metrics.recordBalanceQuery(updateBalance(dataStub, marketRates,
+                    Math.min(month, getLastKnownChange(dataStub, marketRates)), true));
+            CompactPortfolio balance = dataStub.monthlyBalance;
+            int lastMonth = balance.getCalculatedMonths() - 1;
+            if (lastMonth < 0) {
+                throw new IllegalStateException("The Rate of Change for month "
+                        + Timeline.describe(0) + " is not registered");
+            }
+            long[] amounts = new long[balance.getAssetCount()];
+            balance.readRow(Math.min(month, lastMonth), amounts, 0);
+            boolean exact = true;
+            if (month > lastMonth) {
+                double[] projectedRates = Objects.nonNull(rates) ? rates : ratesOf(dataStub, marketRates, lastMonth);
+                exact = CompactPortfolio.project(amounts, lastMonth, month, dataStub.initialSip,
+                        dataStub.desiredWeights, dataStub.reBalancePolicy, projectedRates, fastForward);
+            }
+            return new ProjectionDTO(portfolioStore.getMoney(), month, amounts, exact);
+        });
+    }
+
+    private static double[] ratesOf(DataStub dataStub, MarketRateTable.Version marketRates, int month) {
+        RateSeries rates = dataStub.monthlyMarketChangeRate;
+        if (Objects.nonNull(rates) && rates.isKnown(month)) {
+            int offset = rates.offsetOf(month);
+            return Arrays.copyOfRange(rates.getRates(), offset, offset + rates.getAssetCount());
+        }
+        return marketRates.getRates(month).clone();
+    }
+
+    /**
+     * Feeds the months calculated since the last query to the return metrics of the portfolio, or
+     * all of them again once a calculated month was discarded.
+     */
+    private static ReturnMetrics accumulateReturns(DataStub dataStub, MarketRateTable.Version marketRates) {
+        CompactPortfolio balance = dataStub.monthlyBalance;
+        ReturnMetrics returns = dataStub.returnMetrics;
+        if (Objects.isNull(returns) || !returns.follows(balance)) {
+            returns = new ReturnMetrics(balance);
+            dataStub.returnMetrics = returns;
+        }
+        RateSeries rates = dataStub.monthlyMarketChangeRate;
+        for (int month = returns.getMonths(); month < balance.getCalculatedMonths(); month++) {
+            if (Objects.nonNull(rates) && rates.isKnown(month)) {
+                returns.accept(dataStub.initialAllocation, dataStub.initialSip, dataStub.desiredWeights,
+                        dataStub.reBalancePolicy, rates.getRates(), rates.offsetOf(month));
+            } else {
+                returns.accept(dataStub.initialAllocation, dataStub.initialSip, dataStub.desiredWeights,
+                        dataStub.reBalancePolicy, marketRates.getRates(month), 0);
+            }
+        }
+        return returns;
+    }
+
+    @Override
+    public int getSupportedAssets(String portfolioId) {
+        return getAssets(portfolioId).size();
+    }
+
+    @Override
+    public void close(String portfolioId) {
+        long position = 0;
+        Optional<DataStub> dataStub = portfolioStore.find(portfolioId);
+        if (dataStub.isPresent()) {
+            position = dataStub.get().mailbox.call(() -> {
+                long appended = journal.record(EventType.CLOSE, portfolioId, 0, null);
+                portfolioStore.remove(portfolioId);
+                return appended;
+            });
+        }
+        journal.awaitDurable(position);
+    }
+
+    /**
+     * Applies an event read back from the journal. The events a fuzzy snapshot already reflects
+     * are the ones before the position the portfolio, or the market rates, were copied at, and are
+     * skipped. A logged change was valid when it was registered, so it is applied even if the
+     * snapshot holds market rates for the same month that were registered after it.
+     */
+    private void replay(long position, EventType type, String portfolioId, int month, double[] values,
+                        List<String> names) {
+        if (type == EventType.CLOSE) {
+            portfolioStore.find(portfolioId)
+                    .filter(dataStub -> position > dataStub.restoredPosition)
+                    .ifPresent(dataStub -> portfolioStore.remove(portfolioId));
+            return;
+        }
+        if (type == EventType.MARKET_CHANGE || type == EventType.MARKET_CHANGE_OVERRIDE) {
+            MarketRateTable marketRates = portfolioStore.getMarketRates();
+            if (position <= marketRates.getRestoredPosition()) {
+                return;
+            }
+            try {
+                marketRates.put(month, values, type == EventType.MARKET_CHANGE_OVERRIDE);
+            } catch (IllegalStateException e) {
+                if (marketRates.getRestoredPosition() != SnapshotStore.UNKNOWN_POSITION) {
+                    throw e;
+                }
+                log.debug("Skipped the {} event already in the snapshot", type);
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("The journal holds an invalid " + type + " event", e);
+            }
+            return;
+        }
+        DataStub dataStub = portfolioStore.getOrCreate(portfolioId);
+        inMailbox(dataStub, () -> {
+            if (position <= dataStub.restoredPosition) {
+                return null;
+            }
+            try {
+                switch (type) {
+                    case ASSETS:
+                        AssetUniverse assetUniverse = AssetUniverse.of(names);
+                        checkAssets(dataStub, assetUniverse);
+                        applyAssets(dataStub, assetUniverse);
+                        break;
+                    case POLICY:
+                        applyReBalancePolicy(dataStub, RebalancePolicy.parse(names.get(0)));
+                        break;
+                    case ALLOCATE:
+                        checkAllocation(dataStub, values);
+                        applyAllocation(portfolioId, dataStub, values);
+                        break;
+                    case SIP:
+                        checkSip(dataStub, values);
+                        applySip(dataStub, values);
+                        break;
+                    case CHANGE:
+                    case CHANGE_OVERRIDE:
+                        checkChange(dataStub, values, month, true);
+                        applyChange(dataStub, values, month);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported event " + type);
+                }
+            } catch (IllegalStateException e) {
+                // Older snapshots did not record their positions, so their events are told apart by
+                // the usual checks.
+                if (dataStub.restoredPosition != SnapshotStore.UNKNOWN_POSITION) {
+                    throw e;
+                }
+                log.debug("Skipped the {} event of portfolio {} already in the snapshot", type, portfolioId);
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("The journal holds an invalid " + type + " event", e);
+            }
+            return null;
+        });
     }
 }
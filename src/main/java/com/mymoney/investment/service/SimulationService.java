@@ -0,0 +1,30 @@
+package com.mymoney.investment.service;
+
+import com.mymoney.investment.dto.SimulationRequestDTO;
+import com.mymoney.investment.dto.SimulationResultDTO;
+import com.mymoney.investment.dto.WhatIfRequestDTO;
+import com.mymoney.investment.dto.WhatIfResultDTO;
+
+public interface SimulationService {
+
+    /**
+     * Projects the allocation and SIP of an existing portfolio along random rate paths, rebalancing
+     * under the portfolio's policy.
+     */
+    SimulationResultDTO simulate(String portfolioId, SimulationRequestDTO request);
+
+    /**
+     * Projects the given allocation and monthly SIP along random rate paths, applying the same SIP,
+     * market change and half-yearly rebalance rules as {@link InvestmentService}.
+     *
+     * @param sip the monthly SIP, or null if none
+     */
+    SimulationResultDTO simulate(double[] allocation, double[] sip, SimulationRequestDTO request);
+
+    /**
+     * Evaluates every variant of allocation and SIP against the same rate history, applying the
+     * SIP, market change and rebalance rules of {@link InvestmentService} under the policy of the
+     * request. The trajectories are the ones the portfolio would have had with that variant.
+     */
+    WhatIfResultDTO whatIf(WhatIfRequestDTO request);
+}
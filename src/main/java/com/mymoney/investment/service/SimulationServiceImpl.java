@@ -0,0 +1,547 @@
+package com.mymoney.investment.service;
+
+import com.mymoney.investment.dao.DataStub;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.PortfolioColumns;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.dto.SimulationRequestDTO;
+import com.mymoney.investment.dto.SimulationResultDTO;
+import com.mymoney.investment.dto.WhatIfRequestDTO;
+import com.mymoney.investment.dto.WhatIfResultDTO;
+import com.mymoney.investment.enums.RateDistribution;
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Monte Carlo projection of portfolios.
+ *
+ * <p>Paths are simulated in fixed-size blocks, each with its own {@link SplittableRandom} split
+ * from the seed up front, so results only depend on the seed and never on the number of cores.
+ * The paths of a block are held in {@link PortfolioColumns} and step through each month together.
+ * Every worker accumulates the monthly totals into its own log-scale histogram, which keeps memory
+ * independent of the number of paths. Percentiles are therefore approximated to within
+ * {@value #RELATIVE_PRECISION_PERCENT}% of the exact value; monthly means are exact.
+ *
+ * <p>What-if variants share one known rate history instead. They are evaluated in blocks too,
+ * month by month, so the rates of a month are read once for the whole block while the amounts of
+ * the block stay in cache. Variants run through the row kernels of {@link CompactPortfolio} and
+ * the {@link RebalancePolicy}, exactly like a portfolio rolled forward by the investment service.
+ */
+@Service
+@Slf4j
+public class SimulationServiceImpl implements SimulationService {
+
+    private static final int PATHS_PER_BLOCK = 1024;
+    private static final int VARIANTS_PER_BLOCK = 256;
+    /** Each power of two is split into 2^SUB_BUCKET_BITS histogram buckets. */
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXPONENTS = 64;
+    private static final int BUCKETS = EXPONENTS * SUB_BUCKETS;
+    private static final double RELATIVE_PRECISION_PERCENT = 0.4;
+
+    private final PortfolioStore portfolioStore;
+
+    public SimulationServiceImpl(PortfolioStore portfolioStore) {
+        this.portfolioStore = portfolioStore;
+    }
+
+    @Override
+    public SimulationResultDTO simulate(String portfolioId, SimulationRequestDTO request) {
+        DataStub dataStub = portfolioStore.find(portfolioId)
+                .orElseThrow(() -> new IllegalStateException(
+                        "The portfolio " + portfolioId + " is not yet Allocated"));
+        Scenario scenario = dataStub.mailbox.call(() -> {
+            if (Objects.isNull(dataStub.initialAllocation)) {
+                throw new IllegalStateException("The funds are not yet Allocated");
+            }
+            return scenarioOf(dataStub.initialAllocation, dataStub.initialSip, dataStub.reBalancePolicy, request);
+        });
+        return simulate(scenario, request);
+    }
+
+    @Override
+    public SimulationResultDTO simulate(double[] allocation, double[] sip, SimulationRequestDTO request) {
+        Money money = portfolioStore.getMoney();
+        return simulate(
+                scenarioOf(money.toUnits(allocation), money.toUnits(sip), RebalancePolicy.DEFAULT, request), request);
+    }
+
+    private Scenario scenarioOf(long[] allocation, long[] sip, RebalancePolicy policy, SimulationRequestDTO request) {
+        validate(allocation.length, sip, request);
+        return new Scenario(allocation, sip, policy, request, portfolioStore.getMoney());
+    }
+
+    private SimulationResultDTO simulate(Scenario scenario, SimulationRequestDTO request) {
+        long start = System.nanoTime();
+
+        int blockCount = (request.getPaths() + PATHS_PER_BLOCK - 1) / PATHS_PER_BLOCK;
+        SplittableRandom root = new SplittableRandom(request.getSeed());
+        SplittableRandom[] blockRandoms = new SplittableRandom[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            blockRandoms[block] = root.split();
+        }
+        AtomicInteger nextBlock = new AtomicInteger();
+        int workers = Math.min(blockCount, Runtime.getRuntime().availableProcessors());
+
+        Accumulator total =
+                IntStream.range(0, workers)
+                        .parallel()
+                        .mapToObj(worker -> runWorker(scenario, blockRandoms, nextBlock))
+                        .reduce(Accumulator::merge)
+                        .orElseThrow();
+
+        SimulationResultDTO result = total.toResult(request, System.nanoTime() - start);
+        log.info("Simulated {} paths over {} months in {} ms",
+                request.getPaths(), request.getMonths(), result.getElapsedNanos() / 1_000_000);
+        return result;
+    }
+
+    private static Accumulator runWorker(
+            Scenario scenario, SplittableRandom[] blockRandoms, AtomicInteger nextBlock) {
+        Accumulator accumulator = new Accumulator(scenario.months);
+        BlockState state = new BlockState(scenario.assetCount);
+        for (int block = nextBlock.getAndIncrement();
+             block < blockRandoms.length;
+             block = nextBlock.getAndIncrement()) {
+            state.reset(blockRandoms[block]);
+            int paths = Math.min(PATHS_PER_BLOCK, scenario.paths - block * PATHS_PER_BLOCK);
+            simulateBlock(scenario, state, paths, accumulator);
+        }
+        return accumulator;
+    }
+
+    /**
+     * Applies the SIP, market change and rebalance rules of {@link InvestmentServiceImpl} under the
+     * policy of the scenario along a block of random rate paths, stepping every path of the block
+     * through a month at once. A calendar policy takes one decision for the whole block; any other
+     * policy runs its row kernels on each path.
+     */
+    private static void simulateBlock(
+            Scenario scenario, BlockState state, int paths, Accumulator accumulator) {
+        PortfolioColumns amounts = state.amounts;
+        RebalancePolicy policy = scenario.policy;
+        boolean byRow = policy.dependsOnAmounts();
+        amounts.fill(scenario.allocation, paths);
+        for (int month = 0; month < scenario.months; month++) {
+            for (int path = 0; path < paths; path++) {
+                scenario.drawRates(state, path);
+            }
+            if (month > 0 && Objects.nonNull(scenario.sip)) {
+                if (byRow) {
+                    amounts.investSip(policy, scenario.sip, scenario.desiredWeights, paths, state.row);
+                } else {
+                    amounts.applySipInvestment(scenario.sip, paths);
+                }
+            }
+            amounts.applyMarketChange(state.rates, paths);
+            if (month > 0) {
+                if (byRow) {
+                    amounts.reBalance(policy, month, scenario.desiredWeights, paths, state.row);
+                } else if (policy.shouldReBalance(
+                        month, scenario.allocation, 0, scenario.desiredWeights, scenario.assetCount)) {
+                    // The decision does not depend on the amounts, so any row stands in for the block.
+                    amounts.reBalance(scenario.desiredWeights, paths);
+                }
+            }
+            long[] totals = amounts.totalInvestment(paths);
+            for (int path = 0; path < paths; path++) {
+                accumulator.add(month, scenario.money.toRupees(totals[path]));
+            }
+        }
+    }
+
+    @Override
+    public WhatIfResultDTO whatIf(WhatIfRequestDTO request) {
+        validate(request);
+        long start = System.nanoTime();
+        Variants variants = new Variants(request, portfolioStore.getMoney());
+
+        int blockCount = (variants.count + VARIANTS_PER_BLOCK - 1) / VARIANTS_PER_BLOCK;
+        AtomicInteger nextBlock = new AtomicInteger();
+        int workers = Math.min(blockCount, Runtime.getRuntime().availableProcessors());
+        IntStream.range(0, workers)
+                .parallel()
+                .forEach(worker -> {
+                    long[] amounts = new long[VARIANTS_PER_BLOCK * variants.assetCount];
+                    for (int block = nextBlock.getAndIncrement();
+                         block < blockCount;
+                         block = nextBlock.getAndIncrement()) {
+                        evaluateBlock(variants, block * VARIANTS_PER_BLOCK, amounts);
+                    }
+                });
+
+        WhatIfResultDTO result = new WhatIfResultDTO(variants.count, variants.months, variants.assetCount,
+                variants.money, variants.totals, variants.finalAmounts, variants.reBalanceCounts,
+                System.nanoTime() - start);
+        log.info("Evaluated {} variants over {} months in {} ms",
+                variants.count, variants.months, result.getElapsedNanos() / 1_000_000);
+        return result;
+    }
+
+    /**
+     * Rolls a block of variants forward through every month of the history. Each block writes to
+     * its own slice of the results, so workers never share a slot.
+     *
+     * @param amounts scratch rows of amounts, one per variant of the block
+     */
+    private static void evaluateBlock(Variants variants, int firstVariant, long[] amounts) {
+        int assetCount = variants.assetCount;
+        int months = variants.months;
+        int count = Math.min(VARIANTS_PER_BLOCK, variants.count - firstVariant);
+        RebalancePolicy policy = variants.policy;
+        for (int slot = 0; slot < count; slot++) {
+            System.arraycopy(variants.allocations[firstVariant + slot], 0, amounts, slot * assetCount, assetCount);
+        }
+        for (int month = 0; month < months; month++) {
+            double[] rates = variants.rates[month];
+            for (int slot = 0, offset = 0; slot < count; slot++, offset += assetCount) {
+                int variant = firstVariant + slot;
+                long[] desiredWeights = variants.desiredWeights[variant];
+                long[] sip = variants.sips[variant];
+                if (month > 0 && Objects.nonNull(sip)) {
+                    policy.investSip(amounts, offset, sip, desiredWeights, assetCount);
+                }
+                CompactPortfolio.applyMarketChange(amounts, offset, rates, 0, assetCount);
+                if (month > 0 && policy.shouldReBalance(month, amounts, offset, desiredWeights, assetCount)) {
+                    CompactPortfolio.reBalance(amounts, offset, desiredWeights, assetCount);
+                    variants.reBalanceCounts[variant]++;
+                }
+                variants.totals[variant * months + month] =
+                        CompactPortfolio.totalInvestment(amounts, offset, assetCount);
+            }
+        }
+        System.arraycopy(amounts, 0, variants.finalAmounts, firstVariant * assetCount, count * assetCount);
+    }
+
+    private static void validate(WhatIfRequestDTO request) {
+        double[][] rates = request.getRates();
+        double[][] allocations = request.getAllocations();
+        if (Objects.isNull(rates) || rates.length == 0) {
+            throw new InputMismatchException("The rate history must hold at least one month");
+        }
+        if (Objects.isNull(allocations) || allocations.length == 0) {
+            throw new InputMismatchException("At least one variant must be allocated");
+        }
+        if (Objects.isNull(request.getPolicy())) {
+            throw new InputMismatchException("The rebalance policy is not defined");
+        }
+        if ((long) allocations.length * rates.length > Integer.MAX_VALUE - 8) {
+            throw new InputMismatchException("Too many variants and months to evaluate at once");
+        }
+        int assetCount = rates[0].length;
+        for (double[] monthlyRates : rates) {
+            if (Objects.isNull(monthlyRates) || monthlyRates.length != assetCount) {
+                throw new InputMismatchException("The rates are not defined for each of the " + assetCount + " assets");
+            }
+        }
+        for (double[] allocation : allocations) {
+            if (Objects.isNull(allocation) || allocation.length != assetCount
+                    || !(Arrays.stream(allocation).sum() > 0)) {
+                throw new InputMismatchException(
+                        "Every variant must allocate a positive total over the " + assetCount + " assets");
+            }
+        }
+        double[][] sips = request.getSips();
+        if (Objects.nonNull(sips)) {
+            if (sips.length != allocations.length) {
+                throw new InputMismatchException("There must be a SIP for each of the " + allocations.length + " variants");
+            }
+            for (double[] sip : sips) {
+                if (Objects.nonNull(sip) && sip.length != assetCount) {
+                    throw new InputMismatchException("The SIP is not defined for each of the " + assetCount + " assets");
+                }
+            }
+        }
+    }
+
+    private static void validate(int assetCount, long[] sip, SimulationRequestDTO request) {
+        if (request.getPaths() <= 0 || request.getMonths() <= 0) {
+            throw new InputMismatchException("The number of paths and months must be positive");
+        }
+        if (request.getMonths() > Timeline.MAX_MONTHS) {
+            throw new InputMismatchException("The plan covers at most " + Timeline.MAX_MONTHS + " months");
+        }
+        if (Objects.nonNull(sip) && sip.length != assetCount
+                || Objects.isNull(request.getMeanRates()) || request.getMeanRates().length != assetCount
+                || Objects.isNull(request.getRateDeviations()) || request.getRateDeviations().length != assetCount) {
+            throw new InputMismatchException("The rates are not defined for each of the " + assetCount + " assets");
+        }
+        double[][] correlation = request.getCorrelation();
+        if (Objects.nonNull(correlation)) {
+            if (correlation.length != assetCount) {
+                throw new InputMismatchException("The correlation matrix must be " + assetCount + "x" + assetCount);
+            }
+            for (double[] row : correlation) {
+                if (row.length != assetCount) {
+                    throw new InputMismatchException("The correlation matrix must be " + assetCount + "x" + assetCount);
+                }
+            }
+        }
+        for (double percentile : request.getPercentiles()) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new InputMismatchException("Percentiles must be within (0, 100]");
+            }
+        }
+    }
+
+    /**
+     * Lower triangular Cholesky factor of a correlation matrix, so that {@code L z} turns independent
+     * standard normal draws into correlated ones.
+     */
+    static double[][] choleskyOf(double[][] correlation) {
+        int size = correlation.length;
+        double[][] lower = new double[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column <= row; column++) {
+                double sum = correlation[row][column];
+                for (int k = 0; k < column; k++) {
+                    sum -= lower[row][k] * lower[column][k];
+                }
+                if (row == column) {
+                    if (sum <= 0) {
+                        throw new InputMismatchException("The correlation matrix is not positive definite");
+                    }
+                    lower[row][row] = Math.sqrt(sum);
+                } else {
+                    lower[row][column] = sum / lower[column][column];
+                }
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * Immutable inputs shared by every worker.
+     */
+    private static final class Scenario {
+        final int assetCount;
+        final int paths;
+        final int months;
+        final long[] allocation;
+        final long[] sip;
+        final long[] desiredWeights;
+        final RebalancePolicy policy;
+        final Money money;
+        final double[] means;
+        final double[] deviations;
+        final double[][] cholesky;
+        final boolean lognormal;
+
+        Scenario(long[] allocation, long[] sip, RebalancePolicy policy, SimulationRequestDTO request, Money money) {
+            this.assetCount = allocation.length;
+            this.paths = request.getPaths();
+            this.months = request.getMonths();
+            this.allocation = allocation.clone();
+            this.sip = Objects.isNull(sip) ? null : sip.clone();
+            this.desiredWeights = this.allocation;
+            this.policy = policy;
+            this.money = money;
+            this.means = request.getMeanRates().clone();
+            this.deviations = request.getRateDeviations().clone();
+            this.cholesky = Objects.isNull(request.getCorrelation()) ? null : choleskyOf(request.getCorrelation());
+            this.lognormal = request.getDistribution() == RateDistribution.LOGNORMAL;
+        }
+
+        void drawRates(BlockState state, int path) {
+            double[] normals = state.normals;
+            for (int asset = 0; asset < assetCount; asset++) {
+                normals[asset] = state.nextGaussian();
+            }
+            for (int asset = 0; asset < assetCount; asset++) {
+                double shock = normals[asset];
+                if (Objects.nonNull(cholesky)) {
+                    double[] row = cholesky[asset];
+                    shock = 0;
+                    for (int k = 0; k <= asset; k++) {
+                        shock += row[k] * normals[k];
+                    }
+                }
+                double draw = means[asset] + deviations[asset] * shock;
+                state.rates[asset][path] = lognormal ? Math.expm1(draw / 100) * 100 : draw;
+            }
+        }
+    }
+
+    /**
+     * Inputs of a what-if evaluation and the flat result arrays the blocks fill in.
+     */
+    private static final class Variants {
+        final int count;
+        final int months;
+        final int assetCount;
+        final double[][] rates;
+        final long[][] allocations;
+        final long[][] sips;
+        /** The allocations, which are also the weights each variant rebalances to. */
+        final long[][] desiredWeights;
+        final RebalancePolicy policy;
+        final Money money;
+        final long[] totals;
+        final long[] finalAmounts;
+        final int[] reBalanceCounts;
+
+        Variants(WhatIfRequestDTO request, Money money) {
+            this.count = request.getAllocations().length;
+            this.months = request.getRates().length;
+            this.assetCount = request.getRates()[0].length;
+            this.rates = request.getRates();
+            this.allocations = new long[count][];
+            this.sips = new long[count][];
+            for (int variant = 0; variant < count; variant++) {
+                allocations[variant] = money.toUnits(request.getAllocations()[variant]);
+                sips[variant] = Objects.isNull(request.getSips()) ? null : money.toUnits(request.getSips()[variant]);
+            }
+            this.desiredWeights = allocations;
+            this.policy = request.getPolicy();
+            this.money = money;
+            this.totals = new long[count * months];
+            this.finalAmounts = new long[count * assetCount];
+            this.reBalanceCounts = new int[count];
+        }
+    }
+
+    /**
+     * Scratch columns and random source of one worker, reused for every block it simulates.
+     */
+    private static final class BlockState {
+        final PortfolioColumns amounts;
+        final double[][] rates;
+        final double[] normals;
+        /** Scratch row for the kernels of policies that look at the amounts. */
+        final long[] row;
+        SplittableRandom random;
+        double spareGaussian;
+        boolean hasSpareGaussian;
+
+        BlockState(int assetCount) {
+            this.amounts = new PortfolioColumns(assetCount, PATHS_PER_BLOCK);
+            this.rates = new double[assetCount][PATHS_PER_BLOCK];
+            this.normals = new double[assetCount];
+            this.row = new long[assetCount];
+        }
+
+        void reset(SplittableRandom blockRandom) {
+            this.random = blockRandom;
+            this.hasSpareGaussian = false;
+        }
+
+        /**
+         * Marsaglia's polar method, which yields two standard normal draws per accepted pair.
+         */
+        double nextGaussian() {
+            if (hasSpareGaussian) {
+                hasSpareGaussian = false;
+                return spareGaussian;
+            }
+            double u;
+            double v;
+            double s;
+            do {
+                u = random.nextDouble() * 2 - 1;
+                v = random.nextDouble() * 2 - 1;
+                s = u * u + v * v;
+            } while (s >= 1 || s == 0);
+            double scale = Math.sqrt(-2 * Math.log(s) / s);
+            spareGaussian = v * scale;
+            hasSpareGaussian = true;
+            return u * scale;
+        }
+    }
+
+    /**
+     * Per month log-scale histogram and sum of the simulated totals.
+     */
+    private static final class Accumulator {
+        final int months;
+        final int[] histogram;
+        final double[] sums;
+        long paths;
+
+        Accumulator(int months) {
+            this.months = months;
+            this.histogram = new int[months * BUCKETS];
+            this.sums = new double[months];
+        }
+
+        void add(int month, double total) {
+            histogram[month * BUCKETS + bucketOf(total)]++;
+            sums[month] += total;
+            if (month == 0) {
+                paths++;
+            }
+        }
+
+        Accumulator merge(Accumulator other) {
+            for (int index = 0; index < histogram.length; index++) {
+                histogram[index] += other.histogram[index];
+            }
+            for (int month = 0; month < months; month++) {
+                sums[month] += other.sums[month];
+            }
+            paths += other.paths;
+            return this;
+        }
+
+        SimulationResultDTO toResult(SimulationRequestDTO request, long elapsedNanos) {
+            double[] percentiles = request.getPercentiles().clone();
+            double[][] balances = new double[percentiles.length][months];
+            double[] means = new double[months];
+            for (int month = 0; month < months; month++) {
+                means[month] = sums[month] / paths;
+                for (int level = 0; level < percentiles.length; level++) {
+                    balances[level][month] = percentileOf(month, percentiles[level]);
+                }
+            }
+            return new SimulationResultDTO((int) paths, percentiles, balances, means, elapsedNanos);
+        }
+
+        private double percentileOf(int month, double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * paths);
+            long seen = 0;
+            int offset = month * BUCKETS;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += histogram[offset + bucket];
+                if (seen >= Math.max(rank, 1)) {
+                    return valueOf(bucket);
+                }
+            }
+            return valueOf(BUCKETS - 1);
+        }
+    }
+
+    /**
+     * @return the histogram bucket of a total: its binary exponent and the top bits of its mantissa
+     */
+    static int bucketOf(double total) {
+        if (!(total >= 1)) {
+            return 0;
+        }
+        long bits = Double.doubleToRawLongBits(total);
+        int exponent = (int) (bits >>> 52) - 1023;
+        if (exponent >= EXPONENTS) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (bits >>> (52 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the midpoint of the range of totals falling into the bucket
+     */
+    static double valueOf(int bucket) {
+        int exponent = bucket / SUB_BUCKETS;
+        int subBucket = bucket % SUB_BUCKETS;
+        return Math.scalb(1 + (subBucket + 0.5) / SUB_BUCKETS, exponent);
+    }
+}
@@ -0,0 +1,151 @@
+package com.mymoney.investment.utils;
+
+import com.mymoney.investment.dto.BatchSummaryDTO;
+import com.mymoney.investment.service.InvestmentService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Processes many command files in one JVM. Every file runs against its own portfolio and writes
+ * its results to {@code <file name>.out} inside the output directory, so a manifest listing two
+ * files of the same name, even in different directories or differing only in case, is rejected
+ * before anything is processed, and so is a directory that would receive its own outputs.
+ */
+@Service
+@Slf4j
+public class BatchInvestmentProcessor {
+
+    public static final String OUTPUT_SUFFIX = ".out";
+
+    private final InvestmentHelper investmentHelper;
+    private final InvestmentService investmentService;
+
+    public BatchInvestmentProcessor(
+            InvestmentHelper investmentHelper, InvestmentService investmentService) {
+        this.investmentHelper = investmentHelper;
+        this.investmentService = investmentService;
+    }
+
+    public BatchSummaryDTO processBatch(Path input, Path outputDir) throws IOException {
+        return processBatch(input, outputDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param input a directory of command files, or a manifest listing one command file per line
+     * @param outputDir directory receiving one output file per input file
+     * @param parallelism number of files processed at the same time
+     * @throws IOException also if two input files would write the same output file, or if the
+     * outputs would be written into the input directory, where the next run would read them
+     */
+    public BatchSummaryDTO processBatch(Path input, Path outputDir, int parallelism)
+            throws IOException {
+        if (Files.isDirectory(input) && Files.isDirectory(outputDir) && Files.isSameFile(input, outputDir)) {
+            throw new IOException("The outputs of " + input + " would be read as inputs by the next batch, "
+                    + "please choose another output directory");
+        }
+        List<Path> files = resolveInputFiles(input);
+        checkOutputNames(files);
+        Files.createDirectories(outputDir);
+        log.info("Processing {} files with a parallelism of {}", files.size(), parallelism);
+
+        long[] latencies = new long[files.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        long start = System.nanoTime();
+        int failures = 0;
+        try {
+            List<Future<Boolean>> results = new ArrayList<>(files.size());
+            for (int index = 0; index < files.size(); index++) {
+                int fileIndex = index;
+                results.add(executor.submit(
+                        () -> processFile(fileIndex, files.get(fileIndex), outputDir, latencies)));
+            }
+            for (Future<Boolean> result : results) {
+                if (!result.get()) {
+                    failures++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The batch was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("The batch failed unexpectedly", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        BatchSummaryDTO summary =
+                new BatchSummaryDTO(files.size(), failures, System.nanoTime() - start, latencies);
+        log.info("Batch completed: {}", summary);
+        return summary;
+    }
+
+    private boolean processFile(int index, Path file, Path outputDir, long[] latencies) {
+        String portfolioId = "batch-" + index;
+        Path outputFile = outputDir.resolve(file.getFileName() + OUTPUT_SUFFIX);
+        long start = System.nanoTime();
+        boolean processed = processFile(portfolioId, file, outputFile);
+        try {
+            investmentService.close(portfolioId);
+        } catch (RuntimeException e) {
+            log.error("Failed to close the portfolio of {}: {}", file, e.getMessage());
+            processed = false;
+        }
+        latencies[index] = System.nanoTime() - start;
+        return processed;
+    }
+
+    private boolean processFile(String portfolioId, Path file, Path outputFile) {
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             CommandWriter out = new CommandWriter(channel)) {
+            investmentHelper.processInvestment(portfolioId, file.toString(), out);
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to process {}: {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    private static void checkOutputNames(List<Path> files) throws IOException {
+        Map<String, Path> filesByName = new HashMap<>();
+        for (Path file : files) {
+            Path previous = filesByName.putIfAbsent(file.getFileName().toString().toLowerCase(Locale.ROOT), file);
+            if (Objects.nonNull(previous)) {
+                throw new IOException("The files " + previous + " and " + file
+                        + " would write the same output file, please give them distinct names");
+            }
+        }
+    }
+
+    private List<Path> resolveInputFiles(Path input) throws IOException {
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> files = Files.list(input)) {
+                return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+        }
+        Path baseDir = input.toAbsolutePath().getParent();
+        try (Stream<String> lines = Files.lines(input)) {
+            return lines.map(String::trim)
+                    .filter(line -> !InvestmentHelper.isNullOrEmpty(line))
+                    .map(baseDir::resolve)
+                    .collect(Collectors.toList());
+        }
+    }
+}
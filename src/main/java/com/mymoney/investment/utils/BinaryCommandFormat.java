@@ -0,0 +1,176 @@
+package com.mymoney.investment.utils;
+
+import com.mymoney.investment.dto.CommandDTO;
+import com.mymoney.investment.enums.SupportedOperations;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.InputMismatchException;
+import java.util.List;
+
+/**
+ * Compact binary form of a command file, read back without parsing by {@link BinaryCommandReader}.
+ *
+ * <p>Little-endian layout:
+ * <pre>
+ * header:  [int magic][int version][int valueCount][int nameCount][long recordCount]
+ *          ([short length][ASCII name])* padded with zeros to a multiple of 8 bytes
+ * record:  [byte operation][3 bytes padding][int month index, -1 if none][double value] * valueCount
+ * </pre>
+ * Every record has the same width, so record {@code n} starts at
+ * {@code headerSize + n * (8 + 8 * valueCount)}. The asset names of an ASSETS command, which is
+ * only allowed as the first command, are kept in the header.
+ */
+public final class BinaryCommandFormat {
+
+    /** {@code MMCB} in little-endian order. */
+    public static final int MAGIC = 0x42434D4D;
+    public static final int VERSION = 1;
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final int FIXED_HEADER_BYTES = 24;
+    static final int RECORD_COUNT_OFFSET = 16;
+    static final int NO_MONTH = -1;
+
+    private static final SupportedOperations[] OPERATIONS = SupportedOperations.values();
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private BinaryCommandFormat() {
+    }
+
+    public static int recordBytes(int valueCount) {
+        return 8 + 8 * valueCount;
+    }
+
+    static SupportedOperations operationOf(byte ordinal) {
+        if (ordinal < 0 || ordinal >= OPERATIONS.length) {
+            throw new InputMismatchException("Unknown operation " + ordinal + " in the binary commands");
+        }
+        return OPERATIONS[ordinal];
+    }
+
+    /**
+     * @return whether the channel starts with the magic number of the format; its position is
+     * left untouched
+     */
+    public static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ORDER);
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, magic.position()) < 0) {
+                return false;
+            }
+        }
+        return magic.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Converts a text command file into the binary format.
+     *
+     * @param defaultAssetCount number of amounts or rates per command unless the file starts with
+     *                          an ASSETS command
+     * @return the number of commands written
+     * @throws InputMismatchException naming the line of the first invalid command
+     */
+    public static long convert(Path textFile, Path binaryFile, int defaultAssetCount) throws IOException {
+        try (CommandReader reader = new CommandReader(FileChannel.open(textFile, StandardOpenOption.READ));
+             FileChannel out = FileChannel.open(binaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            CommandDTO command = new CommandDTO();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ORDER);
+            int valueCount = defaultAssetCount;
+            boolean headerWritten = false;
+            long records = 0;
+            long lineNumber = 0;
+            while (reader.nextLine()) {
+                lineNumber++;
+                byte[] line = reader.buffer();
+                if (CommandParser.isBlank(line, reader.lineStart(), reader.lineEnd())) {
+                    continue;
+                }
+                try {
+                    CommandParser.parse(line, reader.lineStart(), reader.lineEnd(), valueCount, command);
+                } catch (RuntimeException e) {
+                    throw new InputMismatchException("Line " + lineNumber + " of " + textFile + ": " + e.getMessage());
+                }
+                if (command.getOperation() == SupportedOperations.ASSETS) {
+                    if (headerWritten) {
+                        throw new InputMismatchException(
+                                "Line " + lineNumber + " of " + textFile + ": ASSETS must be the first command");
+                    }
+                    valueCount = command.getAssetNames().size();
+                    writeHeader(buffer, valueCount, command.getAssetNames());
+                    headerWritten = true;
+                    continue;
+                }
+                if (command.getOperation() == SupportedOperations.POLICY) {
+                    throw new InputMismatchException("Line " + lineNumber + " of " + textFile
+                            + ": POLICY commands are not supported in binary files");
+                }
+                if (!headerWritten) {
+                    writeHeader(buffer, valueCount, List.of());
+                    headerWritten = true;
+                }
+                if (buffer.remaining() < recordBytes(valueCount)) {
+                    flush(buffer, out);
+                }
+                writeRecord(buffer, command, valueCount);
+                records++;
+            }
+            if (!headerWritten) {
+                writeHeader(buffer, valueCount, List.of());
+            }
+            flush(buffer, out);
+            ByteBuffer count = ByteBuffer.allocate(Long.BYTES).order(ORDER).putLong(0, records);
+            out.write(count, RECORD_COUNT_OFFSET);
+            return records;
+        }
+    }
+
+    private static void writeHeader(ByteBuffer buffer, int valueCount, List<String> names) {
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(valueCount).putInt(names.size()).putLong(0);
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+        while (buffer.position() % Long.BYTES != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void writeRecord(ByteBuffer buffer, CommandDTO command, int valueCount) {
+        SupportedOperations operation = command.getOperation();
+        buffer.put((byte) operation.ordinal()).put((byte) 0).putShort((short) 0);
+        buffer.putInt(command.getMonth() == null ? NO_MONTH : command.getMonthIndex());
+        boolean hasValues = command.getValues().length == valueCount && hasValues(operation);
+        for (int index = 0; index < valueCount; index++) {
+            buffer.putDouble(hasValues ? command.getValues()[index] : 0);
+        }
+    }
+
+    static boolean hasValues(SupportedOperations operation) {
+        switch (operation) {
+            case ALLOCATE:
+            case SIP:
+            case CHANGE:
+            case CHANGE_OVERRIDE:
+            case MARKET_CHANGE:
+            case MARKET_CHANGE_OVERRIDE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
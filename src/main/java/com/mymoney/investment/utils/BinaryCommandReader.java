@@ -0,0 +1,142 @@
+package com.mymoney.investment.utils;
+
+import com.mymoney.investment.dto.CommandDTO;
+import com.mymoney.investment.enums.SupportedOperations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.InputMismatchException;
+import java.util.List;
+
+/**
+ * Reads a file of the {@link BinaryCommandFormat} through memory mapped windows. Commands are
+ * decoded straight from the mapping into the reusable {@link CommandDTO}, with no parsing and no
+ * per-command allocation.
+ *
+ * <p>When the header holds asset names, the first command returned is the matching ASSETS.
+ */
+public class BinaryCommandReader implements Closeable {
+
+    /** Largest window mapped at once, kept below the 2 GB limit of a single mapping. */
+    private static final long MAX_WINDOW_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final int valueCount;
+    private final List<String> assetNames;
+    private final int recordBytes;
+    private final long recordCount;
+    private final long recordsPerWindow;
+    private final long dataStart;
+    private MappedByteBuffer window;
+    private long windowFirstRecord;
+    private long nextRecord;
+    private boolean assetsPending;
+
+    public BinaryCommandReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        MappedByteBuffer header =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAX_WINDOW_BYTES));
+        header.order(BinaryCommandFormat.ORDER);
+        if (header.limit() < BinaryCommandFormat.FIXED_HEADER_BYTES
+                || header.getInt() != BinaryCommandFormat.MAGIC
+                || header.getInt() != BinaryCommandFormat.VERSION) {
+            throw new InputMismatchException("The file is not in the binary command format");
+        }
+        valueCount = header.getInt();
+        int nameCount = header.getInt();
+        recordCount = header.getLong();
+        List<String> names = new ArrayList<>(Math.max(nameCount, 0));
+        try {
+            for (int index = 0; index < nameCount; index++) {
+                byte[] name = new byte[header.getShort()];
+                header.get(name);
+                names.add(new String(name, StandardCharsets.US_ASCII));
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new InputMismatchException("The binary commands are truncated");
+        }
+        assetNames = Collections.unmodifiableList(names);
+        assetsPending = nameCount > 0;
+        dataStart = (header.position() + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+        recordBytes = BinaryCommandFormat.recordBytes(valueCount);
+        if (valueCount < 0 || recordCount < 0 || dataStart + recordCount * recordBytes > channel.size()) {
+            throw new InputMismatchException("The binary commands are truncated");
+        }
+        recordsPerWindow = Math.max(1, MAX_WINDOW_BYTES / recordBytes);
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    public List<String> getAssetNames() {
+        return assetNames;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Decodes the next command into {@code command}.
+     *
+     * @return false once every command has been read
+     */
+    public boolean next(CommandDTO command) throws IOException {
+        if (assetsPending) {
+            assetsPending = false;
+            command.setOperation(SupportedOperations.ASSETS);
+            command.getAssetNames().clear();
+            command.getAssetNames().addAll(assetNames);
+            command.setMonth(null);
+            return true;
+        }
+        if (nextRecord == recordCount) {
+            return false;
+        }
+        if (window == null || nextRecord - windowFirstRecord == recordsPerWindow) {
+            map(nextRecord);
+        }
+        int offset = (int) ((nextRecord - windowFirstRecord) * recordBytes);
+        SupportedOperations operation = BinaryCommandFormat.operationOf(window.get(offset));
+        command.setOperation(operation);
+        int month = window.getInt(offset + Integer.BYTES);
+        if (month == BinaryCommandFormat.NO_MONTH) {
+            command.setMonth(null);
+            command.setYear(Timeline.FIRST_YEAR);
+        } else if (Timeline.isInPlan(month)) {
+            command.setMonthIndex(month);
+        } else {
+            throw new InputMismatchException("The month index " + month + " is out of the plan");
+        }
+        if (BinaryCommandFormat.hasValues(operation)) {
+            double[] values = command.valuesOfSize(valueCount);
+            int valueOffset = offset + Long.BYTES;
+            for (int index = 0; index < valueCount; index++) {
+                values[index] = window.getDouble(valueOffset + index * Double.BYTES);
+            }
+        }
+        nextRecord++;
+        return true;
+    }
+
+    private void map(long firstRecord) throws IOException {
+        long records = Math.min(recordsPerWindow, recordCount - firstRecord);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + firstRecord * recordBytes,
+                records * recordBytes);
+        window.order(BinaryCommandFormat.ORDER);
+        windowFirstRecord = firstRecord;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,257 @@
+package com.mymoney.investment.utils;
+
+import com.mymoney.investment.dto.CommandDTO;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.enums.SupportedOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Month;
+import java.util.InputMismatchException;
+import java.util.List;
+
+/**
+ * Tokenizes MyMoney command lines straight from bytes, without regex, splitting or intermediate
+ * strings. Numbers and percentages are parsed into the reusable {@link CommandDTO}.
+ */
+public final class CommandParser {
+
+    private static final SupportedOperations[] OPERATIONS = SupportedOperations.values();
+    private static final byte[][] OPERATION_NAMES = names(OPERATIONS);
+    private static final Month[] MONTHS = Month.values();
+    private static final byte[][] MONTH_NAMES = names(MONTHS);
+
+    /** Largest mantissa for which {@code mantissa / 10^n} is exactly what parseDouble returns. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int index = 1; index < POWERS_OF_TEN.length; index++) {
+            POWERS_OF_TEN[index] = POWERS_OF_TEN[index - 1] * 10;
+        }
+    }
+
+    private CommandParser() {
+    }
+
+    /**
+     * Parses the line held in {@code line[from, to)} into {@code command}.
+     *
+     * @param supportedAssets number of amounts or rates the portfolio expects per command
+     */
+    public static CommandDTO parse(
+            byte[] line, int from, int to, int supportedAssets, CommandDTO command) {
+        int position = skipSpaces(line, from, to);
+        int end = tokenEnd(line, position, to);
+        SupportedOperations operation = match(line, position, end, OPERATIONS, OPERATION_NAMES);
+        if (operation == null) {
+            throw new IllegalArgumentException(
+                    "No enum constant " + SupportedOperations.class.getCanonicalName() + "."
+                            + new String(line, position, end - position, StandardCharsets.US_ASCII));
+        }
+        command.setOperation(operation);
+        command.setMonth(null);
+        command.setYear(Timeline.FIRST_YEAR);
+        position = end;
+        switch (operation) {
+            case ALLOCATE:
+            case SIP:
+                position = parseValues(line, position, to, command.valuesOfSize(supportedAssets), false);
+                break;
+            case CHANGE:
+            case CHANGE_OVERRIDE:
+            case MARKET_CHANGE:
+            case MARKET_CHANGE_OVERRIDE:
+                position = parseValues(line, position, to, command.valuesOfSize(supportedAssets), true);
+                position = position < 0 ? position : parseMonth(line, position, to, command);
+                break;
+            case BALANCE:
+                position = parseMonth(line, position, to, command);
+                break;
+            case REBALANCE:
+                return command;
+            case ASSETS:
+                position = parseNames(line, position, to, command.getAssetNames());
+                break;
+            case POLICY:
+                command.setPolicy(RebalancePolicy.parse(
+                        new String(line, position, to - position, StandardCharsets.US_ASCII)));
+                return command;
+            default:
+                break;
+        }
+        if (position < 0 || skipSpaces(line, position, to) != to) {
+            throw mismatch(line, from, to);
+        }
+        return command;
+    }
+
+    public static boolean isBlank(byte[] line, int from, int to) {
+        return skipSpaces(line, from, to) == to;
+    }
+
+    /**
+     * @return the position after the last value, or -1 if the line holds too few values
+     */
+    private static int parseValues(
+            byte[] line, int position, int to, double[] values, boolean percentage) {
+        for (int index = 0; index < values.length; index++) {
+            int start = skipSpaces(line, position, to);
+            int end = tokenEnd(line, start, to);
+            if (start == end) {
+                return -1;
+            }
+            int numberEnd = percentage && line[end - 1] == '%' ? end - 1 : end;
+            values[index] = parseDouble(line, start, numberEnd);
+            position = end;
+        }
+        return position;
+    }
+
+    /**
+     * @return the end of the line, or -1 if it holds no name
+     */
+    private static int parseNames(byte[] line, int position, int to, List<String> names) {
+        names.clear();
+        for (int start = skipSpaces(line, position, to); start < to; start = skipSpaces(line, position, to)) {
+            position = tokenEnd(line, start, to);
+            names.add(new String(line, start, position - start, StandardCharsets.US_ASCII));
+        }
+        return names.isEmpty() ? -1 : to;
+    }
+
+    private static int parseMonth(byte[] line, int position, int to, CommandDTO command) {
+        int start = skipSpaces(line, position, to);
+        int end = tokenEnd(line, start, to);
+        if (start == end) {
+            return -1;
+        }
+        Month month = match(line, start, end, MONTHS, MONTH_NAMES);
+        if (month == null) {
+            throw new IllegalArgumentException(
+                    "No enum constant " + Month.class.getCanonicalName() + "."
+                            + new String(line, start, end - start, StandardCharsets.US_ASCII));
+        }
+        command.setMonth(month);
+        int yearStart = skipSpaces(line, end, to);
+        int yearEnd = tokenEnd(line, yearStart, to);
+        if (yearStart == yearEnd) {
+            return end;
+        }
+        command.setYear(parseYear(line, yearStart, yearEnd));
+        return yearEnd;
+    }
+
+    /**
+     * Parses the optional, 1-based year of the plan that may follow a month.
+     */
+    private static int parseYear(byte[] line, int from, int to) {
+        int year = 0;
+        for (int position = from; position < to; position++) {
+            byte current = line[position];
+            if (current < '0' || current > '9') {
+                throw new InputMismatchException(
+                        "Invalid year " + new String(line, from, to - from, StandardCharsets.US_ASCII));
+            }
+            year = year * 10 + (current - '0');
+            if (year > Timeline.MAX_YEARS) {
+                throw new InputMismatchException("The plan covers at most " + Timeline.MAX_YEARS + " years");
+            }
+        }
+        if (year < Timeline.FIRST_YEAR) {
+            throw new InputMismatchException("The year of the plan starts at " + Timeline.FIRST_YEAR);
+        }
+        return year;
+    }
+
+    /**
+     * Parses a plain decimal number such as {@code -12.50}. Anything more exotic falls back to
+     * {@link Double#parseDouble(String)}.
+     */
+    static double parseDouble(byte[] line, int from, int to) {
+        int position = from;
+        boolean negative = false;
+        if (position < to && (line[position] == '-' || line[position] == '+')) {
+            negative = line[position] == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int fractionDigits = -1;
+        int digits = 0;
+        for (; position < to; position++) {
+            byte current = line[position];
+            if (current >= '0' && current <= '9') {
+                mantissa = mantissa * 10 + (current - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return slowParse(line, from, to);
+                }
+            } else if (current == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return slowParse(line, from, to);
+            }
+        }
+        if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return slowParse(line, from, to);
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(byte[] line, int from, int to) {
+        return Double.parseDouble(new String(line, from, to - from, StandardCharsets.US_ASCII));
+    }
+
+    private static <T> T match(byte[] line, int from, int to, T[] candidates, byte[][] names) {
+        int length = to - from;
+        for (int index = 0; index < names.length; index++) {
+            byte[] name = names[index];
+            if (name.length != length) {
+                continue;
+            }
+            int offset = 0;
+            while (offset < length && name[offset] == line[from + offset]) {
+                offset++;
+            }
+            if (offset == length) {
+                return candidates[index];
+            }
+        }
+        return null;
+    }
+
+    private static int skipSpaces(byte[] line, int position, int to) {
+        while (position < to && isSpace(line[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int tokenEnd(byte[] line, int position, int to) {
+        while (position < to && !isSpace(line[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isSpace(byte value) {
+        return value == ' ' || value == '\t' || value == '\r';
+    }
+
+    private static InputMismatchException mismatch(byte[] line, int from, int to) {
+        return new InputMismatchException(
+                "Please check the command " + new String(line, from, to - from, StandardCharsets.US_ASCII));
+    }
+
+    private static byte[][] names(Enum<?>[] constants) {
+        byte[][] names = new byte[constants.length][];
+        for (int index = 0; index < constants.length; index++) {
+            names[index] = constants[index].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        return names;
+    }
+}
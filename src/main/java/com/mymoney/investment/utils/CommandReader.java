@@ -0,0 +1,108 @@
+package com.mymoney.investment.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a channel one line at a time through a single reusable buffer, so memory stays flat no
+ * matter how large the input is. The current line is exposed as a byte range of {@link #buffer()}
+ * and is only valid until the next call to {@link #nextLine()}.
+ */
+public class CommandReader implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int limit;
+    private int lineStart;
+    private int lineEnd;
+    private int nextStart;
+    private boolean endOfInput;
+
+    public CommandReader(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CommandReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = new byte[bufferSize];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * @return false once every line has been consumed
+     */
+    public boolean nextLine() throws IOException {
+        int scan = nextStart;
+        while (true) {
+            for (; scan < limit; scan++) {
+                if (buffer[scan] == '\n') {
+                    lineStart = nextStart;
+                    lineEnd = trimCarriageReturn(scan);
+                    nextStart = scan + 1;
+                    return true;
+                }
+            }
+            if (endOfInput) {
+                if (nextStart == limit) {
+                    return false;
+                }
+                lineStart = nextStart;
+                lineEnd = trimCarriageReturn(limit);
+                nextStart = limit;
+                return true;
+            }
+            scan -= nextStart;
+            fill();
+        }
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int lineStart() {
+        return lineStart;
+    }
+
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    private int trimCarriageReturn(int end) {
+        return end > nextStart && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Moves the partial line to the front of the buffer, growing it only for over-long lines, and
+     * reads more input behind it.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - nextStart;
+        if (nextStart > 0) {
+            System.arraycopy(buffer, nextStart, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            view = ByteBuffer.wrap(buffer);
+        }
+        nextStart = 0;
+        limit = remaining;
+        view.clear().position(limit);
+        int read = channel.read(view);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
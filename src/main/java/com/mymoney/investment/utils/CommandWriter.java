@@ -0,0 +1,183 @@
+package com.mymoney.investment.utils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Writes the output lines of commands, the counterpart of {@link CommandReader}. Amounts are
+ * written as ASCII digits straight into a byte buffer, with no intermediate String, and the buffer
+ * is handed to the stream or channel in blocks of about {@value #FLUSH_BYTES} bytes, so a replay
+ * of millions of commands makes a few hundred writes.
+ *
+ * <p>Appending never writes to the target, even when the buffer has to grow, so lines can be
+ * appended while holding a lock; only {@link #endLine()} and {@link #flush()} do. Buffers are
+ * borrowed from a small pool and returned on {@link #close()}, which flushes but leaves the target
+ * open. A writer is used by one thread at a time.
+ */
+public final class CommandWriter implements Flushable, Closeable {
+
+    static final int FLUSH_BYTES = 60 * 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final ArrayBlockingQueue<byte[]> POOL =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    private final OutputStream stream;
+    private final WritableByteChannel channel;
+    private byte[] buffer;
+    private int position;
+
+    public CommandWriter(OutputStream stream) {
+        this(Objects.requireNonNull(stream), null);
+    }
+
+    public CommandWriter(WritableByteChannel channel) {
+        this(null, Objects.requireNonNull(channel));
+    }
+
+    private CommandWriter(OutputStream stream, WritableByteChannel channel) {
+        this.stream = stream;
+        this.channel = channel;
+        byte[] pooled = POOL.poll();
+        this.buffer = Objects.isNull(pooled) ? new byte[BUFFER_BYTES] : pooled;
+    }
+
+    public CommandWriter append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(MIN_LONG, 0, MIN_LONG.length);
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int end = position + digitsOf(value);
+        for (int index = end - 1; index >= position; index--) {
+            buffer[index] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position = end;
+        return this;
+    }
+
+    public CommandWriter append(char value) {
+        if (value >= 0x80) {
+            return append(String.valueOf(value));
+        }
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Appends the text, in UTF-8 if it is not plain ASCII.
+     */
+    public CommandWriter append(CharSequence text) {
+        int length = text.length();
+        ensureCapacity(length);
+        for (int index = 0; index < length; index++) {
+            char value = text.charAt(index);
+            if (value >= 0x80) {
+                byte[] rest = text.subSequence(index, length).toString().getBytes(StandardCharsets.UTF_8);
+                return append(rest, 0, rest.length);
+            }
+            buffer[position++] = (byte) value;
+        }
+        return this;
+    }
+
+    public CommandWriter append(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    /**
+     * Ends the line, like {@link java.io.PrintStream#println()}, and writes the buffer out once it
+     * holds a full block.
+     */
+    public void endLine() throws IOException {
+        append(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+        if (position >= FLUSH_BYTES) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * @return the number of bytes appended but not written yet
+     */
+    public int pending() {
+        return position;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+        if (Objects.nonNull(stream)) {
+            stream.flush();
+        }
+    }
+
+    /**
+     * Flushes the lines and returns the buffer to the pool. The target stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (Objects.isNull(buffer)) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            if (buffer.length == BUFFER_BYTES) {
+                POOL.offer(buffer);
+            }
+            buffer = null;
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (position == 0) {
+            return;
+        }
+        if (Objects.nonNull(stream)) {
+            stream.write(buffer, 0, position);
+        } else {
+            ByteBuffer block = ByteBuffer.wrap(buffer, 0, position);
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+        }
+        position = 0;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (Objects.isNull(buffer)) {
+            throw new IllegalStateException("The writer is closed");
+        }
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+
+    static int digitsOf(long value) {
+        long bound = 10;
+        for (int digits = 1; digits < 19; digits++) {
+            if (value < bound) {
+                return digits;
+            }
+            bound *= 10;
+        }
+        return 19;
+    }
+}
@@ -3,4 +3,8 @@ package com.mymoney.investment.utils;
 public class Constants {
 
     public static final String SHELL_PROMPT = "my-money-cli> ";
+
+    public static final String DEFAULT_PORTFOLIO = "default";
+
+    public static final int DEFAULT_SERVER_PORT = 7070;
 }
@@ -0,0 +1,232 @@
+package com.mymoney.investment.utils;
+
+import com.mymoney.investment.enums.SupportedOperations;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of the investment engine: parse time, latency and allocation of every
+ * command type, months computed per balance query, balance cache hits and misses and rebalances.
+ *
+ * <p>Every recording method is lock-free and allocation-free, so it stays on the hot path. The
+ * metrics are exported over JMX as {@value #OBJECT_NAME} and as text by {@link #report()}.
+ */
+@Slf4j
+public class EngineMetrics implements EngineMetricsMXBean, Closeable {
+
+    public static final String OBJECT_NAME = "com.mymoney.investment:type=EngineMetrics";
+
+    private static final SupportedOperations[] OPERATIONS = SupportedOperations.values();
+
+    private final LogHistogram parseNanos = new LogHistogram();
+    private final LogHistogram[] commandNanos = histograms(OPERATIONS.length);
+    private final LogHistogram[] commandAllocatedBytes = histograms(OPERATIONS.length);
+    private final LogHistogram monthsPerBalanceQuery = new LogHistogram();
+    private final LongAdder failedCommands = new LongAdder();
+    private final LongAdder rebalances = new LongAdder();
+    private final LongAdder balanceCacheHits = new LongAdder();
+    private final LongAdder balanceCacheMisses = new LongAdder();
+    /** Null unless the allocation of every command is measured. */
+    private final com.sun.management.ThreadMXBean allocationMeter;
+    private ObjectName registeredName;
+
+    public EngineMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param trackAllocation measure the bytes every command allocates on its thread, where the JVM
+     *                        supports it; it costs a native call before and after each command
+     */
+    public EngineMetrics(boolean trackAllocation) {
+        this.allocationMeter = trackAllocation ? allocationMeter() : null;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMeter() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean meter = (com.sun.management.ThreadMXBean) threadBean;
+            if (meter.isThreadAllocatedMemorySupported()) {
+                meter.setThreadAllocatedMemoryEnabled(true);
+                return meter;
+            }
+        }
+        log.warn("The JVM does not measure thread allocation; allocation per command is not tracked");
+        return null;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or 0 if allocation is not tracked
+     */
+    public long allocatedBytes() {
+        return Objects.isNull(allocationMeter)
+                ? 0
+                : allocationMeter.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public boolean isTrackingAllocation() {
+        return Objects.nonNull(allocationMeter);
+    }
+
+    public void recordParse(long nanos) {
+        parseNanos.record(nanos);
+    }
+
+    public void recordCommand(SupportedOperations operation, long nanos, long allocatedBytes) {
+        commandNanos[operation.ordinal()].record(nanos);
+        if (Objects.nonNull(allocationMeter)) {
+            commandAllocatedBytes[operation.ordinal()].record(allocatedBytes);
+        }
+    }
+
+    public void recordFailure() {
+        failedCommands.increment();
+    }
+
+    /**
+     * Records a balance query, a hit when every month it needed was already calculated.
+     */
+    public void recordBalanceQuery(int monthsComputed) {
+        monthsPerBalanceQuery.record(monthsComputed);
+        if (monthsComputed == 0) {
+            balanceCacheHits.increment();
+        } else {
+            balanceCacheMisses.increment();
+        }
+    }
+
+    public void recordRebalance() {
+        rebalances.increment();
+    }
+
+    public LogHistogram getParseNanos() {
+        return parseNanos;
+    }
+
+    public LogHistogram getCommandNanos(SupportedOperations operation) {
+        return commandNanos[operation.ordinal()];
+    }
+
+    public LogHistogram getCommandAllocatedBytes(SupportedOperations operation) {
+        return commandAllocatedBytes[operation.ordinal()];
+    }
+
+    public LogHistogram getMonthsPerBalanceQuery() {
+        return monthsPerBalanceQuery;
+    }
+
+    @Override
+    public long getCommandCount() {
+        long commands = 0;
+        for (LogHistogram histogram : commandNanos) {
+            commands += histogram.getCount();
+        }
+        return commands;
+    }
+
+    @Override
+    public long getFailedCommandCount() {
+        return failedCommands.sum();
+    }
+
+    @Override
+    public long getRebalanceCount() {
+        return rebalances.sum();
+    }
+
+    @Override
+    public long getBalanceCacheHits() {
+        return balanceCacheHits.sum();
+    }
+
+    @Override
+    public long getBalanceCacheMisses() {
+        return balanceCacheMisses.sum();
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+
+    /**
+     * @return one metric per line, {@code <name> <value>} for counters and
+     * {@code <name> count=.. mean=.. p50=.. p99=.. p999=.. max=..} for histograms
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(2048);
+        line(report, "commands.total", getCommandCount());
+        line(report, "commands.failed", getFailedCommandCount());
+        line(report, "parse.nanos", parseNanos.summary());
+        for (SupportedOperations operation : OPERATIONS) {
+            LogHistogram latency = getCommandNanos(operation);
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            line(report, "command." + operation + ".nanos", latency.summary());
+            if (Objects.nonNull(allocationMeter)) {
+                line(report, "command." + operation + ".allocated.bytes",
+                        getCommandAllocatedBytes(operation).summary());
+            }
+        }
+        line(report, "balance.months.computed", monthsPerBalanceQuery.summary());
+        line(report, "balance.cache.hits", getBalanceCacheHits());
+        line(report, "balance.cache.misses", getBalanceCacheMisses());
+        line(report, "rebalances", getRebalanceCount());
+        report.setLength(report.length() - 1);
+        return report.toString();
+    }
+
+    private static void line(StringBuilder report, String name, Object value) {
+        report.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. A failure is logged, never thrown:
+     * the engine runs the same without JMX.
+     */
+    public synchronized EngineMetrics registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                log.warn("Replacing the metrics already registered as {}", name);
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            log.warn("Failed to register the engine metrics with JMX", e);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (Objects.isNull(registeredName)) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            log.debug("The engine metrics were already unregistered", e);
+        }
+        registeredName = null;
+    }
+
+    private static LogHistogram[] histograms(int count) {
+        LogHistogram[] histograms = new LogHistogram[count];
+        for (int index = 0; index < count; index++) {
+            histograms[index] = new LogHistogram();
+        }
+        return histograms;
+    }
+}
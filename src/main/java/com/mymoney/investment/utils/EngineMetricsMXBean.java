@@ -0,0 +1,22 @@
+package com.mymoney.investment.utils;
+
+/**
+ * JMX view of the {@link EngineMetrics}, registered as {@value EngineMetrics#OBJECT_NAME}.
+ */
+public interface EngineMetricsMXBean {
+
+    long getCommandCount();
+
+    long getFailedCommandCount();
+
+    long getRebalanceCount();
+
+    long getBalanceCacheHits();
+
+    long getBalanceCacheMisses();
+
+    /**
+     * @return every metric in the text format of {@link EngineMetrics#report()}
+     */
+    String getReport();
+}
@@ -1,22 +1,19 @@
 package com.mymoney.investment.utils;
 
-import com.mymoney.investment.enums.Assets;
-import com.mymoney.investment.enums.SupportedOperations;
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.CommandDTO;
 import com.mymoney.investment.service.InvestmentService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.time.Month;
-import java.util.Arrays;
-import java.util.InputMismatchException;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import java.util.zip.DataFormatException;
 
 @Service
@@ -25,98 +22,278 @@ public class InvestmentHelper {
 
     private final InvestmentService investmentService;
 
+    private final EngineMetrics metrics;
+
     public InvestmentHelper(InvestmentService investmentService) {
+        this(investmentService, new EngineMetrics());
+    }
+
+    @Autowired
+    public InvestmentHelper(InvestmentService investmentService, EngineMetrics metrics) {
         this.investmentService = investmentService;
+        this.metrics = metrics;
     }
 
 
-    public List<String> processInvestment(String file) throws IOException {
-        try {
-            Stream<String> lines = Files.lines(Paths.get(file));
+    public long processInvestment(String file) throws IOException {
+        return processInvestment(Constants.DEFAULT_PORTFOLIO, file);
+    }
+
+    public long processInvestment(String portfolioId, String file) throws IOException {
+        return processInvestment(portfolioId, file, System.out);
+    }
 
-            List<String> outputs =
-                    lines.filter(line -> !isNullOrEmpty(line))
-                            .map(this::processLine)
-                            .collect(Collectors.toList());
+    /**
+     * Streams every command of the given file against the portfolio, writing the results to the
+     * supplied stream in large blocks through a {@link CommandWriter}.
+     *
+     * @return the number of commands processed
+     */
+    public long processInvestment(String portfolioId, String file, PrintStream out)
+            throws IOException {
+        try (CommandWriter writer = new CommandWriter(out)) {
+            return processInvestment(portfolioId, file, writer);
+        }
+    }
+
+    /**
+     * Streams every command of the given file against the portfolio, appending each result to the
+     * writer. Files in the {@link BinaryCommandFormat} are recognized by their header and read
+     * without parsing. The writer is not flushed at the end.
+     *
+     * @return the number of commands processed
+     */
+    public long processInvestment(String portfolioId, String file, CommandWriter out)
+            throws IOException {
+        try (FileChannel channel = openCommandFile(file)) {
+            if (BinaryCommandFormat.isBinary(channel)) {
+                try (BinaryCommandReader reader = new BinaryCommandReader(channel)) {
+                    return processBinary(portfolioId, reader, out);
+                }
+            }
+            try (CommandReader reader = new CommandReader(channel)) {
+                return processText(portfolioId, reader, out);
+            }
+        }
+    }
 
-            outputs.stream().filter(Objects::nonNull).forEach(System.out::println);
-            return outputs;
+    private static FileChannel openCommandFile(String file) throws IOException {
+        try {
+            return FileChannel.open(Paths.get(file), StandardOpenOption.READ);
         } catch (IOException e) {
             log.error("Invalid file, not able to process");
             throw new IOException("Invalid file, Please check and provide the correct file");
         }
     }
 
-    private String processLine(String line) {
-        String output = null;
-        int supportedAssets = investmentService.getSupportedAssets();
-        String[] commandAndInputs = line.split(" ");
+    private long processText(String portfolioId, CommandReader reader, CommandWriter out) throws IOException {
+        CommandDTO command = new CommandDTO();
+        long processed = 0;
+        while (reader.nextLine()) {
+            byte[] line = reader.buffer();
+            if (CommandParser.isBlank(line, reader.lineStart(), reader.lineEnd())) {
+                continue;
+            }
+            try {
+                execute(portfolioId, line, reader.lineStart(), reader.lineEnd(), command, out);
+            } catch (Exception e) {
+                out.append("Error Occurred while processing ")
+                        .append(new String(line, reader.lineStart(), reader.lineEnd() - reader.lineStart(),
+                                StandardCharsets.US_ASCII))
+                        .append(String.valueOf(e.getMessage()));
+                out.endLine();
+            }
+            processed++;
+        }
+        return processed;
+    }
+
+    private long processBinary(String portfolioId, BinaryCommandReader reader, CommandWriter out)
+            throws IOException {
+        CommandDTO command = new CommandDTO();
+        long processed = 0;
+        while (reader.next(command)) {
+            try {
+                execute(portfolioId, command, out);
+            } catch (Exception e) {
+                out.append("Error Occurred while processing ").append(command.getOperation().toString())
+                        .append(' ').append(String.valueOf(e.getMessage()));
+                out.endLine();
+            }
+            processed++;
+        }
+        return processed;
+    }
+
+    /**
+     * Converts a text command file into the {@link BinaryCommandFormat}, with as many amounts or
+     * rates per command as the default portfolio has assets unless the file defines its own.
+     *
+     * @return the number of commands written
+     */
+    public long convert(String textFile, String binaryFile) throws IOException {
+        return BinaryCommandFormat.convert(Paths.get(textFile), Paths.get(binaryFile),
+                investmentService.getSupportedAssets(Constants.DEFAULT_PORTFOLIO));
+    }
+
+    /**
+     * Runs a single command line against the portfolio.
+     *
+     * @return the output of the command, or null if the command has none
+     */
+    public String processLine(String portfolioId, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        return processLine(portfolioId, bytes, 0, bytes.length, new CommandDTO(), System.out);
+    }
+
+    private String processLine(
+            String portfolioId, byte[] line, int from, int to, CommandDTO command, PrintStream out) {
         try {
-            SupportedOperations command = SupportedOperations.valueOf(commandAndInputs[0]);
-            switch (command) {
-                case ALLOCATE:
-                    validateInputSize(commandAndInputs, supportedAssets);
-                    List<Double> allocations = getDoubleValues(1, supportedAssets, commandAndInputs);
-                    investmentService.allocate(allocations);
-                    break;
-                case SIP:
-                    validateInputSize(commandAndInputs, supportedAssets);
-                    List<Double> sips = getDoubleValues(1, supportedAssets, commandAndInputs);
-                    investmentService.sip(sips);
-                    break;
-                case CHANGE:
-                    validateInputSize(commandAndInputs, supportedAssets + 1);
-                    List<Double> rates =
-                            Arrays.stream(commandAndInputs)
-                                    .skip(1)
-                                    .limit(supportedAssets)
-                                    .map(str -> Double.parseDouble(str.replace("%", "")))
-                                    .collect(Collectors.toList());
-                    Month month = Month.valueOf(commandAndInputs[supportedAssets + 1]);
-                    investmentService.change(rates, month);
-                    break;
-                case BALANCE:
-                    validateInputSize(commandAndInputs, 1);
-                    month = Month.valueOf(commandAndInputs[1]);
-                    output = investmentService.balance(month);
-                    break;
-                case REBALANCE:
-                    output = investmentService.reBalance();
-                    break;
-                default:
-                    throw new DataFormatException("Invalid Command " + command + " supplied");
+            return execute(portfolioId, line, from, to, command);
+        } catch (Exception e) {
+            out.println(
+                    "Error Occurred while processing "
+                            + new String(line, from, to - from, StandardCharsets.US_ASCII)
+                            + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Runs the command held in {@code line[from, to)} against the portfolio, parsing it into the
+     * reusable {@code command}. The parse time, latency and allocation of the command are recorded
+     * in the {@link EngineMetrics}.
+     *
+     * @return the output of the command, or null if the command has none
+     */
+    public String execute(String portfolioId, byte[] line, int from, int to, CommandDTO command)
+            throws Exception {
+        return run(portfolioId, line, from, to, command, null);
+    }
+
+    /**
+     * Runs the command held in {@code line[from, to)} like
+     * {@link #execute(String, byte[], int, int, CommandDTO)}, appending its output line to the
+     * writer instead of returning it.
+     */
+    public void execute(String portfolioId, byte[] line, int from, int to, CommandDTO command, CommandWriter out)
+            throws Exception {
+        run(portfolioId, line, from, to, command, out);
+    }
+
+    /**
+     * Runs a command that is already decoded against the portfolio.
+     *
+     * @return the output of the command, or null if the command has none
+     */
+    public String execute(String portfolioId, CommandDTO command) throws Exception {
+        return run(portfolioId, null, 0, 0, command, null);
+    }
+
+    /**
+     * Runs a command that is already decoded against the portfolio, appending its output line to
+     * the writer.
+     */
+    public void execute(String portfolioId, CommandDTO command, CommandWriter out) throws Exception {
+        run(portfolioId, null, 0, 0, command, out);
+    }
+
+    /**
+     * Parses {@code line[from, to)} into the command unless the line is null, then runs the command
+     * and appends its output line to the writer, or returns the output if there is no writer.
+     * Every {@code execute} goes through here, so each records the same metrics.
+     */
+    private String run(String portfolioId, byte[] line, int from, int to, CommandDTO command, CommandWriter out)
+            throws Exception {
+        long start = System.nanoTime();
+        long allocatedBefore = metrics.allocatedBytes();
+        try {
+            if (Objects.nonNull(line)) {
+                CommandParser.parse(line, from, to, investmentService.getSupportedAssets(portfolioId), command);
+                metrics.recordParse(System.nanoTime() - start);
+            }
+            String output = null;
+            if (Objects.isNull(out)) {
+                output = dispatch(portfolioId, command);
+            } else {
+                dispatch(portfolioId, command, out);
             }
+            metrics.recordCommand(
+                    command.getOperation(), System.nanoTime() - start, metrics.allocatedBytes() - allocatedBefore);
+            return output;
         } catch (Exception e) {
-            System.out.println(
-                    "Error Occurred while processing " + String.join(" ", commandAndInputs) + e.getMessage());
+            metrics.recordFailure();
+            throw e;
         }
-        return output;
     }
 
-    public static boolean isNullOrEmpty(String inputString) {
-        if (inputString == null || inputString. isEmpty())
-            return true;
-        return false;
+    /**
+     * Writes the output of BALANCE and REBALANCE straight from the balances; every other command
+     * goes through {@link #dispatch(String, CommandDTO)}.
+     */
+    private void dispatch(String portfolioId, CommandDTO command, CommandWriter out) throws Exception {
+        switch (command.getOperation()) {
+            case BALANCE:
+                investmentService.balance(portfolioId, command.getMonthIndex(), out);
+                out.endLine();
+                return;
+            case REBALANCE:
+                investmentService.reBalance(portfolioId, out);
+                out.endLine();
+                return;
+            default:
+                String output = dispatch(portfolioId, command);
+                if (Objects.nonNull(output)) {
+                    out.append(output);
+                    out.endLine();
+                }
+        }
     }
 
-    private void validateInputSize(String[] commandAndInputs, int size) {
-        if (commandAndInputs.length != size + 1) {
-            throw new InputMismatchException(
-                    "Please check the command " + String.join(" ", commandAndInputs));
+    private String dispatch(String portfolioId, CommandDTO command) throws Exception {
+        switch (command.getOperation()) {
+            case ALLOCATE:
+                investmentService.allocate(portfolioId, command.getValues().clone());
+                return null;
+            case SIP:
+                investmentService.sip(portfolioId, command.getValues().clone());
+                return null;
+            case CHANGE:
+                investmentService.change(portfolioId, command.getValues(), command.getMonthIndex());
+                return null;
+            case CHANGE_OVERRIDE:
+                investmentService.overrideChange(portfolioId, command.getValues(), command.getMonthIndex());
+                return null;
+            case MARKET_CHANGE:
+                investmentService.marketChange(command.getValues(), command.getMonthIndex());
+                return null;
+            case MARKET_CHANGE_OVERRIDE:
+                investmentService.overrideMarketChange(command.getValues(), command.getMonthIndex());
+                return null;
+            case BALANCE:
+                return investmentService.balance(portfolioId, command.getMonthIndex());
+            case REBALANCE:
+                return investmentService.reBalance(portfolioId);
+            case ASSETS:
+                investmentService.defineAssets(portfolioId, AssetUniverse.of(command.getAssetNames()));
+                return null;
+            case POLICY:
+                investmentService.setReBalancePolicy(portfolioId, command.getPolicy());
+                return null;
+            default:
+                throw new DataFormatException("Invalid Command " + command.getOperation() + " supplied");
         }
     }
 
-    private List<Double> getDoubleValues(int skip, int limit, String[] commandAndInputs) {
-        return Arrays.stream(commandAndInputs)
-                .skip(skip)
-                .limit(limit)
-                .map(Double::parseDouble)
-                .collect(Collectors.toList());
+    public static boolean isNullOrEmpty(String inputString) {
+        if (inputString == null || inputString. isEmpty())
+            return true;
+        return false;
     }
 
-    public static void validateInputs(Set<Assets> assetOrderForIO, List<Double> allocations)
+    public static void validateInputs(AssetUniverse assetUniverse, double[] allocations)
             throws DataFormatException {
-        if (Objects.isNull(allocations) || allocations.size() != assetOrderForIO.size()) {
+        if (Objects.isNull(allocations) || allocations.length != assetUniverse.size()) {
             throw new DataFormatException("The input is not in the desired format");
         }
     }
@@ -0,0 +1,139 @@
+package com.mymoney.investment.utils;
+
+import java.math.BigInteger;
+import java.util.InputMismatchException;
+import java.util.Objects;
+
+/**
+ * Fixed-point money. Amounts are {@code long} counts of the smallest unit, {@code 10^-scale} of
+ * the currency, so scale 0 counts whole rupees and scale 2 counts paise. Every step of the plan
+ * floors to that unit and balances are printed floored to whole rupees. At scale 0 this prints
+ * what the former double arithmetic printed, without the floors it got one rupee short when a
+ * binary rate such as {@code 1.015} landed just below a whole amount.
+ *
+ * <p>Rates of change are applied as whole millionths of the amount, i.e. percentages with up to
+ * {@value #RATE_DECIMALS} decimals; {@code 4.00%} becomes the exact factor {@code 1_040_000 / 1_000_000}.
+ * The kernels are static, work on primitives and only leave the {@code long} fast path, through
+ * {@link BigInteger}, when an intermediate product does not fit in 64 bits.
+ */
+public final class Money {
+
+    public static final int MAX_SCALE = 4;
+    public static final int RATE_DECIMALS = 4;
+    /** A rate of 100%, in rate units. */
+    public static final long RATE_ONE = 100 * 10_000L;
+    private static final double RATE_UNITS_PER_PERCENT = 10_000;
+
+    public static final Money DEFAULT = new Money(0);
+
+    private final int scale;
+    private final long unitsPerRupee;
+
+    private Money(int scale) {
+        this.scale = scale;
+        long units = 1;
+        for (int digit = 0; digit < scale; digit++) {
+            units *= 10;
+        }
+        this.unitsPerRupee = units;
+    }
+
+    public static Money ofScale(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new InputMismatchException("The money scale must be between 0 and " + MAX_SCALE + " decimals");
+        }
+        return scale == 0 ? DEFAULT : new Money(scale);
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public long getUnitsPerRupee() {
+        return unitsPerRupee;
+    }
+
+    /**
+     * @return the amount in units, rounded to the nearest unit so that decimal inputs such as
+     * {@code 10.01} are read exactly
+     */
+    public long toUnits(double amount) {
+        return Math.round(amount * unitsPerRupee);
+    }
+
+    /**
+     * @return the amounts in units, or null for null
+     */
+    public long[] toUnits(double[] amounts) {
+        if (Objects.isNull(amounts)) {
+            return null;
+        }
+        long[] units = new long[amounts.length];
+        for (int index = 0; index < amounts.length; index++) {
+            units[index] = toUnits(amounts[index]);
+        }
+        return units;
+    }
+
+    public double toRupees(long units) {
+        return scale == 0 ? units : (double) units / unitsPerRupee;
+    }
+
+    /**
+     * Appends the amount floored to whole rupees, the output format of every balance.
+     */
+    public StringBuilder append(StringBuilder builder, long units) {
+        return builder.append(Math.floorDiv(units, unitsPerRupee));
+    }
+
+    public CommandWriter append(CommandWriter writer, long units) {
+        return writer.append(Math.floorDiv(units, unitsPerRupee));
+    }
+
+    /**
+     * @return the rate of change in percent as a whole number of millionths
+     */
+    public static long rateUnits(double percent) {
+        return Math.round(percent * RATE_UNITS_PER_PERCENT);
+    }
+
+    /**
+     * @return the amount after the rate of change, floored to the unit
+     */
+    public static long applyRate(long amount, double percent) {
+        return multiplyFloorDivide(amount, RATE_ONE + rateUnits(percent), RATE_ONE);
+    }
+
+    /**
+     * @return {@code floor(value * numerator / denominator)} computed exactly
+     * @throws ArithmeticException if the result does not fit in a long
+     */
+    public static long multiplyFloorDivide(long value, long numerator, long denominator) {
+        long low = value * numerator;
+        long high = Math.multiplyHigh(value, numerator);
+        if (high == low >> 63) {
+            return Math.floorDiv(low, denominator);
+        }
+        BigInteger[] quotient = BigInteger.valueOf(value).multiply(BigInteger.valueOf(numerator))
+                .divideAndRemainder(BigInteger.valueOf(denominator));
+        BigInteger floor = quotient[1].signum() != 0 && quotient[1].signum() != Long.signum(denominator)
+                ? quotient[0].subtract(BigInteger.ONE)
+                : quotient[0];
+        return floor.longValueExact();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money && ((Money) other).scale == scale;
+    }
+
+    @Override
+    public int hashCode() {
+        return scale;
+    }
+
+    @Override
+    public String toString() {
+        return "Money{scale=" + scale + "}";
+    }
+}
@@ -0,0 +1,61 @@
+package com.mymoney.investment.utils;
+
+import java.time.Month;
+
+/**
+ * Maps calendar months of a plan onto the dense month index used by the portfolio series. Index 0
+ * is JANUARY of the first year of the plan.
+ */
+public final class Timeline {
+
+    public static final int MONTHS_PER_YEAR = 12;
+    public static final int FIRST_YEAR = 1;
+    /** Longest plan, so no month index or series of a portfolio can outgrow its arrays. */
+    public static final int MAX_YEARS = 100;
+    public static final int MAX_MONTHS = MAX_YEARS * MONTHS_PER_YEAR;
+    /** Assumption#3: The re-balancing happens every 6 months, on JUNE and DECEMBER. */
+    public static final int REBALANCE_PERIOD_MONTHS = 6;
+
+    private static final Month[] MONTHS = Month.values();
+
+    private Timeline() {
+    }
+
+    /**
+     * @param year the 1-based year of the plan
+     */
+    public static int monthIndex(Month month, int year) {
+        if (year < FIRST_YEAR || year > MAX_YEARS) {
+            throw new IllegalArgumentException(
+                    "The year of the plan must be between " + FIRST_YEAR + " and " + MAX_YEARS);
+        }
+        return (year - FIRST_YEAR) * MONTHS_PER_YEAR + month.ordinal();
+    }
+
+    /**
+     * @return whether the month index falls within the longest plan
+     */
+    public static boolean isInPlan(int monthIndex) {
+        return monthIndex >= 0 && monthIndex < MAX_MONTHS;
+    }
+
+    public static Month monthOf(int monthIndex) {
+        return MONTHS[monthIndex % MONTHS_PER_YEAR];
+    }
+
+    public static int yearOf(int monthIndex) {
+        return monthIndex / MONTHS_PER_YEAR + FIRST_YEAR;
+    }
+
+    /**
+     * @return the month name, followed by the year of the plan after the first year
+     */
+    public static String describe(int monthIndex) {
+        int year = yearOf(monthIndex);
+        return year == FIRST_YEAR ? monthOf(monthIndex).name() : monthOf(monthIndex).name() + " " + year;
+    }
+
+    public static boolean isReBalanceMonth(int monthIndex) {
+        return (monthIndex + 1) % REBALANCE_PERIOD_MONTHS == 0;
+    }
+}
@@ -0,0 +1,106 @@
+package com.mymoney.investment;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.BatchSummaryDTO;
+import com.mymoney.investment.service.InvestmentService;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import com.mymoney.investment.utils.BatchInvestmentProcessor;
+import com.mymoney.investment.utils.InvestmentHelper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BatchInvestmentProcessorTest {
+
+    private PortfolioStore portfolioStore;
+    private BatchInvestmentProcessor batchInvestmentProcessor;
+
+    @BeforeEach
+    public void setUp() {
+        portfolioStore = new PortfolioStore(MyMoneyConfig::dataStub);
+        InvestmentService investmentService = new InvestmentServiceImpl(portfolioStore);
+        batchInvestmentProcessor =
+                new BatchInvestmentProcessor(new InvestmentHelper(investmentService), investmentService);
+    }
+
+    @Test
+    void testProcessDirectoryInParallel(@TempDir Path tempDir) throws Exception {
+        Path inputFile =
+                Paths.get(Objects.requireNonNull(
+                        this.getClass().getClassLoader().getResource("testInputFile")).toURI());
+        Path inputDir = Files.createDirectory(tempDir.resolve("input"));
+        for (int index = 0; index < 20; index++) {
+            Files.copy(inputFile, inputDir.resolve("customer-" + index));
+        }
+        Path outputDir = tempDir.resolve("output");
+
+        BatchSummaryDTO summary = batchInvestmentProcessor.processBatch(inputDir, outputDir, 4);
+
+        assertEquals(20, summary.getFiles());
+        assertEquals(0, summary.getFailures());
+        assertEquals(0, portfolioStore.size());
+        for (int index = 0; index < 20; index++) {
+            assertEquals(
+                    List.of("10593 7897 2272", "23619 11809 3936"),
+                    Files.readAllLines(outputDir.resolve("customer-" + index + ".out")));
+        }
+    }
+
+    @Test
+    void testManifestWithCollidingOutputNamesIsRejected(@TempDir Path tempDir) throws Exception {
+        for (String directory : List.of("north", "south")) {
+            Files.writeString(Files.createDirectory(tempDir.resolve(directory)).resolve("customer"),
+                    "ALLOCATE 6000 3000 1000\n");
+        }
+        Path manifest = tempDir.resolve("manifest");
+        Files.write(manifest, List.of("north/customer", "south/customer"));
+        Path outputDir = tempDir.resolve("output");
+
+        assertThrows(IOException.class, () -> batchInvestmentProcessor.processBatch(manifest, outputDir, 2));
+        assertFalse(Files.exists(outputDir));
+    }
+
+    @Test
+    void testLongFileNameFailsOnlyItsOwnFile(@TempDir Path tempDir) throws Exception {
+        Path inputDir = Files.createDirectory(tempDir.resolve("input"));
+        Files.writeString(inputDir.resolve("customer"), "ALLOCATE 6000 3000 1000\n");
+        Files.writeString(inputDir.resolve("c".repeat(250)), "ALLOCATE 6000 3000 1000\n");
+
+        BatchSummaryDTO summary = batchInvestmentProcessor.processBatch(inputDir, tempDir.resolve("output"), 2);
+
+        assertEquals(2, summary.getFiles());
+        assertEquals(0, summary.getFailures());
+        assertEquals(0, portfolioStore.size());
+    }
+
+    @Test
+    void testOutputIntoTheInputDirectoryIsRejected(@TempDir Path tempDir) throws Exception {
+        Files.writeString(tempDir.resolve("customer"), "ALLOCATE 6000 3000 1000\n");
+
+        assertThrows(IOException.class, () -> batchInvestmentProcessor.processBatch(tempDir, tempDir, 2));
+        assertFalse(Files.exists(tempDir.resolve("customer" + BatchInvestmentProcessor.OUTPUT_SUFFIX)));
+    }
+
+    @Test
+    void testProcessManifestReportsFailures(@TempDir Path tempDir) throws Exception {
+        Path manifest = tempDir.resolve("manifest");
+        Files.write(manifest, List.of("missing-file"));
+
+        BatchSummaryDTO summary = batchInvestmentProcessor.processBatch(manifest, tempDir, 2);
+
+        assertEquals(1, summary.getFiles());
+        assertEquals(1, summary.getFailures());
+    }
+}
@@ -0,0 +1,120 @@
+package com.mymoney.investment;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.controller.CommandServer;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import com.mymoney.investment.utils.InvestmentHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandServerTest {
+
+    private CommandServer commandServer;
+    private int port;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        PortfolioStore portfolioStore = new PortfolioStore(MyMoneyConfig::dataStub);
+        commandServer = new CommandServer(new InvestmentHelper(new InvestmentServiceImpl(portfolioStore)), 4);
+        port = commandServer.start(0);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        commandServer.close();
+    }
+
+    private List<String> send(String requests, int expectedResponses) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(requests.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> responses = new ArrayList<>();
+            for (int index = 0; index < expectedResponses; index++) {
+                responses.add(in.readLine());
+            }
+            return responses;
+        }
+    }
+
+    @Test
+    void testPipelinedCommandsAnswerInOrder() throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (String portfolio : new String[] {"alice", "bob"}) {
+            requests.append(portfolio).append(" ALLOCATE 6000 3000 1000\n")
+                    .append(portfolio).append(" SIP 2000 1000 500\n");
+        }
+        String[] months = {"4% 10% 2% JANUARY", "-10% 40% 0% FEBRUARY", "12.50% 12.50% 12.50% MARCH",
+                "8% -3% 7% APRIL", "13% 21% 10.50% MAY", "10% 8% -5% JUNE"};
+        for (String month : months) {
+            requests.append("alice CHANGE ").append(month).append('\n')
+                    .append("bob CHANGE ").append(month).append("\r\n");
+        }
+        requests.append("alice BALANCE MARCH\n\n")
+                .append("bob REBALANCE\n")
+                .append("bob BALANCE DECEMBER\n")
+                .append("carol\n");
+
+        List<String> responses = send(requests.toString(), 4 + 12 + 4);
+
+        for (int index = 0; index < 16; index++) {
+            assertEquals(CommandServer.OK, responses.get(index));
+        }
+        assertEquals("OK 10593 7897 2272", responses.get(16));
+        assertEquals("OK 23619 11809 3936", responses.get(17));
+        assertTrue(responses.get(18).startsWith(CommandServer.ERROR + " "), responses.get(18));
+        assertTrue(responses.get(19).startsWith(CommandServer.ERROR + " "), responses.get(19));
+    }
+
+    @Test
+    void testManyPortfoliosOnOneConnection() throws IOException {
+        int portfolios = 2_000;
+        StringBuilder requests = new StringBuilder();
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            requests.append('p').append(portfolio).append(" ALLOCATE 100 100 100\n");
+        }
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            requests.append('p').append(portfolio).append(" CHANGE ").append(portfolio % 10).append("% 0% 0% JANUARY\n");
+        }
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            requests.append('p').append(portfolio).append(" BALANCE JANUARY\n");
+        }
+
+        List<String> responses = send(requests.toString(), 3 * portfolios);
+
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            assertEquals("OK " + (100 + portfolio % 10) + " 100 100", responses.get(2 * portfolios + portfolio));
+        }
+    }
+
+    @Test
+    void testOverlongLineIsRejected() throws IOException {
+        StringBuilder requests = new StringBuilder("alice ALLOCATE 6000 3000 1000\n");
+        for (int index = 0; index < CommandServer.MAX_LINE_BYTES; index++) {
+            requests.append('x');
+        }
+
+        List<String> responses = send(requests.toString(), 3);
+
+        assertEquals(CommandServer.OK, responses.get(0));
+        assertTrue(responses.get(1).startsWith(CommandServer.ERROR + " The request is longer"), responses.get(1));
+        assertEquals(null, responses.get(2));
+    }
+}
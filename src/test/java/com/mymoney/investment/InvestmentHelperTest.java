@@ -1,41 +1,71 @@
 package com.mymoney.investment;
 
-import com.mymoney.investment.dao.DataStub;
-import com.mymoney.investment.enums.Assets;
+import ch.qos.logback.classic.Level;
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioJournal;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.enums.SupportedOperations;
 import com.mymoney.investment.service.InvestmentService;
 import com.mymoney.investment.service.InvestmentServiceImpl;
+import com.mymoney.investment.utils.BinaryCommandReader;
+import com.mymoney.investment.utils.CommandReader;
+import com.mymoney.investment.utils.CommandWriter;
+import com.mymoney.investment.utils.Constants;
+import com.mymoney.investment.utils.EngineMetrics;
 import com.mymoney.investment.utils.InvestmentHelper;
+import com.mymoney.investment.utils.LogHistogram;
+import com.mymoney.investment.utils.Timeline;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.Spy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class InvestmentHelperTest {
 
     @Mock
-    private DataStub dataStub;
+    private PortfolioStore portfolioStore;
     @Mock private InvestmentService investmentService;
     @Spy
     private InvestmentHelper investmentHelper;
 
     @BeforeEach
     public void setUp() {
-        dataStub = new DataStub();
-        dataStub.defaultAssetOrderForIO.add(Assets.EQUITY);
-        dataStub.defaultAssetOrderForIO.add(Assets.DEBT);
-        dataStub.defaultAssetOrderForIO.add(Assets.GOLD);
-        investmentService = new InvestmentServiceImpl(dataStub);
+        portfolioStore = new PortfolioStore(MyMoneyConfig::dataStub);
+        investmentService = new InvestmentServiceImpl(portfolioStore);
         investmentHelper = new InvestmentHelper(investmentService);
     }
 
@@ -54,7 +84,11 @@ public class InvestmentHelperTest {
         String outputFile =
                 Objects.requireNonNull(this.getClass().getClassLoader().getResource("testOutputFile"))
                         .getFile();
-        List<String> output = investmentHelper.processInvestment(inputFile);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8)) {
+            investmentHelper.processInvestment(Constants.DEFAULT_PORTFOLIO, inputFile, out);
+        }
+        List<String> output = buffer.toString(StandardCharsets.UTF_8).lines().collect(Collectors.toList());
         try (Stream<String> lines = Files.lines(Paths.get(outputFile))) {
             String expectedResult = lines.map(String::trim).collect(Collectors.joining(";"));
             String result =
@@ -65,4 +99,201 @@ public class InvestmentHelperTest {
             assertEquals(expectedResult, result);
         }
     }
+
+    @Test
+    void testProcessLineParsesWithoutSplitting() {
+        assertEquals(null, investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "ALLOCATE 6000 3000 1000"));
+        assertEquals(null, investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "CHANGE  4.00%\t-10.50% 2% JANUARY\r"));
+        assertEquals("6240 2685 1020", investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "BALANCE JANUARY"));
+        assertEquals(null, investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "BALANCE JANUARY EXTRA"));
+        assertEquals(null, investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "SIP 1 2"));
+        assertEquals(null, investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "CHANGE 1% 1% 1% FEBRUARY 1"));
+        assertEquals("6302 2711 1030", investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "BALANCE FEBRUARY 1"));
+        assertEquals(null, investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "BALANCE FEBRUARY 0"));
+        assertEquals(null, investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "CHANGE 1% 1% 1% MARCH 101"));
+        assertThrows(IllegalArgumentException.class,
+                () -> investmentService.change(Constants.DEFAULT_PORTFOLIO, new double[] {1, 1, 1}, Timeline.MAX_MONTHS));
+        assertEquals(null, investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "POLICY DRIFT 5%"));
+        assertEquals("DRIFT 5", investmentService.getReBalancePolicy(Constants.DEFAULT_PORTFOLIO).toString());
+    }
+
+    @Test
+    void testCommandReaderHandlesLinesAcrossBufferBoundaries() throws IOException {
+        byte[] input = "ALLOCATE 6000 3000 1000\r\n\nBALANCE MARCH\nREBALANCE".getBytes(StandardCharsets.US_ASCII);
+        List<String> lines = new ArrayList<>();
+        try (CommandReader reader =
+                     new CommandReader(Channels.newChannel(new ByteArrayInputStream(input)), 8)) {
+            while (reader.nextLine()) {
+                lines.add(new String(reader.buffer(), reader.lineStart(),
+                        reader.lineEnd() - reader.lineStart(), StandardCharsets.US_ASCII));
+            }
+        }
+        assertEquals(List.of("ALLOCATE 6000 3000 1000", "", "BALANCE MARCH", "REBALANCE"), lines);
+    }
+
+    @Test
+    void testPortfolioWithRuntimeAssetUniverse() {
+        String portfolio = "wide";
+        assertEquals(null, investmentHelper.processLine(portfolio, "ASSETS NIFTY BONDS GOLD REIT CASH"));
+        assertEquals(5, investmentService.getSupportedAssets(portfolio));
+        assertEquals(null, investmentHelper.processLine(portfolio, "ALLOCATE 4000 2000 1000 2000 1000"));
+        assertEquals(null, investmentHelper.processLine(portfolio, "SIP 400 200 100 200 100"));
+        assertEquals(null, investmentHelper.processLine(portfolio, "CHANGE 10% 0% 0% -10% 0% JANUARY"));
+        assertEquals(null, investmentHelper.processLine(portfolio, "CHANGE 0% 0% 0% 0% 0% FEBRUARY"));
+        assertEquals("4400 2000 1000 1800 1000", investmentHelper.processLine(portfolio, "BALANCE JANUARY"));
+        assertEquals("4800 2200 1100 2000 1100", investmentHelper.processLine(portfolio, "BALANCE FEBRUARY"));
+
+        investmentHelper.processLine(portfolio, "ASSETS EQUITY DEBT");
+        assertEquals(5, investmentService.getSupportedAssets(portfolio));
+        assertEquals("NIFTY BONDS GOLD REIT CASH", investmentService.getAssets(portfolio).toString());
+        assertThrows(InputMismatchException.class, () -> AssetUniverse.of("GOLD", "GOLD"));
+        assertEquals(3, investmentService.getSupportedAssets(Constants.DEFAULT_PORTFOLIO));
+
+        assertEquals(null, investmentHelper.processLine("ghost", "BALANCE JANUARY"));
+        assertEquals("EQUITY DEBT GOLD", investmentService.getAssets("ghost").toString());
+        assertEquals(RebalancePolicy.DEFAULT, investmentService.getReBalancePolicy("ghost"));
+        assertEquals(false, portfolioStore.find("ghost").isPresent());
+        assertEquals(false, portfolioStore.find(Constants.DEFAULT_PORTFOLIO).isPresent());
+    }
+
+    @Test
+    void testMetricsRecordCommandsAndBalanceQueries() throws IOException {
+        EngineMetrics metrics = new EngineMetrics(true);
+        InvestmentHelper measured = new InvestmentHelper(
+                new InvestmentServiceImpl(portfolioStore, PortfolioJournal.disabled(), metrics), metrics);
+        String inputFile =
+                Objects.requireNonNull(this.getClass().getClassLoader().getResource("testInputFile"))
+                        .getFile();
+        measured.processInvestment("measured", inputFile, new PrintStream(new ByteArrayOutputStream()));
+        assertEquals("10593 7897 2272", measured.processLine("measured", "BALANCE MARCH"));
+        measured.processLine("measured", "SIP 1 2");
+
+        assertEquals(11, metrics.getCommandCount());
+        assertEquals(1, metrics.getFailedCommandCount());
+        assertEquals(1, metrics.getRebalanceCount());
+        assertEquals(1, metrics.getBalanceCacheHits());
+        assertEquals(2, metrics.getBalanceCacheMisses());
+        assertEquals(6, metrics.getCommandNanos(SupportedOperations.CHANGE).getCount());
+        assertEquals(3, metrics.getMonthsPerBalanceQuery().getMax());
+        assertTrue(metrics.report().contains("command.REBALANCE.nanos count=1"));
+
+        LogHistogram histogram = new LogHistogram();
+        LongStream.rangeClosed(1, 1000).forEach(histogram::record);
+        assertEquals(1000, histogram.getMax());
+        assertTrue(Math.abs(histogram.getValueAtPercentile(50) - 500) <= 500 / 8);
+        assertTrue(Math.abs(histogram.getValueAtPercentile(99) - 990) <= 990 / 8);
+    }
+
+    @Test
+    void testBinaryCommandsReplayLikeText(@TempDir Path tempDir) throws IOException {
+        String inputFile =
+                Objects.requireNonNull(this.getClass().getClassLoader().getResource("testInputFile"))
+                        .getFile();
+        Path binary = tempDir.resolve("commands.bin");
+        assertEquals(10, investmentHelper.convert(inputFile, binary.toString()));
+        assertEquals(List.of("10593 7897 2272", "23619 11809 3936"), replay("binary", binary.toString()));
+        assertEquals(replay("text", inputFile), replay("binary-again", binary.toString()));
+
+        Path text = tempDir.resolve("wide.txt");
+        Files.writeString(text, "ASSETS NIFTY BONDS\nALLOCATE 100 300\nCHANGE 10% 0% JANUARY 2\n"
+                + "CHANGE 0% 0% JANUARY\nBALANCE JANUARY\n");
+        Path wide = tempDir.resolve("wide.bin");
+        assertEquals(4, investmentHelper.convert(text.toString(), wide.toString()));
+        try (BinaryCommandReader reader = new BinaryCommandReader(FileChannel.open(wide))) {
+            assertEquals(List.of("NIFTY", "BONDS"), reader.getAssetNames());
+            assertEquals(4, reader.getRecordCount());
+        }
+        assertEquals(List.of("100 300"), replay("wide", wide.toString()));
+        assertEquals("NIFTY BONDS", investmentService.getAssets("wide").toString());
+        assertEquals(Timeline.monthIndex(Month.JANUARY, 2),
+                portfolioStore.find("wide").orElseThrow().monthlyMarketChangeRate.getLastKnownMonth());
+
+        Files.writeString(text, "ALLOCATE 1 2 3\nASSETS NIFTY BONDS\n");
+        assertThrows(InputMismatchException.class, () -> investmentHelper.convert(text.toString(), wide.toString()));
+    }
+
+    @Test
+    void testLauncherRunsOneShotModesWithoutSpring(@TempDir Path tempDir) throws Exception {
+        Path text = tempDir.resolve("wide.txt");
+        Files.writeString(text, "ALLOCATE 100 300\nCHANGE 10% 0% JANUARY\nBALANCE JANUARY\n");
+        Path binary = tempDir.resolve("wide.bin");
+        ch.qos.logback.classic.Logger root =
+                (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        Level level = root.getLevel();
+        try (IsolatedClassLoader loader = new IsolatedClassLoader()) {
+            loader.loadClass(InvestmentLauncher.class.getName()).getMethod("main", String[].class).invoke(null,
+                    (Object) new String[] {"--mymoney.assets=NIFTY,BONDS", "convert", text.toString(), binary.toString()});
+            assertFalse(loader.isLoaded("org.springframework.boot.SpringApplication"));
+            assertFalse(loader.isLoaded("org.springframework.context.ApplicationContext"));
+            assertFalse(loader.isLoaded("org.springframework.shell.Shell"));
+            assertTrue(loader.isLoaded(InvestmentLauncher.class.getName()));
+        } finally {
+            root.setLevel(level);
+        }
+
+        try (BinaryCommandReader reader = new BinaryCommandReader(FileChannel.open(binary))) {
+            assertEquals(2, reader.getValueCount());
+            assertEquals(3, reader.getRecordCount());
+        }
+        assertEquals(List.of("convert", "a", "b"),
+                InvestmentLauncher.positionalArguments(new String[] {"convert", "--x=1", "a", "b"}));
+    }
+
+    /**
+     * Loads the application afresh from the test class path, so a test sees which classes a run
+     * loads, and the logging it configures stays out of the rest of the suite.
+     */
+    private static final class IsolatedClassLoader extends URLClassLoader {
+
+        IsolatedClassLoader() {
+            super(Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator))
+                    .map(IsolatedClassLoader::toUrl)
+                    .toArray(URL[]::new), ClassLoader.getPlatformClassLoader());
+        }
+
+        boolean isLoaded(String name) {
+            return Objects.nonNull(findLoadedClass(name));
+        }
+
+        private static URL toUrl(String entry) {
+            try {
+                return Paths.get(entry).toUri().toURL();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    private List<String> replay(String portfolioId, String file) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8)) {
+            investmentHelper.processInvestment(portfolioId, file, out);
+        }
+        return buffer.toString(StandardCharsets.UTF_8).lines().collect(Collectors.toList());
+    }
+
+    @Test
+    void testCommandWriterWritesLinesInBlocks() throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (CommandWriter writer = new CommandWriter(buffer)) {
+            writer.append(0L).append(' ').append(-42L).append(' ').append(Long.MIN_VALUE)
+                    .append(' ').append(Long.MAX_VALUE).append(" ₹");
+            writer.endLine();
+            assertEquals(0, buffer.size());
+            investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "ALLOCATE 6000 3000 1000");
+            investmentHelper.processLine(Constants.DEFAULT_PORTFOLIO, "CHANGE 4.00% 10.00% 2.00% JANUARY");
+            for (int line = 0; line < 10_000; line++) {
+                investmentService.balance(Constants.DEFAULT_PORTFOLIO, Timeline.monthIndex(Month.JANUARY, 1), writer);
+                writer.endLine();
+            }
+            assertTrue(buffer.size() > 0 && writer.pending() > 0);
+            investmentService.reBalance(Constants.DEFAULT_PORTFOLIO, writer);
+            writer.endLine();
+        }
+        List<String> lines = buffer.toString(StandardCharsets.UTF_8).lines().collect(Collectors.toList());
+        assertEquals(10_002, lines.size());
+        assertEquals("0 -42 " + Long.MIN_VALUE + " " + Long.MAX_VALUE + " ₹", lines.get(0));
+        assertEquals("6240 3300 1020", lines.get(10_000));
+        assertEquals("CANNOT_REBALANCE", lines.get(10_001));
+    }
 }
@@ -0,0 +1,570 @@
+package com.mymoney.investment;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioJournal;
+import com.mymoney.investment.dao.PortfolioMailbox;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.AssetTotalsDTO;
+import com.mymoney.investment.dto.AssetUniverse;
+import com.mymoney.investment.dto.BalanceSnapshot;
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.PortfolioGrowthDTO;
+import com.mymoney.investment.dto.ProjectionDTO;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.dto.ReturnMetricsDTO;
+import com.mymoney.investment.enums.BalanceStorage;
+import com.mymoney.investment.service.AnalyticsService;
+import com.mymoney.investment.service.AnalyticsServiceImpl;
+import com.mymoney.investment.service.InvestmentService;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import com.mymoney.investment.utils.Money;
+import com.mymoney.investment.utils.Timeline;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InvestmentServiceImplTest {
+
+    private PortfolioStore portfolioStore;
+    private InvestmentService investmentService;
+
+    @BeforeEach
+    public void setUp() {
+        portfolioStore = new PortfolioStore(MyMoneyConfig::dataStub);
+        investmentService = new InvestmentServiceImpl(portfolioStore);
+    }
+
+    private void replaySample(String portfolioId) throws Exception {
+        investmentService.allocate(portfolioId, Arrays.asList(6000d, 3000d, 1000d));
+        investmentService.sip(portfolioId, Arrays.asList(2000d, 1000d, 500d));
+        investmentService.change(portfolioId, Arrays.asList(4d, 10d, 2d), Month.JANUARY);
+        investmentService.change(portfolioId, Arrays.asList(-10d, 40d, 0d), Month.FEBRUARY);
+        investmentService.change(portfolioId, Arrays.asList(12.5d, 12.5d, 12.5d), Month.MARCH);
+        investmentService.change(portfolioId, Arrays.asList(8d, -3d, 7d), Month.APRIL);
+        investmentService.change(portfolioId, Arrays.asList(13d, 21d, 10.5d), Month.MAY);
+        investmentService.change(portfolioId, Arrays.asList(10d, 8d, -5d), Month.JUNE);
+    }
+
+    @Test
+    void testPortfoliosAreIsolated() throws Exception {
+        replaySample("first");
+        investmentService.allocate("second", Arrays.asList(100d, 100d, 100d));
+        investmentService.change("second", Arrays.asList(0d, 0d, 0d), Month.JANUARY);
+
+        assertEquals("10593 7897 2272", investmentService.balance("first", Month.MARCH));
+        assertEquals("100 100 100", investmentService.balance("second", Month.JANUARY));
+        assertEquals(InvestmentServiceImpl.CANNOT_REBALANCE, investmentService.reBalance("second"));
+        assertThrows(IllegalStateException.class, () -> investmentService.balance("unknown", Month.MARCH));
+    }
+
+    @Test
+    void testConcurrentPortfolios() {
+        List<String> balances =
+                IntStream.range(0, 64)
+                        .parallel()
+                        .mapToObj(index -> {
+                            String portfolioId = "portfolio-" + index;
+                            try {
+                                replaySample(portfolioId);
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                            return investmentService.reBalance(portfolioId);
+                        })
+                        .distinct()
+                        .collect(Collectors.toList());
+
+        assertEquals(List.of("23619 11809 3936"), balances);
+        assertEquals(64, portfolioStore.size());
+    }
+
+    @Test
+    void testReadersNeverSeeAHalfAppliedChange() throws Exception {
+        replaySample("contended");
+        int march = Timeline.monthIndex(Month.MARCH, 1);
+        double[] marchRates = {12.5, 12.5, 12.5};
+        double[] flatRates = {0, 0, 0};
+        String original = investmentService.balance("contended", Month.JUNE);
+        investmentService.overrideChange("contended", flatRates, march);
+        String flat = investmentService.balance("contended", Month.JUNE);
+        List<String> valid = List.of(original, flat);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (int round = 0; round < 2000; round++) {
+                    investmentService.overrideChange("contended", round % 2 == 0 ? marchRates : flatRates, march);
+                }
+                return null;
+            });
+            List<Future<?>> readers = IntStream.range(0, 3)
+                    .mapToObj(reader -> executor.submit(() -> {
+                        while (!writer.isDone()) {
+                            String balance = investmentService.balance("contended", Month.JUNE);
+                            assertTrue(valid.contains(balance), balance);
+                        }
+                        return null;
+                    }))
+                    .collect(Collectors.toList());
+            writer.get(30, TimeUnit.SECONDS);
+            for (Future<?> reader : readers) {
+                reader.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(flat, investmentService.balance("contended", Month.JUNE));
+    }
+
+    @Test
+    void testMailboxDrainsEveryCallerUnderContention() throws Exception {
+        PortfolioMailbox mailbox = portfolioStore.getOrCreate("hammered").mailbox;
+        int threads = 16;
+        int callsPerThread = 50_000;
+        long[] counter = new long[1];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> callers = IntStream.range(0, threads)
+                    .mapToObj(caller -> executor.submit(() -> {
+                        for (int call = 0; call < callsPerThread; call++) {
+                            long before = mailbox.call(() -> counter[0]++);
+                            assertTrue(before >= call, String.valueOf(before));
+                        }
+                        return null;
+                    }))
+                    .collect(Collectors.toList());
+            for (Future<?> caller : callers) {
+                caller.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals((long) threads * callsPerThread, (long) mailbox.call(() -> counter[0]));
+    }
+
+    @Test
+    void testRebalancePolicies() throws Exception {
+        replaySample("calendar");
+        investmentService.setReBalancePolicy("calendar", RebalancePolicy.parse("calendar 6"));
+        assertEquals("23619 11809 3936", investmentService.reBalance("calendar"));
+        investmentService.setReBalancePolicy("calendar", RebalancePolicy.calendar(3));
+        assertEquals("12457 6228 2076", investmentService.balance("calendar", Month.MARCH));
+        investmentService.setReBalancePolicy("calendar", RebalancePolicy.DEFAULT);
+        assertEquals("10593 7897 2272", investmentService.balance("calendar", Month.MARCH));
+
+        replaySample("never");
+        investmentService.setReBalancePolicy("never", RebalancePolicy.driftBand(100));
+        assertEquals(InvestmentServiceImpl.CANNOT_REBALANCE, investmentService.reBalance("never"));
+        investmentService.setReBalancePolicy("never", RebalancePolicy.driftBand(0));
+        String everyMonth = investmentService.reBalance("never");
+        assertEquals(investmentService.balance("never", Month.JUNE), everyMonth);
+        double[] weights = Arrays.stream(everyMonth.split(" ")).mapToDouble(Double::parseDouble).toArray();
+        double total = Arrays.stream(weights).sum();
+        assertEquals(60, weights[0] * 100 / total, 0.01);
+        assertEquals(30, weights[1] * 100 / total, 0.01);
+
+        double[] flat = {0, 0, 0};
+        investmentService.allocate("steered", new double[] {6000, 3000, 1000});
+        investmentService.sip("steered", new double[] {0, 0, 3500});
+        investmentService.setReBalancePolicy("steered", RebalancePolicy.cashFlow());
+        investmentService.change("steered", flat, Month.JANUARY);
+        investmentService.change("steered", flat, Month.FEBRUARY);
+        investmentService.change("steered", flat, Month.MARCH);
+        assertEquals("8100 4050 1350", investmentService.balance("steered", Month.FEBRUARY));
+        assertEquals("10200 5100 1700", investmentService.balance("steered", Month.MARCH));
+        assertEquals(InvestmentServiceImpl.CANNOT_REBALANCE, investmentService.reBalance("steered"));
+        assertEquals("CASHFLOW", investmentService.getReBalancePolicy("steered").toString());
+        assertThrows(InputMismatchException.class, () -> RebalancePolicy.parse("DRIFT"));
+        assertThrows(InputMismatchException.class, () -> RebalancePolicy.calendar(0));
+    }
+
+    @Test
+    void testFixedPointMoney() throws Exception {
+        // 1000 * (1 + 1.5 / 100) is 1014.9999999999999 in doubles.
+        investmentService.allocate("exact", new double[] {1000, 6000, 100});
+        investmentService.change("exact", new double[] {1.5, 1.5, 7}, Month.JANUARY);
+        assertEquals("1015 6090 107", investmentService.balance("exact", Month.JANUARY));
+
+        PortfolioStore paiseStore = PortfolioStore.builder(MyMoneyConfig::dataStub).money(Money.ofScale(2)).build();
+        InvestmentService paiseService = new InvestmentServiceImpl(paiseStore);
+        paiseService.allocate("paise", new double[] {100.99, 0.5, 10});
+        paiseService.sip("paise", new double[] {0.5, 0.5, 0.5});
+        paiseService.change("paise", new double[] {10, 10, 10}, Month.JANUARY);
+        paiseService.change("paise", new double[] {0, 0, 0}, Month.FEBRUARY);
+        assertEquals("111 0 11", paiseService.balance("paise", Month.JANUARY));
+        assertEquals("111 1 11", paiseService.balance("paise", Month.FEBRUARY));
+        assertThrows(InputMismatchException.class, () -> Money.ofScale(5));
+        assertEquals(-6, Money.multiplyFloorDivide(Long.MAX_VALUE, -3, Long.MAX_VALUE / 2 + 1));
+    }
+
+    @Test
+    void testOffHeapBalancesMatchTheHeap(@TempDir Path directory) throws Exception {
+        PortfolioStore offHeapStore = PortfolioStore.builder(MyMoneyConfig::dataStub)
+                .balanceStorage(BalanceStorage.OFF_HEAP)
+                .build();
+        PortfolioJournal journal = PortfolioJournal.of(offHeapStore, directory, Long.MAX_VALUE);
+        InvestmentServiceImpl offHeapService = new InvestmentServiceImpl(offHeapStore, journal);
+        offHeapService.recover();
+        replaySample("heap");
+        InvestmentService heapService = investmentService;
+        investmentService = offHeapService;
+        replaySample("direct");
+        assertEquals("10593 7897 2272", offHeapService.balance("direct", Month.MARCH));
+        assertEquals("23619 11809 3936", offHeapService.reBalance("direct"));
+
+        for (int month = Timeline.monthIndex(Month.JULY, 1); month < 5 * Timeline.MONTHS_PER_YEAR; month++) {
+            double[] rates = {1, month % 3 - 1, 0.25};
+            heapService.change("heap", rates, month);
+            offHeapService.change("direct", rates, month);
+        }
+        int lastMonth = Timeline.monthIndex(Month.DECEMBER, 5);
+        assertEquals(heapService.balance("heap", lastMonth), offHeapService.balance("direct", lastMonth));
+        BalanceSnapshot published = offHeapStore.find("direct").get().publishedBalance;
+        assertEquals(heapService.balance("heap", lastMonth), published.toString(lastMonth));
+        heapService.overrideChange("heap", new double[] {0, 0, 0}, Timeline.monthIndex(Month.MARCH, 2));
+        offHeapService.overrideChange("direct", new double[] {0, 0, 0}, Timeline.monthIndex(Month.MARCH, 2));
+        // The published rows were freed once the portfolio moved off them.
+        assertEquals(null, published.toString(lastMonth));
+        assertEquals(heapService.reBalance("heap"), offHeapService.reBalance("direct"));
+        replaySample("closed");
+        offHeapService.close("closed");
+        replaySample("reused");
+        assertEquals("10593 7897 2272", offHeapService.balance("reused", Month.MARCH));
+        assertEquals(heapService.returnMetrics("heap").toString(), offHeapService.returnMetrics("direct").toString());
+        journal.snapshot();
+        journal.close();
+
+        PortfolioStore recoveredStore = PortfolioStore.builder(MyMoneyConfig::dataStub)
+                .balanceStorage(BalanceStorage.OFF_HEAP)
+                .build();
+        PortfolioJournal recoveredJournal = PortfolioJournal.of(recoveredStore, directory, Long.MAX_VALUE);
+        InvestmentServiceImpl recovered = new InvestmentServiceImpl(recoveredStore, recoveredJournal);
+        recovered.recover();
+        assertEquals(heapService.balance("heap", lastMonth), recovered.balance("direct", lastMonth));
+        assertEquals("10593 7897 2272", recovered.balance("direct", Month.MARCH));
+        recoveredJournal.close();
+    }
+
+    @Test
+    void testProjectionFastForwardsBetweenRebalances() throws Exception {
+        replaySample("projected");
+        replaySample("stepped");
+        int lastMonth = Timeline.monthIndex(Month.DECEMBER, 40);
+        double[] rates = {1, 0.5, 0.25};
+        for (int month = Timeline.monthIndex(Month.JULY, 1); month <= lastMonth; month++) {
+            investmentService.change("stepped", rates, month);
+        }
+        String stepped = investmentService.balance("stepped", lastMonth);
+
+        assertEquals("10593 7897 2272", investmentService.project("projected", 2, null, true).toString());
+        assertEquals(stepped, investmentService.project("projected", lastMonth, rates, false).toString());
+        ProjectionDTO fastForwarded = investmentService.project("projected", lastMonth, rates, true);
+        assertEquals(false, fastForwarded.isExact());
+        long[] exact = Arrays.stream(stepped.split(" ")).mapToLong(Long::parseLong).toArray();
+        for (int asset = 0; asset < exact.length; asset++) {
+            long difference = fastForwarded.getAmounts()[asset] - exact[asset];
+            assertTrue(Math.abs(difference) < exact[asset] / 1_000, "off by " + difference);
+        }
+
+        ProjectionDTO flat = investmentService.project("projected", lastMonth, new double[] {0, 0, 0}, true);
+        assertEquals(investmentService.project("projected", lastMonth, new double[] {0, 0, 0}, false).toString(),
+                flat.toString());
+        assertEquals(true, flat.isExact());
+        investmentService.setReBalancePolicy("projected", RebalancePolicy.driftBand(5));
+        assertEquals(investmentService.project("projected", lastMonth, null, false).toString(),
+                investmentService.project("projected", lastMonth, null, true).toString());
+        assertEquals(6, portfolioStore.getOrCreate("projected").monthlyBalance.getCalculatedMonths());
+        // A jump out of the long range fails like stepping instead of saturating.
+        long[] large = {Long.MAX_VALUE / 4};
+        assertThrows(ArithmeticException.class,
+                () -> CompactPortfolio.fastForward(large, 0, null, new double[] {100}, 0, 1, 3));
+    }
+
+    @Test
+    void testMultiYearTimeline() throws Exception {
+        replaySample("projection");
+        investmentService.change("projection", new double[] {1, 1, 1}, Timeline.monthIndex(Month.JULY, 1));
+        assertEquals("23619 11809 3936", investmentService.reBalance("projection"));
+
+        for (int month = Timeline.monthIndex(Month.AUGUST, 1); month < 30 * Timeline.MONTHS_PER_YEAR; month++) {
+            investmentService.change("projection", new double[] {1, 0.5, 0.25}, month);
+        }
+        int lastMonth = Timeline.monthIndex(Month.DECEMBER, 30);
+        String lastRebalance = investmentService.reBalance("projection");
+        assertEquals(investmentService.balance("projection", lastMonth), lastRebalance);
+        assertEquals("10593 7897 2272", investmentService.balance("projection", Month.MARCH));
+        assertThrows(IllegalStateException.class,
+                () -> investmentService.balance("projection", lastMonth + 1));
+    }
+
+    @Test
+    void testLateAndCorrectedChangesInvalidateLaterMonths() throws Exception {
+        replaySample("late");
+        investmentService.change("late", new double[] {0, 0, 0}, Timeline.monthIndex(Month.AUGUST, 1));
+        assertEquals("23619 11809 3936", investmentService.reBalance("late"));
+        assertThrows(IllegalStateException.class, () -> investmentService.balance("late", Month.AUGUST));
+
+        investmentService.change("late", new double[] {0, 0, 0}, Timeline.monthIndex(Month.JULY, 1));
+        assertEquals("27619 13809 4936", investmentService.balance("late", Month.AUGUST));
+
+        String februaryBefore = investmentService.balance("late", Month.FEBRUARY);
+        investmentService.overrideChange("late", new double[] {0, 0, 0}, Timeline.monthIndex(Month.MARCH, 1));
+        assertEquals(februaryBefore, investmentService.balance("late", Month.FEBRUARY));
+        assertEquals("9416 7020 2020", investmentService.balance("late", Month.MARCH));
+        assertThrows(IllegalStateException.class,
+                () -> investmentService.change("late", new double[] {0, 0, 0}, Month.MARCH));
+    }
+
+    @Test
+    void testJournalRecoversPortfoliosAfterRestart(@TempDir Path directory) throws Exception {
+        PortfolioJournal journal = PortfolioJournal.of(portfolioStore, directory, Long.MAX_VALUE);
+        InvestmentServiceImpl durableService = new InvestmentServiceImpl(portfolioStore, journal);
+        durableService.recover();
+        investmentService = durableService;
+        replaySample("kept");
+        assertEquals("23619 11809 3936", investmentService.reBalance("kept"));
+        replaySample("drifting");
+        investmentService.setReBalancePolicy("drifting", RebalancePolicy.driftBand(3));
+        String drifted = investmentService.reBalance("drifting");
+        journal.snapshot();
+        investmentService.overrideChange("kept", new double[] {0, 0, 0}, Timeline.monthIndex(Month.MARCH, 1));
+        investmentService.marketChange(new double[] {1, 1, 1}, Timeline.monthIndex(Month.JULY, 1));
+        investmentService.setReBalancePolicy("kept", RebalancePolicy.cashFlow());
+        String expected = investmentService.balance("kept", Month.JULY);
+        replaySample("closed");
+        investmentService.close("closed");
+        investmentService.defineAssets("wide", AssetUniverse.of("A", "B", "C", "D"));
+        // IDs and names too long for the log are rejected before anything is recorded.
+        String longId = "x".repeat(Short.MAX_VALUE + 1);
+        assertThrows(IllegalArgumentException.class,
+                () -> investmentService.allocate(longId, Arrays.asList(1d, 1d, 1d)));
+        assertThrows(InputMismatchException.class,
+                () -> AssetUniverse.of("A", "x".repeat(AssetUniverse.MAX_NAME_LENGTH + 1)));
+        journal.close();
+        // A torn record at the tail is dropped on recovery.
+        Files.write(directory.resolve(PortfolioJournal.EVENT_LOG_FILE), new byte[] {0, 0, 1},
+                StandardOpenOption.APPEND);
+
+        PortfolioStore recoveredStore = new PortfolioStore(MyMoneyConfig::dataStub);
+        PortfolioJournal recoveredJournal = PortfolioJournal.of(recoveredStore, directory, Long.MAX_VALUE);
+        InvestmentServiceImpl recovered = new InvestmentServiceImpl(recoveredStore, recoveredJournal);
+        recovered.recover();
+        assertEquals(expected, recovered.balance("kept", Month.JULY));
+        assertEquals(RebalancePolicy.cashFlow(), recovered.getReBalancePolicy("kept"));
+        assertEquals(RebalancePolicy.driftBand(3), recovered.getReBalancePolicy("drifting"));
+        assertEquals(drifted, recovered.reBalance("drifting"));
+        assertEquals(Optional.empty(), recoveredStore.find("closed"));
+        assertEquals(AssetUniverse.of("A", "B", "C", "D"), recovered.getAssets("wide"));
+        recovered.change("kept", new double[] {0, 0, 0}, Month.AUGUST);
+        recoveredJournal.close();
+    }
+
+    @Test
+    void testChangeTheJournalRefusesIsNotApplied(@TempDir Path directory) throws Exception {
+        PortfolioJournal journal = PortfolioJournal.of(portfolioStore, directory, Long.MAX_VALUE);
+        InvestmentServiceImpl durableService = new InvestmentServiceImpl(portfolioStore, journal);
+        durableService.recover();
+        investmentService = durableService;
+        replaySample("kept");
+        journal.close();
+        // The first event after the log closed fails to become durable; the log refuses the rest.
+        assertThrows(UncheckedIOException.class,
+                () -> investmentService.setReBalancePolicy("kept", RebalancePolicy.cashFlow()));
+        String balance = investmentService.balance("kept", Month.MARCH);
+
+        assertThrows(UncheckedIOException.class, () -> investmentService.overrideChange(
+                "kept", new double[] {0, 0, 0}, Timeline.monthIndex(Month.MARCH, 1)));
+        assertThrows(UncheckedIOException.class,
+                () -> investmentService.setReBalancePolicy("kept", RebalancePolicy.driftBand(3)));
+        assertEquals(balance, investmentService.balance("kept", Month.MARCH));
+        assertEquals(RebalancePolicy.cashFlow(), investmentService.getReBalancePolicy("kept"));
+    }
+
+    @Test
+    void testRecoveryKeepsAChangeLoggedBeforeAMarketChangeOfTheSameMonth(@TempDir Path directory) throws Exception {
+        PortfolioJournal journal = PortfolioJournal.of(portfolioStore, directory, Long.MAX_VALUE);
+        InvestmentServiceImpl durableService = new InvestmentServiceImpl(portfolioStore, journal);
+        durableService.recover();
+        durableService.allocate("own", new double[] {6000, 3000, 1000});
+        PortfolioMailbox mailbox = portfolioStore.find("own").get().mailbox;
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // The snapshot copies the portfolio before its change but the market rates after the market
+        // change of the same month, both logged after the snapshot position.
+        FutureTask<Boolean> holder = new FutureTask<>(() -> mailbox.call(() -> {
+            held.countDown();
+            return release.await(60, TimeUnit.SECONDS);
+        }));
+        new Thread(holder).start();
+        assertTrue(held.await(60, TimeUnit.SECONDS));
+        FutureTask<Void> snapshot = new FutureTask<>(() -> {
+            journal.snapshot();
+            return null;
+        });
+        startAndAwaitQueued(snapshot);
+        FutureTask<Void> change = new FutureTask<>(() -> {
+            durableService.change("own", new double[] {0, 0, 0}, 0);
+            return null;
+        });
+        startAndAwaitQueued(change);
+        synchronized (portfolioStore.getMarketRates()) {
+            release.countDown();
+            assertTrue(holder.get(60, TimeUnit.SECONDS));
+            change.get(60, TimeUnit.SECONDS);
+            durableService.marketChange(new double[] {10, 10, 10}, 0);
+        }
+        snapshot.get(60, TimeUnit.SECONDS);
+        assertEquals("6000 3000 1000", durableService.balance("own", Month.JANUARY));
+        journal.close();
+
+        PortfolioStore recoveredStore = new PortfolioStore(MyMoneyConfig::dataStub);
+        PortfolioJournal recoveredJournal = PortfolioJournal.of(recoveredStore, directory, Long.MAX_VALUE);
+        InvestmentServiceImpl recovered = new InvestmentServiceImpl(recoveredStore, recoveredJournal);
+        recovered.recover();
+        assertEquals("6000 3000 1000", recovered.balance("own", Month.JANUARY));
+        recovered.allocate("market", new double[] {6000, 3000, 1000});
+        assertEquals("6600 3300 1100", recovered.balance("market", Month.JANUARY));
+        recoveredJournal.close();
+    }
+
+    /**
+     * Starts the task and waits until it blocks, which is in the mailbox the test holds.
+     */
+    private static void startAndAwaitQueued(FutureTask<?> task) throws InterruptedException {
+        Thread thread = new Thread(task);
+        thread.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(System.nanoTime() < deadline, "The task never queued in the mailbox");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void testMarketChangesAreSharedAndOverriddenPerPortfolio() throws Exception {
+        double[][] rates = {{4, 10, 2}, {-10, 40, 0}, {12.5, 12.5, 12.5}, {8, -3, 7}, {13, 21, 10.5}, {10, 8, -5}};
+        for (String portfolioId : Arrays.asList("shared", "overriding")) {
+            investmentService.allocate(portfolioId, new double[] {6000, 3000, 1000});
+            investmentService.sip(portfolioId, new double[] {2000, 1000, 500});
+        }
+        for (int month = 0; month < rates.length; month++) {
+            investmentService.marketChange(rates[month], month);
+        }
+        assertEquals("23619 11809 3936", investmentService.reBalance("shared"));
+        assertEquals("23619 11809 3936", investmentService.reBalance("overriding"));
+        assertEquals(null, portfolioStore.getOrCreate("shared").monthlyMarketChangeRate);
+
+        int march = Timeline.monthIndex(Month.MARCH, 1);
+        assertThrows(IllegalStateException.class,
+                () -> investmentService.change("overriding", new double[] {0, 0, 0}, march));
+        investmentService.overrideChange("overriding", new double[] {0, 0, 0}, march);
+        assertEquals("9416 7020 2020", investmentService.balance("overriding", Month.MARCH));
+        String sharedMarch = investmentService.balance("shared", Month.MARCH);
+        assertEquals(false, sharedMarch.equals("9416 7020 2020"));
+
+        investmentService.allocate("own", new double[] {6000, 3000, 1000});
+        investmentService.sip("own", new double[] {2000, 1000, 500});
+        for (int month = 0; month < rates.length; month++) {
+            investmentService.overrideChange("own", month == 1 ? new double[] {0, 0, 0} : rates[month], month);
+        }
+        investmentService.overrideMarketChange(new double[] {0, 0, 0}, Timeline.monthIndex(Month.FEBRUARY, 1));
+        assertEquals(investmentService.balance("own", Month.JUNE), investmentService.balance("shared", Month.JUNE));
+        assertThrows(IllegalStateException.class,
+                () -> investmentService.marketChange(new double[] {0, 0, 0}, Timeline.monthIndex(Month.JUNE, 1)));
+    }
+
+    @Test
+    void testRollupsFollowCalculatedMonths() throws Exception {
+        AnalyticsService analyticsService = new AnalyticsServiceImpl(portfolioStore);
+        replaySample("steady");
+        investmentService.allocate("flat", Arrays.asList(6000d, 3000d, 1000d));
+        investmentService.change("flat", Arrays.asList(0d, 0d, 0d), Month.JANUARY);
+        assertEquals("10593 7897 2272", investmentService.balance("steady", Month.MARCH));
+        assertEquals("6000 3000 1000", investmentService.balance("flat", Month.JANUARY));
+
+        int march = Timeline.monthIndex(Month.MARCH, 1);
+        AssetTotalsDTO january = analyticsService.assetTotals(Timeline.monthIndex(Month.JANUARY, 1));
+        assertEquals(2, january.getPortfolios());
+        assertEquals("JANUARY 2 EQUITY 12240 DEBT 6300 GOLD 2020", january.toString());
+        assertEquals(1, analyticsService.assetTotals(march).getPortfolios());
+        assertEquals(10593, analyticsService.assetTotals(march).getTotal(0));
+        assertEquals(0, analyticsService.assetTotals(Timeline.monthIndex(Month.APRIL, 1)).getPortfolios());
+
+        List<PortfolioGrowthDTO> top = analyticsService.topByGrowth(5);
+        assertEquals(Arrays.asList("steady", "flat"),
+                top.stream().map(PortfolioGrowthDTO::getPortfolioId).collect(Collectors.toList()));
+        assertEquals(17000, top.get(0).getInvested());
+        assertEquals((20762 - 17000) * 100.0 / 17000, top.get(0).getGrowthPercent(), 1e-9);
+        assertEquals(0, top.get(1).getGrowthPercent());
+        assertEquals(2, analyticsService.driftHistogram().getPortfolios());
+        assertEquals(1, analyticsService.driftHistogram().getCounts()[0]);
+
+        investmentService.overrideChange("steady", new double[] {0, 0, 0}, march);
+        assertEquals(0, analyticsService.assetTotals(march).getPortfolios());
+        assertEquals("9416 7020 2020", investmentService.balance("steady", Month.MARCH));
+        assertEquals(9416, analyticsService.assetTotals(march).getTotal(0));
+
+        investmentService.close("flat");
+        assertEquals(1, analyticsService.assetTotals(Timeline.monthIndex(Month.JANUARY, 1)).getPortfolios());
+        assertEquals(Arrays.asList("steady"),
+                analyticsService.topByGrowth(5).stream().map(PortfolioGrowthDTO::getPortfolioId)
+                        .collect(Collectors.toList()));
+        assertEquals(1, analyticsService.driftHistogram().getPortfolios());
+        assertEquals(0, analyticsService.assetTotals(AssetUniverse.of("CASH"), march).getPortfolios());
+    }
+
+    @Test
+    void testReturnMetricsStreamAndStartOverAfterCorrections() throws Exception {
+        investmentService.allocate("falling", Arrays.asList(1000d, 1000d, 1000d));
+        investmentService.change("falling", Arrays.asList(10d, 10d, 10d), Month.JANUARY);
+        investmentService.change("falling", Arrays.asList(-20d, -20d, -20d), Month.FEBRUARY);
+        ReturnMetricsDTO falling = investmentService.returnMetrics("falling");
+        assertEquals(2640, falling.getTotal());
+        assertEquals(-12, falling.getTimeWeightedReturnPercent(), 1e-9);
+        assertEquals(20, falling.getMaxDrawdownPercent(), 1e-9);
+        assertEquals((Math.pow(0.88, 6) - 1) * 100, falling.getXirrPercent(), 1e-9);
+        assertEquals(Math.sqrt(0.045 * 12) * 100, falling.getVolatilityPercent(), 1e-9);
+        assertEquals(Arrays.toString(new long[] {-120, -120, -120}), Arrays.toString(falling.getContributions()));
+
+        replaySample("streamed");
+        ReturnMetricsDTO june = investmentService.returnMetrics("streamed");
+        assertEquals(Timeline.monthIndex(Month.JUNE, 1), june.getMonth());
+        assertEquals(10000 + 5 * 3500, june.getInvested());
+        long gains = Arrays.stream(june.getContributions()).sum();
+        assertTrue(Math.abs(june.getTotal() - june.getInvested() - gains) <= 3);
+        assertTrue(june.getXirrPercent() > 0 && june.getTimeWeightedReturnPercent() > 0, june.toString());
+
+        investmentService.change("streamed", Arrays.asList(1d, 2d, 3d), Month.JULY);
+        investmentService.overrideChange("streamed", new double[] {0, 0, 0}, Timeline.monthIndex(Month.MARCH, 1));
+        ReturnMetricsDTO streamed = investmentService.returnMetrics("streamed");
+
+        replaySample("replayed");
+        investmentService.change("replayed", Arrays.asList(1d, 2d, 3d), Month.JULY);
+        investmentService.overrideChange("replayed", new double[] {0, 0, 0}, Timeline.monthIndex(Month.MARCH, 1));
+        assertEquals(investmentService.returnMetrics("replayed").toString(), streamed.toString());
+        assertEquals(Timeline.monthIndex(Month.JULY, 1), streamed.getMonth());
+        assertTrue(streamed.toString().startsWith("MONTH JULY"));
+    }
+}
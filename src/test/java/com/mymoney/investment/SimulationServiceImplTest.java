@@ -0,0 +1,229 @@
+package com.mymoney.investment;
+
+import com.mymoney.investment.config.MyMoneyConfig;
+import com.mymoney.investment.dao.PortfolioStore;
+import com.mymoney.investment.dto.CompactPortfolio;
+import com.mymoney.investment.dto.PortfolioColumns;
+import com.mymoney.investment.dto.RebalancePolicy;
+import com.mymoney.investment.dto.SimulationRequestDTO;
+import com.mymoney.investment.dto.SimulationResultDTO;
+import com.mymoney.investment.dto.WhatIfRequestDTO;
+import com.mymoney.investment.dto.WhatIfResultDTO;
+import com.mymoney.investment.service.InvestmentService;
+import com.mymoney.investment.service.InvestmentServiceImpl;
+import com.mymoney.investment.service.SimulationService;
+import com.mymoney.investment.service.SimulationServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SimulationServiceImplTest {
+
+    private static final double[] ALLOCATION = {6000, 3000, 1000};
+    private static final double[] SIP = {2000, 1000, 500};
+
+    private InvestmentService investmentService;
+    private SimulationService simulationService;
+
+    @BeforeEach
+    public void setUp() {
+        PortfolioStore portfolioStore = new PortfolioStore(MyMoneyConfig::dataStub);
+        investmentService = new InvestmentServiceImpl(portfolioStore);
+        simulationService = new SimulationServiceImpl(portfolioStore);
+    }
+
+    private SimulationRequestDTO request(double[] means, double[] deviations) {
+        SimulationRequestDTO request = new SimulationRequestDTO();
+        request.setPaths(5_000);
+        request.setMonths(36);
+        request.setMeanRates(means);
+        request.setRateDeviations(deviations);
+        return request;
+    }
+
+    @Test
+    void testDeterministicPathsMatchTheReplayedPortfolio() throws Exception {
+        double[] rates = {1.5, 0.5, -0.25};
+        investmentService.allocate("replay", ALLOCATION);
+        investmentService.sip("replay", SIP);
+        for (int month = 0; month < 36; month++) {
+            investmentService.change("replay", rates, month);
+        }
+
+        SimulationResultDTO result =
+                simulationService.simulate("replay", request(rates, new double[] {0, 0, 0}));
+
+        for (int month = 0; month < 36; month++) {
+            double expected =
+                    Arrays.stream(investmentService.balance("replay", month).split(" "))
+                            .mapToDouble(Double::parseDouble)
+                            .sum();
+            assertEquals(expected, result.getMeanBalances()[month], 1e-6);
+            assertEquals(expected, result.getBalance(1, month), expected * 0.004);
+        }
+    }
+
+    @Test
+    void testDeterministicPathsFollowThePortfolioPolicy() throws Exception {
+        double[] rates = {3, 0.5, -1};
+        for (RebalancePolicy policy : Arrays.asList(
+                RebalancePolicy.driftBand(3), RebalancePolicy.cashFlow(), RebalancePolicy.calendar(3))) {
+            String portfolioId = policy.toString();
+            investmentService.allocate(portfolioId, ALLOCATION);
+            investmentService.sip(portfolioId, SIP);
+            investmentService.setReBalancePolicy(portfolioId, policy);
+            for (int month = 0; month < 36; month++) {
+                investmentService.change(portfolioId, rates, month);
+            }
+
+            SimulationResultDTO result =
+                    simulationService.simulate(portfolioId, request(rates, new double[] {0, 0, 0}));
+
+            for (int month = 0; month < 36; month++) {
+                double expected =
+                        Arrays.stream(investmentService.balance(portfolioId, month).split(" "))
+                                .mapToDouble(Double::parseDouble)
+                                .sum();
+                assertEquals(expected, result.getMeanBalances()[month], 1e-6, portfolioId + " " + month);
+            }
+        }
+    }
+
+    @Test
+    void testSeedMakesResultsReproducible() {
+        SimulationRequestDTO request = request(new double[] {1, 0.5, 0.2}, new double[] {4, 1, 2});
+        request.setCorrelation(new double[][] {{1, 0.3, 0}, {0.3, 1, 0}, {0, 0, 1}});
+
+        SimulationResultDTO first = simulationService.simulate(ALLOCATION, SIP, request);
+        SimulationResultDTO second = simulationService.simulate(ALLOCATION, SIP, request);
+
+        assertEquals(5_000, first.getPaths());
+        assertArrayEquals(first.getMeanBalances(), second.getMeanBalances());
+        for (int level = 0; level < first.getPercentiles().length; level++) {
+            assertArrayEquals(first.getBalances()[level], second.getBalances()[level]);
+        }
+        assertTrue(first.getBalance(0, 35) < first.getBalance(1, 35));
+        assertTrue(first.getBalance(1, 35) < first.getBalance(2, 35));
+    }
+
+    @Test
+    void testRejectsInvalidCorrelation() {
+        SimulationRequestDTO request = request(new double[] {1, 1, 1}, new double[] {1, 1, 1});
+        request.setCorrelation(new double[][] {{1, 2, 0}, {2, 1, 0}, {0, 0, 1}});
+        assertThrows(InputMismatchException.class, () -> simulationService.simulate(ALLOCATION, SIP, request));
+    }
+
+    @Test
+    void testColumnKernelsRoundLikeThePortfolioKernels() {
+        int assetCount = 5;
+        int portfolios = 1_000;
+        SplittableRandom random = new SplittableRandom(7);
+        PortfolioColumns columns = new PortfolioColumns(assetCount, portfolios);
+        long[][] rows = new long[portfolios][];
+        long[][] weights = new long[assetCount][portfolios];
+        double[][] rates = new double[assetCount][portfolios];
+        long[] sip = random.longs(assetCount, 0, 5_000).toArray();
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            rows[portfolio] = random.longs(assetCount, 1, 1_000_000).toArray();
+            long[] rowWeights = random.longs(assetCount, 1, 100_000).toArray();
+            for (int asset = 0; asset < assetCount; asset++) {
+                columns.getAmounts(asset)[portfolio] = rows[portfolio][asset];
+                weights[asset][portfolio] = rowWeights[asset];
+                rates[asset][portfolio] = random.nextDouble(-20, 20);
+            }
+        }
+
+        columns.applySipInvestment(sip, portfolios);
+        columns.applyMarketChange(rates, portfolios);
+        columns.reBalance(weights, portfolios);
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            long[] row = rows[portfolio];
+            double[] rowRates = new double[assetCount];
+            long[] rowWeights = new long[assetCount];
+            for (int asset = 0; asset < assetCount; asset++) {
+                rowRates[asset] = rates[asset][portfolio];
+                rowWeights[asset] = weights[asset][portfolio];
+            }
+            CompactPortfolio.applySipInvestment(row, 0, sip, assetCount);
+            CompactPortfolio.applyMarketChange(row, 0, rowRates, 0, assetCount);
+            CompactPortfolio.reBalance(row, 0, rowWeights, assetCount);
+            for (int asset = 0; asset < assetCount; asset++) {
+                assertEquals(row[asset], columns.getAmounts(asset)[portfolio]);
+            }
+        }
+    }
+
+    @Test
+    void testWhatIfVariantsMatchTheirOwnPortfolios() throws Exception {
+        SplittableRandom random = new SplittableRandom(11);
+        double[][] allocations = new double[600][];
+        double[][] sips = new double[600][];
+        for (int variant = 0; variant < allocations.length; variant++) {
+            allocations[variant] = random.doubles(3, 100, 10_000).map(Math::floor).toArray();
+            sips[variant] = variant % 5 == 0 ? null : random.doubles(3, 0, 2_000).map(Math::floor).toArray();
+        }
+        allocations[0] = ALLOCATION;
+        sips[0] = SIP;
+        for (RebalancePolicy policy : new RebalancePolicy[] {
+                RebalancePolicy.DEFAULT, RebalancePolicy.driftBand(5), RebalancePolicy.cashFlow()}) {
+            String portfolio = "what-if-" + policy;
+            investmentService.setReBalancePolicy(portfolio, policy);
+            investmentService.allocate(portfolio, ALLOCATION);
+            investmentService.sip(portfolio, SIP);
+            SplittableRandom rates = new SplittableRandom(3);
+            for (int month = 0; month < 30; month++) {
+                investmentService.change(portfolio, rates.doubles(3, -8, 10).toArray(), month);
+            }
+            WhatIfRequestDTO request = new WhatIfRequestDTO();
+            request.setRates(investmentService.getRateHistory(portfolio));
+            request.setAllocations(allocations);
+            request.setSips(sips);
+            request.setPolicy(policy);
+
+            WhatIfResultDTO result = simulationService.whatIf(request);
+
+            assertEquals(30, result.getMonths());
+            for (int month = 0; month < 30; month++) {
+                double expected = Arrays.stream(investmentService.balance(portfolio, month).split(" "))
+                        .mapToDouble(Double::parseDouble)
+                        .sum();
+                assertEquals(expected, result.getTotal(0, month));
+            }
+            for (int variant : new int[] {5, 299, 599}) {
+                String other = portfolio + "-" + variant;
+                investmentService.setReBalancePolicy(other, policy);
+                investmentService.allocate(other, allocations[variant]);
+                if (sips[variant] != null) {
+                    investmentService.sip(other, sips[variant]);
+                }
+                double[][] history = request.getRates();
+                for (int month = 0; month < history.length; month++) {
+                    investmentService.change(other, history[month], month);
+                }
+                String[] lastBalance = investmentService.balance(other, 29).split(" ");
+                for (int asset = 0; asset < 3; asset++) {
+                    assertEquals(Double.parseDouble(lastBalance[asset]), result.getFinalAmount(variant, asset));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testWhatIfRejectsMismatchedVariants() {
+        WhatIfRequestDTO request = new WhatIfRequestDTO();
+        request.setRates(new double[][] {{1, 1, 1}});
+        request.setAllocations(new double[][] {ALLOCATION, {1000, 1000}});
+        assertThrows(InputMismatchException.class, () -> simulationService.whatIf(request));
+        request.setAllocations(new double[][] {ALLOCATION});
+        request.setSips(new double[][] {SIP, SIP});
+        assertThrows(InputMismatchException.class, () -> simulationService.whatIf(request));
+    }
+}